@@ -0,0 +1,60 @@
+package org.pablotron.luigi;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Parser.parse_template() on small and huge templates.
+ *
+ * This benchmark is in the org.pablotron.luigi package so it can call
+ * the parser directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+  /**
+   * Template size: a short greeting, or a large page with thousands of
+   * actions.
+   */
+  @Param({ "small", "huge" })
+  public String size;
+
+  private static final String SMALL = "Hello %{name | h}, you have %{count} new messages.";
+
+  private String template;
+
+  @Setup
+  public void setup() {
+    if (size.equals("small")) {
+      template = SMALL;
+    } else {
+      final StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 5000; i++)
+        sb.append("<tr><td>%{id").append(i).append("}</td><td>%{ name").append(i % 10).append(" | trim | h }</td></tr>\n");
+      template = sb.toString();
+    }
+  }
+
+  @Benchmark
+  public Action[] parse() throws LuigiError {
+    return Parser.parse_template(template);
+  }
+};
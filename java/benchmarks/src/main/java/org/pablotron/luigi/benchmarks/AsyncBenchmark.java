@@ -0,0 +1,145 @@
+package org.pablotron.luigi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+
+/**
+ * Compare Cache.runAsync() on the default executor with Cache.run()
+ * called synchronously from a pool of platform threads, for a template
+ * which calls a slow, blocking filter.
+ *
+ * Each invocation renders a batch of requests and waits for all of
+ * them, so the score is render throughput under high concurrency.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AsyncBenchmark {
+  /**
+   * Number of concurrent requests per invocation.
+   */
+  private static final int BATCH = 1024;
+
+  /**
+   * Platform thread pool for synchronous runs.  A separate state, so
+   * the threads parameter only applies to sync().
+   */
+  @State(Scope.Benchmark)
+  public static class Pool {
+    /**
+     * Number of platform threads used for synchronous runs.
+     */
+    @Param({ "16", "64" })
+    public int threads;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+      executor = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+      executor.shutdown();
+    }
+  };
+
+  /**
+   * Time spent blocked in the slow filter, in microseconds.
+   */
+  @Param({ "0", "100" })
+  public long delay;
+
+  private Cache cache;
+  private final List<Map<String, String>> requests = new ArrayList<Map<String, String>>();
+
+  @Setup
+  public void setup() {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("page", "<p>Hello %{name | lookup | h}, you have %{count} messages.</p>");
+
+    final long delay_nanos = TimeUnit.MICROSECONDS.toNanos(delay);
+    final Map<String, Filter.Handler> filters = new HashMap<String, Filter.Handler>(Filter.FILTERS);
+    filters.put("lookup", new Filter.Handler() {
+      public String filter(String val, String args[], Map<String, String> row) {
+        // simulate a blocking lookup in a local store
+        if (delay_nanos > 0)
+          LockSupport.parkNanos(delay_nanos);
+        return val;
+      }
+    });
+
+    cache = new Cache.Builder(strings)
+      .filters(filters)
+      .concurrent(true)
+      .build();
+
+    for (int i = 0; i < BATCH; i++) {
+      final Map<String, String> args = new HashMap<String, String>();
+      args.put("name", "user" + i);
+      args.put("count", Integer.toString(i));
+      requests.add(args);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int sync(final Pool pool) throws Exception {
+    final List<Callable<String>> tasks = new ArrayList<Callable<String>>(BATCH);
+    for (final Map<String, String> args: requests) {
+      tasks.add(new Callable<String>() {
+        public String call() throws Exception {
+          return cache.run("page", args);
+        }
+      });
+    }
+
+    int r = 0;
+    for (final Future<String> f: pool.executor.invokeAll(tasks))
+      r += f.get().length();
+    return r;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(BATCH)
+  public int async() throws Exception {
+    final List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>(BATCH);
+    for (final Map<String, String> args: requests)
+      futures.add(cache.runAsync("page", args));
+
+    int r = 0;
+    for (final CompletableFuture<String> f: futures)
+      r += f.get().length();
+    return r;
+  }
+};
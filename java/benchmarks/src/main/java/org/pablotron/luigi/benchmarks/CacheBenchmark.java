@@ -0,0 +1,96 @@
+package org.pablotron.luigi.benchmarks;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Cache.get() on hits and misses, and on hits under contention.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+  /**
+   * Number of distinct templates.
+   */
+  private static final int NUM_KEYS = 1024;
+
+  private static final String[] KEYS = new String[NUM_KEYS];
+
+  private static final Map<String, String> STRINGS = new HashMap<String, String>();
+
+  static {
+    for (int i = 0; i < NUM_KEYS; i++) {
+      KEYS[i] = "template-" + i;
+      STRINGS.put(KEYS[i], "<p id=\"" + i + "\">Hello %{name | h}, you have %{count} messages.</p>");
+    }
+  }
+
+  /**
+   * Cache with every template compiled, shared by all threads.
+   */
+  @State(Scope.Benchmark)
+  public static class SharedCache {
+    public Cache cache;
+
+    @Setup
+    public void setup() throws LuigiError {
+      cache = new Cache(STRINGS, Filter.FILTERS, true);
+      for (final String key: KEYS)
+        cache.get(key);
+    }
+  };
+
+  /**
+   * Per-thread cache which holds a single template, so every other
+   * lookup is a miss.
+   */
+  @State(Scope.Thread)
+  public static class MissCache {
+    public Cache cache;
+
+    @Setup
+    public void setup() {
+      cache = new Cache.Builder(STRINGS)
+        .maximumSize(1)
+        .build();
+    }
+  };
+
+  @Benchmark
+  public Template hit(final SharedCache state) throws LuigiError {
+    return state.cache.get(KEYS[ThreadLocalRandom.current().nextInt(NUM_KEYS)]);
+  }
+
+  @Benchmark
+  public Template miss(final MissCache state) throws LuigiError {
+    return state.cache.get(KEYS[ThreadLocalRandom.current().nextInt(NUM_KEYS)]);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public Template contended(final SharedCache state) throws LuigiError {
+    return state.cache.get(KEYS[ThreadLocalRandom.current().nextInt(NUM_KEYS)]);
+  }
+};
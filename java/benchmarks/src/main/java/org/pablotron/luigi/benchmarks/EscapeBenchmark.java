@@ -0,0 +1,77 @@
+package org.pablotron.luigi.benchmarks;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Compare the table-driven h and u filters with the original
+ * implementations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeBenchmark {
+  /**
+   * Input kind: plain ASCII, ASCII with characters to escape, and
+   * non-ASCII text.
+   */
+  @Param({ "plain", "escape", "unicode" })
+  public String input;
+
+  private static final Map<String, String> INPUTS = new HashMap<String, String>() {{
+    put("plain", "The_quick-brown.fox~jumps0over1the2lazy3dog");
+    put("escape", "<a href=\"/search?q=fox & dog\">'quick' fox</a>");
+    put("unicode", "Größe: 12 € — naïve café, 東京 (tōkyō)");
+  }};
+
+  private static final String[] NO_ARGS = {};
+  private static final Map<String, String> ROW = new HashMap<String, String>();
+
+  private final Filter.Handler h = Filter.FILTERS.get("h");
+  private final Filter.Handler u = Filter.FILTERS.get("u");
+  private String val;
+
+  @Setup
+  public void setup() {
+    val = INPUTS.get(input);
+  }
+
+  @Benchmark
+  public String legacyHtml() {
+    return LegacyFilters.h(val, NO_ARGS);
+  }
+
+  @Benchmark
+  public String tableHtml() throws LuigiError {
+    return h.filter(val, NO_ARGS, ROW);
+  }
+
+  @Benchmark
+  public String legacyUrl() {
+    return LegacyFilters.u(val, NO_ARGS);
+  }
+
+  @Benchmark
+  public String tableUrl() throws LuigiError {
+    return u.filter(val, NO_ARGS, ROW);
+  }
+};
@@ -0,0 +1,65 @@
+package org.pablotron.luigi.benchmarks;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Each built-in filter in Filter.FILTERS on ASCII and non-ASCII input.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmark {
+  /**
+   * Filter name.
+   */
+  @Param({ "null", "s", "uc", "lc", "length", "trim", "h", "u" })
+  public String filter;
+
+  /**
+   * Input kind: ASCII or non-ASCII text.
+   */
+  @Param({ "ascii", "unicode" })
+  public String input;
+
+  private static final Map<String, String> INPUTS = new HashMap<String, String>() {{
+    put("ascii", "  The <quick> brown fox & the \"lazy\" dog  ");
+    put("unicode", "  Größe: 12 € — naïve <café> & 東京  ");
+  }};
+
+  private static final String[] NO_ARGS = {};
+  private static final Map<String, String> ROW = new HashMap<String, String>();
+
+  private Filter.Handler handler;
+  private String val;
+
+  @Setup
+  public void setup() {
+    handler = Filter.FILTERS.get(filter);
+    val = INPUTS.get(input);
+  }
+
+  @Benchmark
+  public String run() throws LuigiError {
+    return handler.filter(val, NO_ARGS, ROW);
+  }
+};
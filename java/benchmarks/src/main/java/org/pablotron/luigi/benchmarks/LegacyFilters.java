@@ -0,0 +1,97 @@
+package org.pablotron.luigi.benchmarks;
+
+import java.nio.charset.Charset;
+
+/**
+ * Original implementations of the h and u filters, used as a baseline
+ * by EscapeBenchmark.
+ */
+final class LegacyFilters {
+  /**
+   * Hide constructor to prevent instantiation.
+   */
+  private LegacyFilters() {}
+
+  private static byte[] getBytes(final String val, final String args[]) {
+    final Charset charset = (args.length > 0) ? Charset.forName(args[0]) :  Charset.defaultCharset();
+    return val.getBytes(charset);
+  }
+
+  private static int toUInt(final byte b) {
+    return (b < 0) ? (256 + b) : b;
+  }
+
+  /**
+   * Original HTML escape filter.
+   */
+  static String h(final String val, final String args[]) {
+    StringBuilder r = new StringBuilder();
+    final byte bytes[] = getBytes(val, args);
+
+    for (int i = 0, l = bytes.length; i < l; i++) {
+      final byte b = bytes[i];
+
+      switch (b) {
+      case '&':
+        r.append("&amp;");
+        break;
+      case '<':
+        r.append("&lt;");
+        break;
+      case '>':
+        r.append("&gt;");
+        break;
+      case '\'':
+        r.append("&apos;");
+        break;
+      case '"':
+        r.append("&quot;");
+        break;
+      default:
+        if (b < 32 || b > 126) {
+          r.append(String.format("&#%d;", toUInt(b)));
+        } else {
+          r.append((char) b);
+        }
+      }
+    }
+
+    return r.toString();
+  }
+
+  /**
+   * Original URL escape filter.
+   */
+  static String u(final String val, final String args[]) {
+    final StringBuilder r = new StringBuilder();
+    final byte bytes[] = getBytes(val, args);
+
+    for (int i = 0, l = bytes.length; i < l; i++) {
+      final byte b = bytes[i];
+
+      switch (b) {
+      case 'A': case 'B': case 'C': case 'D': case 'E': case 'F': case 'G':
+      case 'H': case 'I': case 'J': case 'K': case 'L': case 'M': case 'N':
+      case 'O': case 'P': case 'Q': case 'R': case 'S': case 'T': case 'U':
+      case 'V': case 'W': case 'X': case 'Y': case 'Z':
+      case 'a': case 'b': case 'c': case 'd': case 'e': case 'f': case 'g':
+      case 'h': case 'i': case 'j': case 'k': case 'l': case 'm': case 'n':
+      case 'o': case 'p': case 'q': case 'r': case 's': case 't': case 'u':
+      case 'v': case 'w': case 'x': case 'y': case 'z':
+      case '0': case '1': case '2': case '3': case '4':
+      case '5': case '6': case '7': case '8': case '9':
+      case '-': case '_': case '.': case '~':
+        // unreserved character
+        r.append((char) b);
+        break;
+      case ' ':
+        r.append("+");
+        break;
+      default:
+        r.append(String.format("%%%02X", toUInt(b)));
+      }
+    }
+
+    return r.toString();
+  }
+};
@@ -0,0 +1,38 @@
+package org.pablotron.luigi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Benchmark entry point.
+ *
+ * Runs the JMH command-line runner with the GC profiler enabled, so
+ * every benchmark also reports its allocation rate.  Pass
+ * <code>-prof</code> to choose profilers explicitly.
+ */
+public final class Main {
+  /**
+   * Hide constructor to prevent instantiation.
+   */
+  private Main() {}
+
+  /**
+   * Run benchmarks.
+   *
+   * @param args JMH command-line arguments.
+   *
+   * @throws Exception If the benchmarks fail.
+   */
+  public static void main(final String[] args) throws Exception {
+    final List<String> r = new ArrayList<String>(Arrays.asList(args));
+
+    // enable GC profiler unless profilers are given explicitly
+    if (!r.contains("-prof")) {
+      r.add(0, "-prof");
+      r.add(1, "gc");
+    }
+
+    org.openjdk.jmh.Main.main(r.toArray(new String[r.size()]));
+  }
+};
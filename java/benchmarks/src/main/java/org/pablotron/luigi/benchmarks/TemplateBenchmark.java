@@ -0,0 +1,86 @@
+package org.pablotron.luigi.benchmarks;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Template.run() to a String and to an Appendable, for each template
+ * mode, and the static Template.run(String, Map) path.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+  /**
+   * Template mode: interpreted, linked, compiled, or compact.
+   */
+  @Param({ "interpret", "link", "compile", "compact" })
+  public String mode;
+
+  private static final String TEMPLATE =
+    "<li id=\"item-%{id}\"><a href=\"/items?q=%{name | u}\">%{name | h}</a> " +
+    "(%{count} in stock, %{label | trim | uc})</li>";
+
+  private static final Map<String, String> ARGS = new HashMap<String, String>() {{
+    put("id", "1234");
+    put("name", "Fish & Chips");
+    put("count", "42");
+    put("label", "  fresh today  ");
+  }};
+
+  private static final Map<String, Integer> FLAGS = new HashMap<String, Integer>() {{
+    put("interpret", 0);
+    put("link", Template.LINK);
+    put("compile", Template.COMPILE);
+    put("compact", Template.COMPACT);
+  }};
+
+  private Template template;
+  private StringWriter writer;
+
+  @Setup
+  public void setup() throws LuigiError {
+    template = new Template(TEMPLATE, Filter.FILTERS, FLAGS.get(mode));
+    writer = new StringWriter();
+  }
+
+  @Benchmark
+  public String runString() throws LuigiError {
+    return template.run(ARGS);
+  }
+
+  @Benchmark
+  public StringWriter runAppendable() throws LuigiError, IOException {
+    writer.getBuffer().setLength(0);
+    template.run(ARGS, writer);
+    return writer;
+  }
+
+  @Benchmark
+  public String runStatic() throws LuigiError {
+    // parses the template on every call; mode does not apply
+    return Template.run(TEMPLATE, ARGS);
+  }
+};
@@ -0,0 +1,4 @@
+/**
+ * JMH benchmarks for Luigi Template.
+ */
+package org.pablotron.luigi.benchmarks;
@@ -0,0 +1,38 @@
+package org.pablotron.luigi;
+
+import java.util.Map;
+
+/**
+ * Lazy source of template arguments.
+ *
+ * When a template is run with a resolver, each key is resolved the
+ * first time the template needs it, and the value is reused for the
+ * rest of the run.  Keys which the template does not reference are
+ * never resolved, so expensive values are only computed when needed.
+ */
+public interface ArgumentResolver {
+  /**
+   * Resolve the value of the given key.
+   *
+   * @param key Key.
+   *
+   * @return Value, or null if the key has no value.
+   */
+  public CharSequence resolve(String key);
+
+  /**
+   * Create a resolver which reads values from the given map.  Keys
+   * which map to null are treated as missing.
+   *
+   * @param args Argument map.
+   *
+   * @return Argument resolver.
+   */
+  public static ArgumentResolver of(final Map<String, ? extends CharSequence> args) {
+    return new ArgumentResolver() {
+      public CharSequence resolve(final String key) {
+        return args.get(key);
+      }
+    };
+  }
+};
@@ -0,0 +1,162 @@
+package org.pablotron.luigi;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.io.IOException;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Order-preserving parallel batch renderer.
+ *
+ * Rows are read on the calling thread and split into chunks, each
+ * chunk is rendered into its own buffer on the executor, and finished
+ * chunks are written to the output in the original row order.  The
+ * number of chunks in flight is bounded, and buffers are recycled once
+ * they have been written, so memory use does not grow with the number
+ * of rows.
+ */
+final class Batch {
+  /**
+   * Default number of rows per chunk.
+   */
+  static final int DEFAULT_CHUNK_SIZE = 256;
+
+  /**
+   * Hide constructor to prevent instantiation.
+   */
+  private Batch() {}
+
+  /**
+   * Render the given rows in parallel and write the results to the
+   * given output.
+   *
+   * @param template Template.
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   * @param executor Executor used to render chunks.
+   * @param chunk_size Number of rows per chunk.
+   *
+   * @throws LuigiError If an error occurs while rendering a row.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  static void run(
+    final Template template,
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out,
+    final Executor executor,
+    final int chunk_size
+  ) throws LuigiError, IOException {
+    if (chunk_size < 1)
+      throw new IllegalArgumentException("chunk size must be positive");
+
+    final int window = 2 * parallelism(executor);
+    final ArrayDeque<CompletableFuture<StringBuilder>> pending = new ArrayDeque<CompletableFuture<StringBuilder>>(window);
+    final ConcurrentLinkedQueue<StringBuilder> buffers = new ConcurrentLinkedQueue<StringBuilder>();
+    final Iterator<? extends Map<String, String>> it = rows.iterator();
+    boolean first = true;
+
+    try {
+      while (it.hasNext()) {
+        // read chunk
+        final List<Map<String, String>> chunk = new ArrayList<Map<String, String>>(chunk_size);
+        while (chunk.size() < chunk_size && it.hasNext())
+          chunk.add(it.next());
+
+        // wait for the oldest chunk if the window is full
+        if (pending.size() >= window)
+          write(pending.removeFirst(), out, buffers);
+
+        final boolean lead = first;
+        first = false;
+
+        pending.addLast(CompletableFuture.supplyAsync(new Supplier<StringBuilder>() {
+          public StringBuilder get() {
+            // get buffer for this chunk
+            StringBuilder buf = buffers.poll();
+            if (buf == null)
+              buf = new StringBuilder();
+
+            try {
+              boolean skip = lead;
+              for (final Map<String, String> args: chunk) {
+                // prepend separator to all but the first row
+                if (!skip && separator != null)
+                  buf.append(separator);
+                skip = false;
+
+                template.render(args, buf);
+              }
+            } catch (LuigiError e) {
+              throw new CompletionException(e);
+            }
+
+            return buf;
+          }
+        }, executor));
+      }
+
+      // write remaining chunks
+      while (!pending.isEmpty())
+        write(pending.removeFirst(), out, buffers);
+    } finally {
+      // discard outstanding chunks after an error
+      for (final CompletableFuture<StringBuilder> f: pending)
+        f.cancel(false);
+    }
+  }
+
+  /**
+   * Wait for the given chunk, write it to the output, and recycle its
+   * buffer.
+   *
+   * @throws LuigiError If an error occurred while rendering the chunk.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  private static void write(
+    final CompletableFuture<StringBuilder> chunk,
+    final Appendable out,
+    final ConcurrentLinkedQueue<StringBuilder> buffers
+  ) throws LuigiError, IOException {
+    final StringBuilder buf;
+
+    try {
+      buf = chunk.join();
+    } catch (CompletionException e) {
+      // unwrap error raised by worker
+      final Throwable cause = e.getCause();
+      if (cause instanceof LuigiError)
+        throw (LuigiError) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw e;
+    }
+
+    out.append(buf);
+    buf.setLength(0);
+    buffers.offer(buf);
+  }
+
+  /**
+   * Get the parallelism of the given executor.
+   */
+  private static int parallelism(final Executor executor) {
+    return (executor instanceof ForkJoinPool) ?
+      ((ForkJoinPool) executor).getParallelism() :
+      Runtime.getRuntime().availableProcessors();
+  }
+};
@@ -1,40 +1,382 @@
 package org.pablotron.luigi;
 
-import java.util.Map;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 
+import org.pablotron.luigi.ArgumentResolver;
+import org.pablotron.luigi.DefaultExecutor;
 import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Literals;
+import org.pablotron.luigi.OutputCache;
+import org.pablotron.luigi.Parser;
+import org.pablotron.luigi.Snapshot;
 import org.pablotron.luigi.Template;
+import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.cache.CacheStats;
+import org.pablotron.luigi.cache.EvictionPolicy;
+import org.pablotron.luigi.cache.LruPolicy;
+import org.pablotron.luigi.cache.WarmReport;
+import org.pablotron.luigi.cache.Weigher;
 import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.metrics.Listener;
 import org.pablotron.luigi.errors.UnknownTemplateError;
-import org.pablotron.luigi.actions.Action;
 
 /**
  * Template cache.
+ *
+ * By default a Cache is not thread-safe and keeps every template it
+ * compiles.  Use a Cache.Builder to create a cache which can be shared
+ * between threads, or which evicts compiled templates once it reaches
+ * a maximum size.
+ *
+ * In concurrent mode each template is compiled at most once while it
+ * is cached, and lookups of templates which have already been compiled
+ * do not take a lock.
  */
 public final class Cache {
+  /**
+   * Cache builder.
+   */
+  public static final class Builder {
+    private final Map<String, String> strings;
+    private Map<String, Filter.Handler> filters = Filter.FILTERS;
+    private boolean concurrent = false;
+    private long maxWeight = -1;
+    private Weigher weigher = Weigher.ENTRIES;
+    private EvictionPolicy.Factory policy = LruPolicy.FACTORY;
+    private int flags = 0;
+    private Executor executor = null;
+    private Listener listener = null;
+    private Map<String, Snapshot.Entry> parsed = null;
+    private boolean recordHotKeys = false;
+    private boolean internText = true;
+    private OutputCache outputCache = null;
+
+    /**
+     * Create a new Cache builder.
+     *
+     * @param strings Template key to template string map.
+     */
+    public Builder(final Map<String, String> strings) {
+      this.strings = strings;
+    }
+
+    /**
+     * Set the filter map.  Defaults to Filter.FILTERS.
+     *
+     * @param filters Filter key to filter handler map.
+     *
+     * @return This builder.
+     */
+    public Builder filters(final Map<String, Filter.Handler> filters) {
+      this.filters = filters;
+      return this;
+    }
+
+    /**
+     * Allow the cache to be shared between threads.  Defaults to false.
+     *
+     * @param concurrent Enable concurrent mode.
+     *
+     * @return This builder.
+     */
+    public Builder concurrent(final boolean concurrent) {
+      this.concurrent = concurrent;
+      return this;
+    }
+
+    /**
+     * Limit the number of compiled templates in the cache.
+     *
+     * @param size Maximum number of compiled templates.
+     *
+     * @return This builder.
+     */
+    public Builder maximumSize(final long size) {
+      return maximumWeight(size, Weigher.ENTRIES);
+    }
+
+    /**
+     * Limit the total weight of the compiled templates in the cache.
+     *
+     * @param weight Maximum total weight.
+     * @param weigher Template weigher (e.g. Weigher.CHARS).
+     *
+     * @return This builder.
+     */
+    public Builder maximumWeight(final long weight, final Weigher weigher) {
+      if (weight < 0)
+        throw new IllegalArgumentException("negative maximum weight");
+
+      this.maxWeight = weight;
+      this.weigher = weigher;
+      return this;
+    }
+
+    /**
+     * Set the eviction policy for a bounded cache.  Defaults to
+     * LruPolicy.FACTORY.
+     *
+     * @param policy Eviction policy factory (e.g. TinyLfuPolicy.FACTORY).
+     *
+     * @return This builder.
+     */
+    public Builder evictionPolicy(final EvictionPolicy.Factory policy) {
+      this.policy = policy;
+      return this;
+    }
+
+    /**
+     * Set the flags used to create templates (e.g. Template.LINK).
+     * Defaults to 0.
+     *
+     * If the LINK, COMPILE, or COMPACT flag is set, the cache links templates
+     * against a snapshot of the filter map taken when the cache is
+     * built.
+     *
+     * @param flags Bitmask of template flags.
+     *
+     * @return This builder.
+     */
+    public Builder flags(final int flags) {
+      this.flags = flags;
+      return this;
+    }
+
+    /**
+     * Set the executor used by runAsync().  Defaults to a virtual
+     * thread per task on Java 21 and later, and to a bounded thread
+     * pool on earlier versions.
+     *
+     * @param executor Executor for asynchronous runs.
+     *
+     * @return This builder.
+     */
+    public Builder executor(final Executor executor) {
+      this.executor = executor;
+      return this;
+    }
+
+    /**
+     * Set the instrumentation listener.  The listener is notified of
+     * cache hits and misses, and is passed to each compiled template
+     * with the template key as its name.  Defaults to null, which
+     * disables instrumentation.
+     *
+     * @param listener Instrumentation listener (e.g. a Metrics instance).
+     *
+     * @return This builder.
+     */
+    public Builder listener(final Listener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Count requests for each template, so the most requested
+     * templates can be saved with saveHotKeys() and warmed first on
+     * the next start.  Defaults to false.
+     *
+     * @param record Enable hot key recording.
+     *
+     * @return This builder.
+     */
+    public Builder recordHotKeys(final boolean record) {
+      this.recordHotKeys = record;
+      return this;
+    }
+
+    /**
+     * Share identical text literals between templates, so text which
+     * is repeated across many templates (e.g. headers and footers) is
+     * only stored once.  Defaults to true.
+     *
+     * Templates created with the COMPACT flag copy their text into a
+     * single string, so their literals are not shared and this option
+     * has no effect on them.
+     *
+     * @param intern Share text literals.
+     *
+     * @return This builder.
+     */
+    public Builder internText(final boolean intern) {
+      this.internText = intern;
+      return this;
+    }
+
+    /**
+     * Cache rendered output of run() in the given output cache.
+     * Defaults to null, which disables output caching.
+     *
+     * Only run() uses the output cache; runAll(), runParallel(), and
+     * runAsync() always render.  An output cache should not be shared
+     * between caches.
+     *
+     * @param outputCache Output cache.
+     *
+     * @return This builder.
+     */
+    public Builder outputCache(final OutputCache outputCache) {
+      this.outputCache = outputCache;
+      return this;
+    }
+
+    /**
+     * Use the given parsed templates instead of parsing template
+     * strings.  Set by Snapshot.read().
+     *
+     * @param parsed Map of template key to parsed template.
+     *
+     * @return This builder.
+     */
+    Builder parsed(final Map<String, Snapshot.Entry> parsed) {
+      this.parsed = parsed;
+      return this;
+    }
+
+    /**
+     * Create a new Cache from this builder.
+     *
+     * @return New Cache instance.
+     */
+    public Cache build() {
+      return new Cache(this);
+    }
+  };
+
   private final Map<String, String> strings;
+
+  /**
+   * Parsed templates from a snapshot which have not been built yet, or
+   * null.  Each entry is removed once its template is built.
+   */
+  private final Map<String, Snapshot.Entry> parsed;
+
   private final Map<String, Filter.Handler> filters;
-  private final Map<String, Template> templates = new HashMap<String, Template>();
+  private final Map<String, Template> templates;
+  private final boolean concurrent;
+  private final int flags;
+
+  /**
+   * Executor for asynchronous runs, or null for the default executor.
+   */
+  private final Executor executor;
+
+  /**
+   * Instrumentation listener, or null if instrumentation is disabled.
+   */
+  private final Listener listener;
+
+  /**
+   * Eviction policy and weigher, or null if this cache is unbounded.
+   */
+  private final EvictionPolicy policy;
+  private final Weigher weigher;
+
+  /**
+   * Guards the eviction policy.  Only used in concurrent mode.
+   */
+  private final ReentrantLock lock;
+
+  /**
+   * Request counts by template key, or null if hot keys are not
+   * recorded.
+   */
+  private final ConcurrentHashMap<String, LongAdder> requests;
+
+  /**
+   * Shared text literals, or null if text is not interned.
+   */
+  private final Literals literals;
+
+  /**
+   * Rendered output cache, or null if output is not cached.
+   */
+  private final OutputCache output;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder compileNanos = new LongAdder();
+
+  /**
+   * Create a new Cache instance from the given builder.
+   *
+   * @param b Cache builder.
+   */
+  private Cache(final Builder b) {
+    this.strings = b.strings;
+    this.parsed = (b.parsed != null) ? new ConcurrentHashMap<String, Snapshot.Entry>(b.parsed) : null;
+    this.flags = b.flags;
+    this.filters = ((flags & (Template.LINK | Template.COMPILE | Template.COMPACT)) != 0) ? Filter.freeze(b.filters) : b.filters;
+    this.concurrent = b.concurrent;
+    this.templates = concurrent ?
+      new ConcurrentHashMap<String, Template>() :
+      new HashMap<String, Template>();
+
+    this.policy = (b.maxWeight >= 0) ? b.policy.create(b.maxWeight) : null;
+    this.weigher = b.weigher;
+    this.lock = concurrent ? new ReentrantLock() : null;
+    this.executor = b.executor;
+    this.listener = b.listener;
+    this.literals = b.internText ? new Literals() : null;
+    this.output = b.outputCache;
+    this.requests = b.recordHotKeys ? new ConcurrentHashMap<String, LongAdder>() : null;
+  }
 
   /**
    * Create a new Cache instance with the given templates and filters.
    *
    * @param strings Template key to template string map.
    * @param filters Filter key to filter handler map.
+   * @param concurrent Allow this cache to be shared between threads.
+   */
+  public Cache(
+    final Map<String, String> strings,
+    final Map<String, Filter.Handler> filters,
+    final boolean concurrent
+  ) {
+    this(new Builder(strings).filters(filters).concurrent(concurrent));
+  }
+
+  /**
+   * Create a new single-threaded Cache instance with the given
+   * templates and filters.
+   *
+   * @param strings Template key to template string map.
+   * @param filters Filter key to filter handler map.
    */
   public Cache(
     final Map<String, String> strings,
     final Map<String, Filter.Handler> filters
   ) {
-    this.strings = strings;
-    this.filters = filters;
+    this(strings, filters, false);
   }
 
   /**
-   * Create a new Cache instance with the given template string map and
-   * the default filter map.
+   * Create a new single-threaded Cache instance with the given
+   * template string map and the default filter map.
    *
    * @param strings Template key to template string map.
    */
@@ -57,7 +399,8 @@ public final class Cache {
     final Map<String, String> args
   ) throws LuigiError, IOException {
     // run template with args
-    return get(key).run(args);
+    final Template t = get(key);
+    return (output != null) ? output.run(key, t, args) : t.run(args);
   }
 
   /**
@@ -76,7 +419,246 @@ public final class Cache {
     final Appendable out
   ) throws LuigiError, IOException {
     // run template with args and result handler
-    get(key).run(args, out);
+    final Template t = get(key);
+    if (output != null)
+      output.run(key, t, args, out);
+    else
+      t.run(args, out);
+  }
+
+  /**
+   * Run specified template in this cache with arguments from the given
+   * resolver and return the result as a string.
+   *
+   * @param key Template key.
+   * @param args Argument resolver.
+   *
+   * @return Result of template run.
+   * @throws UnknownTemplateError if the given template does not exist.
+   *
+   * @see Template#run(ArgumentResolver, Appendable)
+   */
+  public String run(
+    final String key,
+    final ArgumentResolver args
+  ) throws LuigiError {
+    final Template t = get(key);
+    return (output != null) ? output.run(key, t, args) : t.run(args);
+  }
+
+  /**
+   * Run specified template in this cache with arguments from the given
+   * resolver and pass the expanded chunks to the given output.
+   *
+   * @param key Template key.
+   * @param args Argument resolver.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownTemplateError if the given template does not exist.
+   *
+   * @see Template#run(ArgumentResolver, Appendable)
+   */
+  public void run(
+    final String key,
+    final ArgumentResolver args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    final Template t = get(key);
+    if (output != null)
+      output.run(key, t, args, out);
+    else
+      t.run(args, out);
+  }
+
+  /**
+   * Run specified template in this cache with the given arguments on
+   * the executor of this cache, and return a future for the result.
+   *
+   * Unless an executor was set with Cache.Builder.executor(), renders
+   * run on a virtual thread per task on Java 21 and later, and on a
+   * bounded thread pool on earlier versions.
+   *
+   * @param key Template key.
+   * @param args Template arguments map.
+   *
+   * @return Future result of template run.
+   *
+   * @see #runAsync(String, Map, Executor)
+   */
+  public CompletableFuture<String> runAsync(
+    final String key,
+    final Map<String, String> args
+  ) {
+    return runAsync(key, args, (executor != null) ? executor : DefaultExecutor.get());
+  }
+
+  /**
+   * Run specified template in this cache with the given arguments on
+   * the given executor, and return a future for the result.
+   *
+   * The template is looked up on the calling thread, so a cache which
+   * is not concurrent is never accessed from the executor.  Errors
+   * (including an unknown template) complete the future exceptionally
+   * instead of being thrown.
+   *
+   * @param key Template key.
+   * @param args Template arguments map.
+   * @param executor Executor used to run the template.
+   *
+   * @return Future result of template run.
+   */
+  public CompletableFuture<String> runAsync(
+    final String key,
+    final Map<String, String> args,
+    final Executor executor
+  ) {
+    final Template t;
+    try {
+      t = get(key);
+    } catch (LuigiError e) {
+      final CompletableFuture<String> r = new CompletableFuture<String>();
+      r.completeExceptionally(e);
+      return r;
+    }
+
+    return CompletableFuture.supplyAsync(new Supplier<String>() {
+      public String get() {
+        try {
+          return t.run(args);
+        } catch (LuigiError e) {
+          throw new CompletionException(e);
+        }
+      }
+    }, executor);
+  }
+
+  /**
+   * Run specified template in this cache once for each argument map in
+   * the given rows, and write the results to the given output.
+   *
+   * @param key Template key.
+   * @param rows Template arguments for each row.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownTemplateError if the given template does not exist.
+   *
+   * @see Template#runAll(Iterable, Appendable)
+   */
+  public void runAll(
+    final String key,
+    final Iterable<? extends Map<String, String>> rows,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    get(key).runAll(rows, out);
+  }
+
+  /**
+   * Run specified template in this cache once for each argument map in
+   * the given rows, and write the results to the given output,
+   * separated by the given separator.
+   *
+   * @param key Template key.
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownTemplateError if the given template does not exist.
+   *
+   * @see Template#runAll(Iterable, CharSequence, Appendable)
+   */
+  public void runAll(
+    final String key,
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    get(key).runAll(rows, separator, out);
+  }
+
+  /**
+   * Run specified template in this cache once for each argument map in
+   * the given rows, and pass each result to the given row handler.
+   *
+   * @param key Template key.
+   * @param rows Template arguments for each row.
+   * @param handler Row result handler.
+   *
+   * @throws UnknownTemplateError if the given template does not exist.
+   *
+   * @see Template#runAll(Iterable, Template.RowHandler)
+   */
+  public void runAll(
+    final String key,
+    final Iterable<? extends Map<String, String>> rows,
+    final Template.RowHandler handler
+  ) throws LuigiError, IOException {
+    get(key).runAll(rows, handler);
+  }
+
+  /**
+   * Run specified template in this cache once for each argument map in
+   * the given rows on the common ForkJoinPool, and write the results to
+   * the given output in row order, separated by the given separator.
+   *
+   * @param key Template key.
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownTemplateError if the given template does not exist.
+   *
+   * @see Template#runParallel(Iterable, CharSequence, Appendable, Executor, int)
+   */
+  public void runParallel(
+    final String key,
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    get(key).runParallel(rows, separator, out);
+  }
+
+  /**
+   * Run specified template in this cache once for each argument map in
+   * the given rows on the given executor, and write the results to the
+   * given output in row order, separated by the given separator.
+   *
+   * @param key Template key.
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   * @param executor Executor used to render rows.
+   *
+   * @throws UnknownTemplateError if the given template does not exist.
+   *
+   * @see Template#runParallel(Iterable, CharSequence, Appendable, Executor, int)
+   */
+  public void runParallel(
+    final String key,
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out,
+    final Executor executor
+  ) throws LuigiError, IOException {
+    get(key).runParallel(rows, separator, out, executor);
+  }
+
+  /**
+   * Get the template string map of this cache.
+   *
+   * @return Template key to template string map.
+   */
+  Map<String, String> strings() {
+    return strings;
+  }
+
+  /**
+   * Get the shared text literals of this cache.
+   *
+   * @return Literal pool, or null if text is not interned.
+   */
+  Literals literals() {
+    return literals;
   }
 
   /**
@@ -91,6 +673,54 @@ public final class Cache {
     return strings.containsKey(key);
   }
 
+  /**
+   * Is this cache safe to share between threads?
+   *
+   * @return True if this cache was created in concurrent mode.
+   */
+  public boolean isConcurrent() {
+    return concurrent;
+  }
+
+  /**
+   * Get a snapshot of the statistics for this cache.
+   *
+   * @return Cache statistics.
+   */
+  public CacheStats stats() {
+    final long weight;
+    if (policy == null) {
+      weight = -1;
+    } else if (lock != null) {
+      lock.lock();
+      try {
+        weight = policy.weight();
+      } finally {
+        lock.unlock();
+      }
+    } else {
+      weight = policy.weight();
+    }
+
+    return new CacheStats(
+      hits.sum(),
+      misses.sum(),
+      evictions.sum(),
+      compileNanos.sum(),
+      templates.size(),
+      weight
+    );
+  }
+
+  /**
+   * Get the output cache of this cache.
+   *
+   * @return Output cache, or null if output is not cached.
+   */
+  public OutputCache outputCache() {
+    return output;
+  }
+
   /**
    * Get specified template from cache, or raise an UnknownTemplateError
    * if the given template does not exist.
@@ -101,16 +731,573 @@ public final class Cache {
    * @throws UnknownTemplateError if the given template does not exist.
    */
   public Template get(final String key) throws LuigiError {
-    if (!templates.containsKey(key)) {
-      // make sure template exists
-      if (!strings.containsKey(key))
-        throw new UnknownTemplateError(key);
+    final Template r = lookup(key);
 
-      // create and cache template
-      templates.put(key, new Template(strings.get(key), filters));
+    if (requests != null) {
+      // count request
+      LongAdder count = requests.get(key);
+      if (count == null)
+        count = requests.computeIfAbsent(key, NEW_COUNTER);
+      count.increment();
     }
 
-    // get template
-    return templates.get(key);
+    return r;
   }
+
+  /**
+   * Get specified template from cache, compiling it if necessary.
+   *
+   * @param key Template key
+   *
+   * @return Template instance.
+   * @throws UnknownTemplateError if the given template does not exist.
+   */
+  private Template lookup(final String key) throws LuigiError {
+    // check for compiled template (lock-free in concurrent mode)
+    final Template t = templates.get(key);
+    if (t != null) {
+      hits.increment();
+      if (listener != null)
+        listener.cacheHit(key);
+      if (policy != null)
+        access(key);
+      return t;
+    }
+
+    if (concurrent) {
+      // compile and cache template, at most once per key
+      final Compiler c = new Compiler();
+      final Template r;
+      try {
+        r = ((ConcurrentHashMap<String, Template>) templates).computeIfAbsent(key, c);
+      } catch (CompileFailure e) {
+        throw e.error;
+      }
+
+      if (c.compiled) {
+        misses.increment();
+        if (policy != null)
+          admit(key, r);
+      } else {
+        // compiled by another thread while we waited
+        hits.increment();
+        if (listener != null)
+          listener.cacheHit(key);
+      }
+
+      return r;
+    } else {
+      // compile and cache template
+      final Template r = compile(key);
+      misses.increment();
+      templates.put(key, r);
+      if (policy != null)
+        admit(key, r);
+      return r;
+    }
+  }
+
+  /**
+   * Get the argument keys referenced by all templates in this cache.
+   *
+   * @return Unmodifiable set of argument keys.
+   *
+   * @throws LuigiError If a template cannot be parsed.
+   *
+   * @see #argumentKeys(Collection)
+   */
+  public Set<String> argumentKeys() throws LuigiError {
+    return argumentKeys(strings.keySet());
+  }
+
+  /**
+   * Get the argument keys referenced by the given templates (e.g. to
+   * fetch only the fields a set of templates needs).
+   *
+   * Templates which are not cached are parsed, but are not compiled,
+   * added to this cache, or counted in the cache statistics.
+   *
+   * @param keys Template keys.
+   *
+   * @return Unmodifiable set of argument keys, in order of first use.
+   *
+   * @throws UnknownTemplateError If a template does not exist.
+   * @throws LuigiError If a template cannot be parsed.
+   */
+  public Set<String> argumentKeys(final Collection<String> keys) throws LuigiError {
+    final Set<String> r = new LinkedHashSet<String>();
+    for (final String key: keys)
+      scan(key, r, null);
+    return Collections.unmodifiableSet(r);
+  }
+
+  /**
+   * Get the names of the filters used by all templates in this cache.
+   *
+   * Compare the result against the filter map to check that every
+   * filter is registered.
+   *
+   * @return Unmodifiable set of filter names.
+   *
+   * @throws LuigiError If a template cannot be parsed.
+   *
+   * @see #filterNames(Collection)
+   */
+  public Set<String> filterNames() throws LuigiError {
+    return filterNames(strings.keySet());
+  }
+
+  /**
+   * Get the names of the filters used by the given templates.
+   *
+   * Templates which are not cached are parsed, but are not compiled,
+   * added to this cache, or counted in the cache statistics, so
+   * unknown filters are reported even if this cache links templates.
+   *
+   * @param keys Template keys.
+   *
+   * @return Unmodifiable set of filter names, in order of first use.
+   *
+   * @throws UnknownTemplateError If a template does not exist.
+   * @throws LuigiError If a template cannot be parsed.
+   */
+  public Set<String> filterNames(final Collection<String> keys) throws LuigiError {
+    final Set<String> r = new LinkedHashSet<String>();
+    for (final String key: keys)
+      scan(key, null, r);
+    return Collections.unmodifiableSet(r);
+  }
+
+  /**
+   * Collect the argument keys and filter names of the template with
+   * the given key.
+   *
+   * Uses the cached template if there is one, and otherwise parses the
+   * template string (or uses the snapshot, if any) without touching
+   * the cached templates or the eviction policy.
+   *
+   * @param key Template key.
+   * @param keys Output set of argument keys, or null.
+   * @param names Output set of filter names, or null.
+   *
+   * @throws UnknownTemplateError If the template does not exist.
+   * @throws LuigiError If the template cannot be parsed.
+   */
+  private void scan(
+    final String key,
+    final Set<String> keys,
+    final Set<String> names
+  ) throws LuigiError {
+    // check for cached template (not counted as a request)
+    final Template t = templates.get(key);
+    if (t != null) {
+      if (keys != null)
+        keys.addAll(t.keys());
+      if (names != null)
+        names.addAll(t.filters());
+      return;
+    }
+
+    // make sure template exists
+    final String s = strings.get(key);
+    if (s == null && !strings.containsKey(key))
+      throw new UnknownTemplateError(key);
+
+    // skip parser if template is in snapshot
+    final Snapshot.Entry e = (parsed != null) ? parsed.get(key) : null;
+    final Action actions[];
+    if (e != null && e.source.equals(s)) {
+      actions = e.actions;
+      if (keys != null)
+        keys.addAll(e.keys);
+    } else {
+      final LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>();
+      actions = Parser.parse_template(s, slots);
+      if (keys != null)
+        keys.addAll(slots.keySet());
+    }
+
+    if (names != null)
+      Collections.addAll(names, Template.filterNames(actions));
+  }
+
+  /**
+   * Compile all templates in parallel on the common ForkJoinPool.
+   *
+   * @return Warm report.
+   *
+   * @see #warm(Collection, Executor)
+   */
+  public WarmReport warm() {
+    return warm(strings.keySet());
+  }
+
+  /**
+   * Compile the given templates in parallel on the common
+   * ForkJoinPool.
+   *
+   * @param keys Template keys.
+   *
+   * @return Warm report.
+   *
+   * @see #warm(Collection, Executor)
+   */
+  public WarmReport warm(final Collection<String> keys) {
+    return warm(keys, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Compile the given templates in parallel on the given executor.
+   *
+   * Templates are submitted in iteration order, so pass the hot keys
+   * saved by saveHotKeys() to warm the most requested templates first.
+   * Templates which are already compiled are skipped.  Compile errors
+   * (including unknown templates) are collected in the report rather
+   * than thrown.  Templates compiled here are counted as cache misses.
+   *
+   * If the cache is concurrent, each template is compiled and added to
+   * the cache on the executor, at most once per key, so a template
+   * which a request compiles first is skipped rather than compiled and
+   * counted twice.  Otherwise templates are compiled on the executor
+   * and added to the cache on the calling thread, so a cache which is
+   * not concurrent can also be warmed, as long as it is not used by
+   * other threads at the same time.  In both cases templates are added
+   * to the eviction policy on the calling thread, in request order.
+   *
+   * @param keys Template keys.
+   * @param executor Executor used to compile templates.
+   *
+   * @return Warm report.
+   */
+  public WarmReport warm(
+    final Collection<String> keys,
+    final Executor executor
+  ) {
+    final long t0 = System.nanoTime();
+
+    // submit templates which are not compiled yet
+    int skipped = 0;
+    final Map<String, CompletableFuture<Template>> pending = new LinkedHashMap<String, CompletableFuture<Template>>();
+    for (final String key: keys) {
+      if (pending.containsKey(key))
+        continue;
+
+      if (templates.containsKey(key)) {
+        skipped++;
+        continue;
+      }
+
+      pending.put(key, CompletableFuture.supplyAsync(new Supplier<Template>() {
+        public Template get() {
+          try {
+            if (concurrent) {
+              // compile and add template, unless a request compiles it
+              // first (returns null)
+              final Compiler c = new Compiler();
+              final Template r = ((ConcurrentHashMap<String, Template>) templates).computeIfAbsent(key, c);
+              return c.compiled ? r : null;
+            }
+
+            return compile(key);
+          } catch (CompileFailure e) {
+            throw new CompletionException(e.error);
+          } catch (LuigiError e) {
+            throw new CompletionException(e);
+          }
+        }
+      }, executor));
+    }
+
+    // add compiled templates in request order
+    int compiled = 0;
+    final Map<String, LuigiError> errors = new LinkedHashMap<String, LuigiError>();
+    for (final Map.Entry<String, CompletableFuture<Template>> e: pending.entrySet()) {
+      final String key = e.getKey();
+      final Template t;
+
+      try {
+        t = e.getValue().join();
+      } catch (CompletionException ce) {
+        final Throwable cause = ce.getCause();
+        if (cause instanceof LuigiError) {
+          errors.put(key, (LuigiError) cause);
+          continue;
+        }
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw ce;
+      }
+
+      // add template unless it was compiled by a request meanwhile
+      final boolean added;
+      if (concurrent) {
+        // added on the executor, unless compiled by a request
+        added = (t != null);
+      } else {
+        added = !templates.containsKey(key);
+        if (added)
+          templates.put(key, t);
+      }
+
+      if (added) {
+        compiled++;
+        misses.increment();
+        if (policy != null)
+          admit(key, t);
+      } else {
+        skipped++;
+      }
+    }
+
+    return new WarmReport(compiled, skipped, errors, System.nanoTime() - t0);
+  }
+
+  /**
+   * Get the most requested template keys.  Requires hot key
+   * recording (see Cache.Builder.recordHotKeys()).
+   *
+   * @param limit Maximum number of keys.
+   *
+   * @return Template keys, most requested first.
+   *
+   * @throws IllegalStateException If hot keys are not recorded.
+   */
+  public List<String> hotKeys(final int limit) {
+    if (requests == null)
+      throw new IllegalStateException("hot keys are not recorded");
+
+    // snapshot counts
+    final List<Map.Entry<String, Long>> counts = new ArrayList<Map.Entry<String, Long>>();
+    for (final Map.Entry<String, LongAdder> e: requests.entrySet())
+      counts.add(new AbstractMap.SimpleImmutableEntry<String, Long>(e.getKey(), e.getValue().sum()));
+
+    // sort by count, descending
+    Collections.sort(counts, new Comparator<Map.Entry<String, Long>>() {
+      public int compare(final Map.Entry<String, Long> a, final Map.Entry<String, Long> b) {
+        return Long.compare(b.getValue(), a.getValue());
+      }
+    });
+
+    final List<String> r = new ArrayList<String>();
+    for (int i = 0; i < counts.size() && i < limit; i++)
+      r.add(counts.get(i).getKey());
+    return r;
+  }
+
+  /**
+   * Write the most requested template keys to the given output, one
+   * key per line, most requested first.  Keys which contain line
+   * breaks are skipped.
+   *
+   * @param out Output.
+   * @param limit Maximum number of keys.
+   *
+   * @throws IOException If an error occurs while writing.
+   * @throws IllegalStateException If hot keys are not recorded.
+   *
+   * @see #loadHotKeys(Reader)
+   */
+  public void saveHotKeys(
+    final Appendable out,
+    final int limit
+  ) throws IOException {
+    for (final String key: hotKeys(limit)) {
+      if (key.indexOf('\n') < 0 && key.indexOf('\r') < 0)
+        out.append(key).append('\n');
+    }
+  }
+
+  /**
+   * Read template keys written by saveHotKeys().
+   *
+   * @param in Input.
+   *
+   * @return Template keys, in the order they were written.
+   *
+   * @throws IOException If an error occurs while reading.
+   */
+  public static List<String> loadHotKeys(final Reader in) throws IOException {
+    final List<String> r = new ArrayList<String>();
+    final BufferedReader br = new BufferedReader(in);
+
+    String line;
+    while ((line = br.readLine()) != null) {
+      if (!line.isEmpty())
+        r.add(line);
+    }
+
+    return r;
+  }
+
+  /**
+   * Compile the template with the given key.
+   *
+   * @param key Template key
+   *
+   * @return Template instance.
+   * @throws UnknownTemplateError if the given template does not exist.
+   */
+  private Template compile(final String key) throws LuigiError {
+    // make sure template exists
+    final String s = strings.get(key);
+    if (s == null && !strings.containsKey(key))
+      throw new UnknownTemplateError(key);
+
+    // create template
+    final Object ctx = (listener != null) ? listener.begin(Listener.Kind.CACHE_MISS) : null;
+    final long t0 = System.nanoTime();
+    final Template.Builder tb = new Template.Builder(s)
+      .filters(filters)
+      .flags(flags)
+      .name(key)
+      .listener(listener)
+      .literals(literals);
+
+    // skip parser if template is in snapshot
+    final Snapshot.Entry e = (parsed != null) ? parsed.get(key) : null;
+    if (e != null && e.source.equals(s))
+      tb.parsed(e.actions, e.keys);
+
+    final Template r = tb.build();
+    final long nanos = System.nanoTime() - t0;
+    compileNanos.add(nanos);
+
+    // drop parsed template so it does not outlive an evicted template
+    if (e != null)
+      parsed.remove(key, e);
+
+    if (listener != null)
+      listener.cacheMiss(ctx, key, nanos);
+
+    return r;
+  }
+
+  /**
+   * Remove the compiled template with the given key, if any, so the
+   * next request compiles it again from the current template string.
+   *
+   * In concurrent mode, a request which is compiling the template
+   * finishes before the template is removed.
+   *
+   * @param key Template key.
+   */
+  public void invalidate(final String key) {
+    if (lock != null)
+      lock.lock();
+
+    try {
+      if (templates.remove(key) != null && policy != null)
+        policy.remove(key);
+    } finally {
+      if (lock != null)
+        lock.unlock();
+    }
+  }
+
+  /**
+   * Remove all compiled templates.
+   */
+  public void invalidateAll() {
+    for (final String key: new ArrayList<String>(templates.keySet()))
+      invalidate(key);
+  }
+
+  /**
+   * Record access of a cached template with the eviction policy.
+   *
+   * In concurrent mode the access is dropped rather than waiting if
+   * another thread holds the policy lock, so lookups never block.
+   *
+   * @param key Template key.
+   */
+  private void access(final String key) {
+    if (lock == null) {
+      policy.access(key);
+    } else if (lock.tryLock()) {
+      try {
+        policy.access(key);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Add a newly compiled template to the eviction policy, then remove
+   * any evicted templates.
+   *
+   * @param key Template key.
+   * @param t Compiled template.
+   */
+  private void admit(final String key, final Template t) {
+    final long weight = weigher.weigh(key, t);
+    final List<String> evicted = new ArrayList<String>();
+
+    if (lock != null)
+      lock.lock();
+
+    try {
+      // skip templates which were invalidated before admission
+      if (templates.get(key) != t)
+        return;
+
+      policy.add(key, weight, evicted);
+
+      // remove while holding the lock so the policy and the template
+      // map stay in sync
+      for (final String k: evicted)
+        templates.remove(k);
+    } finally {
+      if (lock != null)
+        lock.unlock();
+    }
+
+    evictions.add(evicted.size());
+  }
+
+  /**
+   * Create request counter for hot key recording.
+   */
+  private static final Function<String, LongAdder> NEW_COUNTER = new Function<String, LongAdder>() {
+    public LongAdder apply(final String key) {
+      return new LongAdder();
+    }
+  };
+
+  /**
+   * Compile function passed to ConcurrentHashMap#computeIfAbsent().
+   */
+  private final class Compiler implements Function<String, Template> {
+    /**
+     * Set if this function compiled the template.
+     */
+    private boolean compiled = false;
+
+    public Template apply(final String key) {
+      try {
+        final Template r = compile(key);
+        compiled = true;
+        return r;
+      } catch (LuigiError e) {
+        throw new CompileFailure(e);
+      }
+    }
+  };
+
+  /**
+   * Unchecked wrapper used to pass a LuigiError out of
+   * ConcurrentHashMap#computeIfAbsent().
+   */
+  private static final class CompileFailure extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final LuigiError error;
+
+    private CompileFailure(final LuigiError error) {
+      super(error);
+      this.error = error;
+    }
+  };
 };
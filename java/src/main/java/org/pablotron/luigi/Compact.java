@@ -0,0 +1,256 @@
+package org.pablotron.luigi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.FilterReference;
+import org.pablotron.luigi.Row;
+import org.pablotron.luigi.Schema;
+import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.actions.LinkedFilterAction;
+import org.pablotron.luigi.actions.TextAction;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+/**
+ * Compact flat form of a linked template.
+ *
+ * All text literals are stored in one string, and the template is
+ * stored as a stream of opcodes which index into the text, key, and
+ * filter arrays.  A compact template needs a handful of objects no
+ * matter how many actions the template has, and is run by a single
+ * loop with no interface dispatch per action.
+ *
+ * Opcodes:
+ *
+ * <ul>
+ *   <li><code>TEXT start end</code>: Append text[start, end).</li>
+ *   <li><code>FILTER key first num</code>: Apply filters
+ *   [first, first + num) to the value of key, then append the
+ *   result.</li>
+ *   <li><code>STREAM key first num</code>: Same as FILTER, but the last
+ *   filter is a stream handler which writes to the output.</li>
+ * </ul>
+ */
+final class Compact {
+  private static final int TEXT = 0;
+  private static final int FILTER = 1;
+  private static final int STREAM = 2;
+
+  /**
+   * Text literals, concatenated.
+   */
+  private final String text;
+
+  /**
+   * Opcode stream.
+   */
+  private final int[] ops;
+
+  /**
+   * Value keys.  The first keys are the schema keys, in slot order.
+   */
+  private final String[] keys;
+
+  /**
+   * Number of schema slots.
+   */
+  private final int num_slots;
+
+  /**
+   * Filter names, handlers, and arguments, in template order.
+   */
+  private final String[] names;
+  private final Filter.Handler[] handlers;
+  private final String[][] args;
+
+  /**
+   * Create a compact template from the given linked actions.
+   *
+   * @param actions Linked actions.
+   * @param schema Template schema.
+   *
+   * @return Compact template, or null if an action is not a
+   * TextAction or LinkedFilterAction.
+   */
+  static Compact of(final Action[] actions, final Schema schema) {
+    final StringBuilder text = new StringBuilder();
+    final int[] ops = new int[4 * actions.length];
+    int num_ops = 0;
+
+    // seed keys with schema keys, so key index equals slot
+    final LinkedHashMap<String, Integer> keys = new LinkedHashMap<String, Integer>();
+    for (final String key: schema.keys())
+      keys.put(key, keys.size());
+
+    final List<String> names = new ArrayList<String>();
+    final List<Filter.Handler> handlers = new ArrayList<Filter.Handler>();
+    final List<String[]> args = new ArrayList<String[]>();
+
+    for (final Action a: actions) {
+      if (a instanceof TextAction) {
+        final String s = ((TextAction) a).text();
+        ops[num_ops++] = TEXT;
+        ops[num_ops++] = text.length();
+        text.append(s);
+        ops[num_ops++] = text.length();
+      } else if (a instanceof LinkedFilterAction) {
+        final LinkedFilterAction f = (LinkedFilterAction) a;
+        final FilterReference refs[] = f.filters();
+        final Filter.Handler hs[] = f.handlers();
+        final int last = hs.length - 1;
+
+        // get key index
+        Integer key = keys.get(f.key());
+        if (key == null) {
+          key = keys.size();
+          keys.put(f.key(), key);
+        }
+
+        ops[num_ops++] = (last >= 0 && hs[last] instanceof Filter.StreamHandler) ? STREAM : FILTER;
+        ops[num_ops++] = key;
+        ops[num_ops++] = handlers.size();
+        ops[num_ops++] = hs.length;
+
+        for (int i = 0; i < hs.length; i++) {
+          names.add(refs[i].name);
+          handlers.add(hs[i]);
+          args.add(refs[i].args);
+        }
+      } else {
+        return null;
+      }
+    }
+
+    final int[] trimmed = new int[num_ops];
+    System.arraycopy(ops, 0, trimmed, 0, num_ops);
+
+    return new Compact(
+      text.toString(),
+      trimmed,
+      keys.keySet().toArray(new String[keys.size()]),
+      schema.size(),
+      names.toArray(new String[names.size()]),
+      handlers.toArray(new Filter.Handler[handlers.size()]),
+      args.toArray(new String[args.size()][])
+    );
+  }
+
+  private Compact(
+    final String text,
+    final int[] ops,
+    final String[] keys,
+    final int num_slots,
+    final String[] names,
+    final Filter.Handler[] handlers,
+    final String[][] args
+  ) {
+    this.text = text;
+    this.ops = ops;
+    this.keys = keys;
+    this.num_slots = num_slots;
+    this.names = names;
+    this.handlers = handlers;
+    this.args = args;
+  }
+
+  /**
+   * Run this template and write the result to the given output.
+   *
+   * @param args Template arguments.
+   * @param row Template arguments bound to the schema of this template,
+   * or null to look up values in the argument map.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occurs while running this template.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  void run(
+    final Map<String, String> args,
+    final Row row,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    final int[] ops = this.ops;
+    int i = 0;
+
+    while (i < ops.length) {
+      final int op = ops[i];
+
+      if (op == TEXT) {
+        out.append(text, ops[i + 1], ops[i + 2]);
+        i += 3;
+        continue;
+      }
+
+      // get value
+      final int key = ops[i + 1];
+      final CharSequence val;
+      if (row != null) {
+        val = (key < num_slots) ? row.value(key) : row.value(keys[key]);
+        if (val == null)
+          throw new UnknownKeyError(keys[key]);
+      } else {
+        val = args.get(keys[key]);
+        if (val == null && !args.containsKey(keys[key]))
+          throw new UnknownKeyError(keys[key]);
+      }
+
+      // apply filters
+      final int first = ops[i + 2];
+      final int end = first + ops[i + 3];
+      final int last = (op == STREAM) ? (end - 1) : end;
+
+      CharSequence r = val;
+      for (int j = first; j < last; j++)
+        r = Filter.apply(handlers[j], r, this.args[j], args);
+
+      if (op == STREAM) {
+        ((Filter.StreamHandler) handlers[last]).filter(r, this.args[last], args, out);
+      } else {
+        out.append(r);
+      }
+
+      i += 4;
+    }
+  }
+
+  /**
+   * Reconstruct a template string from this compact template.
+   *
+   * Text literals never contain a percent sign, and filter arguments
+   * never contain whitespace, pipes, or braces, so the result parses
+   * to the same actions as the original template string.
+   *
+   * @return Template string.
+   */
+  public String toString() {
+    final StringBuilder r = new StringBuilder(text.length() + 16 * keys.length);
+
+    int i = 0;
+    while (i < ops.length) {
+      if (ops[i] == TEXT) {
+        r.append(text, ops[i + 1], ops[i + 2]);
+        i += 3;
+        continue;
+      }
+
+      r.append("%{").append(keys[ops[i + 1]]);
+
+      final int first = ops[i + 2];
+      for (int j = first; j < first + ops[i + 3]; j++) {
+        r.append(" | ").append(names[j]);
+        for (final String arg: args[j])
+          r.append(' ').append(arg);
+      }
+
+      r.append('}');
+      i += 4;
+    }
+
+    return r.toString();
+  }
+};
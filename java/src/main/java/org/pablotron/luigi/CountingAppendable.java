@@ -0,0 +1,53 @@
+package org.pablotron.luigi;
+
+import java.io.IOException;
+
+/**
+ * Appendable which counts the characters written to another
+ * Appendable.
+ */
+final class CountingAppendable implements Appendable {
+  private final Appendable out;
+  private int count = 0;
+
+  /**
+   * Create a new counting appendable.
+   *
+   * @param out Output to write to.
+   */
+  CountingAppendable(final Appendable out) {
+    this.out = out;
+  }
+
+  /**
+   * Get the number of characters written.
+   *
+   * @return Number of characters written.
+   */
+  int count() {
+    return count;
+  }
+
+  public Appendable append(final char c) throws IOException {
+    out.append(c);
+    count++;
+    return this;
+  }
+
+  public Appendable append(final CharSequence s) throws IOException {
+    final CharSequence v = (s != null) ? s : "null";
+    out.append(v);
+    count += v.length();
+    return this;
+  }
+
+  public Appendable append(
+    final CharSequence s,
+    final int start,
+    final int end
+  ) throws IOException {
+    out.append(s, start, end);
+    count += end - start;
+    return this;
+  }
+};
@@ -0,0 +1,85 @@
+package org.pablotron.luigi;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Default executor for asynchronous template runs.
+ *
+ * Uses a virtual thread per task when the runtime supports virtual
+ * threads (Java 21 and later), so renders which block in slow filters
+ * do not tie up platform threads.  Otherwise uses a bounded pool of
+ * daemon threads.
+ */
+final class DefaultExecutor {
+  /**
+   * Hide constructor to prevent instantiation.
+   */
+  private DefaultExecutor() {}
+
+  /**
+   * Maximum number of threads in the fallback pool.
+   */
+  static final int MAX_THREADS = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Shared default executor, created on first use.
+   */
+  private static final class Holder {
+    private static final Executor INSTANCE = create();
+  };
+
+  /**
+   * Get the default executor.
+   *
+   * @return Default executor.
+   */
+  static Executor get() {
+    return Holder.INSTANCE;
+  }
+
+  /**
+   * Create the default executor.
+   */
+  private static Executor create() {
+    try {
+      // look up virtual thread executor (Java 21 and later)
+      return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      // fall back to bounded pool
+      return pool(MAX_THREADS);
+    }
+  }
+
+  /**
+   * Create a bounded pool of daemon threads.  Idle threads exit after
+   * one minute.
+   *
+   * @param num_threads Maximum number of threads.
+   */
+  private static Executor pool(final int num_threads) {
+    final AtomicInteger count = new AtomicInteger();
+    final ThreadPoolExecutor r = new ThreadPoolExecutor(
+      num_threads,
+      num_threads,
+      60,
+      TimeUnit.SECONDS,
+      new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        public Thread newThread(final Runnable task) {
+          final Thread t = new Thread(task, "luigi-render-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        }
+      }
+    );
+
+    r.allowCoreThreadTimeOut(true);
+    return r;
+  }
+};
@@ -2,6 +2,13 @@ package org.pablotron.luigi;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 
 import org.pablotron.luigi.errors.FilterError;
@@ -38,31 +45,503 @@ public final class Filter {
   };
 
   /**
-   * Convert given string value to byte array.
+   * Filter handler which writes its result directly to the template
+   * output.
+   *
+   * When a stream handler is the last filter applied to a value, the
+   * template calls the streaming variant so the result is written
+   * straight to the output instead of being built as an intermediate
+   * String.  Stream handlers only need to implement the streaming
+   * variant.
+   *
+   * Values which are not Strings (e.g. a StringBuilder argument, or the
+   * result of a sequence handler) are passed to the CharSequence
+   * streaming variant.  By default it converts the value to a String;
+   * handlers which can read any CharSequence should override it, so
+   * the value is written without a copy.
+   */
+  public static interface StreamHandler extends Handler {
+    /**
+     * Called during template expansion to apply the given filter and
+     * write the result to the given output.
+     *
+     * @param val String value.
+     * @param args Array of filter arguments specified in template string.
+     * @param row Complete map of arguments passed during template run.
+     * @param out Template output.
+     *
+     * @throws FilterError If an error occurs during filtering.
+     * @throws IOException If an error occurs while writing the result.
+     */
+    public void filter(
+      String val,
+      String args[],
+      Map<String, String> row,
+      Appendable out
+    ) throws FilterError, IOException;
+
+    /**
+     * Called during template expansion to apply the given filter to a
+     * CharSequence value and write the result to the given output.
+     *
+     * The default implementation converts the value to a String and
+     * calls the String streaming variant.
+     *
+     * @param val Value.
+     * @param args Array of filter arguments specified in template string.
+     * @param row Complete map of arguments passed during template run.
+     * @param out Template output.
+     *
+     * @throws FilterError If an error occurs during filtering.
+     * @throws IOException If an error occurs while writing the result.
+     */
+    public default void filter(
+      final CharSequence val,
+      final String args[],
+      final Map<String, String> row,
+      final Appendable out
+    ) throws FilterError, IOException {
+      filter((val != null) ? val.toString() : (String) null, args, row, out);
+    }
+
+    /**
+     * Apply the filter and return the result as a string.
+     *
+     * The default implementation writes the result of the streaming
+     * variant to a StringBuilder.
+     *
+     * @param val String value.
+     * @param args Array of filter arguments specified in template string.
+     * @param row Complete map of arguments passed during template run.
+     *
+     * @return Filtered value as a string.
+     *
+     * @throws FilterError If an error occurs during filtering.
+     */
+    public default String filter(
+      final String val,
+      final String args[],
+      final Map<String, String> row
+    ) throws FilterError {
+      final StringBuilder r = new StringBuilder(val.length());
+
+      try {
+        filter(val, args, row, r);
+      } catch (IOException e) {
+        // never raised by StringBuilder
+        throw new UncheckedIOException(e);
+      }
+
+      return r.toString();
+    }
+  };
+
+  /**
+   * Filter handler which accepts and returns CharSequence values.
+   *
+   * Sequence handlers receive argument values which are not Strings
+   * (e.g. a StringBuilder or CharBuffer) without a copy, and may return
+   * a view of their input instead of a new String (e.g. trim).  Sequence
+   * handlers only need to implement the CharSequence variant.
+   */
+  public static interface SequenceHandler extends Handler {
+    /**
+     * Called during template expansion to apply the given filter.
+     *
+     * @param val Value.
+     * @param args Array of filter arguments specified in template string.
+     * @param row Complete map of arguments passed during template run.
+     *
+     * @return Filtered value.
+     *
+     * @throws FilterError If an error occurs during filtering.
+     */
+    public CharSequence filter(
+      CharSequence val,
+      String args[],
+      Map<String, String> row
+    ) throws FilterError;
+
+    /**
+     * Apply the filter and return the result as a string.
+     *
+     * The default implementation converts the result of the
+     * CharSequence variant to a String.
+     *
+     * @param val String value.
+     * @param args Array of filter arguments specified in template string.
+     * @param row Complete map of arguments passed during template run.
+     *
+     * @return Filtered value as a string.
+     *
+     * @throws FilterError If an error occurs during filtering.
+     */
+    public default String filter(
+      final String val,
+      final String args[],
+      final Map<String, String> row
+    ) throws FilterError {
+      final CharSequence r = filter((CharSequence) val, args, row);
+      return (r != null) ? r.toString() : null;
+    }
+  };
+
+  /**
+   * Apply the given filter handler to a CharSequence value.
+   *
+   * Sequence handlers receive the value as is; other handlers receive
+   * the value converted to a String.
+   *
+   * @param h Filter handler.
+   * @param val Value.
+   * @param args Array of filter arguments.
+   * @param row Complete map of arguments passed during template run.
+   *
+   * @return Filtered value.
+   *
+   * @throws FilterError If an error occurs during filtering.
+   */
+  public static CharSequence apply(
+    final Handler h,
+    final CharSequence val,
+    final String args[],
+    final Map<String, String> row
+  ) throws FilterError {
+    if (h instanceof SequenceHandler)
+      return ((SequenceHandler) h).filter(val, args, row);
+    return h.filter((val != null) ? val.toString() : null, args, row);
+  }
+
+  /**
+   * Marker for filter handlers whose result depends only on the value
+   * and filter arguments, and not on the argument map or any other
+   * state.
+   *
+   * Results of pure filters may be memoized (see MemoFilters).  All
+   * default filters except <code>s</code> are pure.
+   */
+  public static interface Pure {};
+
+  /**
+   * Marker for filter handlers whose result may differ between runs
+   * with the same arguments (e.g. filters which read the clock or an
+   * external store, or which read arguments the template does not
+   * reference).
+   *
+   * Templates which use a volatile filter bypass the render output
+   * cache (see OutputCache).  None of the default filters are
+   * volatile.
+   */
+  public static interface Volatile {};
+
+  /**
+   * Is the given filter handler volatile?
+   *
+   * @param h Filter handler.
+   *
+   * @return True if the handler is declared volatile.
+   */
+  public static boolean isVolatile(final Handler h) {
+    return h instanceof Volatile;
+  }
+
+  /**
+   * Is the given filter handler pure?
+   *
+   * @param h Filter handler.
+   *
+   * @return True if the handler is declared pure.
+   */
+  public static boolean isPure(final Handler h) {
+    return h instanceof Pure;
+  }
+
+  /**
+   * Pure filter handler, used for default filters.
+   */
+  private static abstract class PureHandler implements Handler, Pure {};
+
+  /**
+   * Pure stream filter handler, used for default filters.
+   */
+  private static abstract class PureStreamHandler implements StreamHandler, Pure {};
+
+  /**
+   * Pure sequence filter handler, used for default filters.
+   */
+  private static abstract class PureSequenceHandler implements SequenceHandler, Pure {};
+
+  /**
+   * Is the given character a line terminator other than a carriage
+   * return or line feed?  Regular expression <code>\Z</code> also
+   * matches before these characters at the end of a string.
+   */
+  private static boolean is_terminator(final char c) {
+    return c == '\u0085' || c == '\u2028' || c == '\u2029';
+  }
+
+  /**
+   * Create an immutable snapshot of the given filter map.
+   *
+   * Use this to link templates against a consistent filter set, since
+   * maps such as FILTERS may be changed at any time.
+   *
+   * @param filters Map of filter names to filter handlers.
+   *
+   * @return Immutable copy of filter map.
+   */
+  public static Map<String, Handler> freeze(final Map<String, Handler> filters) {
+    return Collections.unmodifiableMap(new HashMap<String, Handler>(filters));
+  }
+
+  /**
+   * Character set and whether it encodes ASCII characters as the
+   * same single bytes.
+   */
+  private static final class CharsetInfo {
+    private final Charset charset;
+    private final boolean ascii;
+
+    private CharsetInfo(final Charset charset) {
+      this.charset = charset;
+      this.ascii = Arrays.equals(ASCII.getBytes(charset), ASCII_BYTES);
+    }
+  };
+
+  /**
+   * All ASCII characters, used to check character sets.
+   */
+  private static final String ASCII;
+  private static final byte[] ASCII_BYTES = new byte[128];
+  static {
+    final char[] chars = new char[128];
+    for (int i = 0; i < 128; i++) {
+      chars[i] = (char) i;
+      ASCII_BYTES[i] = (byte) i;
+    }
+    ASCII = new String(chars);
+  }
+
+  /**
+   * Cache of character set name to character set info.
+   */
+  private static final ConcurrentHashMap<String, CharsetInfo> CHARSETS = new ConcurrentHashMap<String, CharsetInfo>();
+
+  /**
+   * Default character set info, created on first use.
+   */
+  private static volatile CharsetInfo defaultCharset = null;
+
+  /**
+   * Get the character set for the given filter arguments.
    *
    * If the length of the argument array is greater than zero, then the
    * first argument is used as the name of a character set for the input
-   * string.
+   * string.  Otherwise the default character set is used.
+   *
+   * @param args Array of filter arguments.  May be empty.
+   *
+   * @return Character set info.
+   */
+  private static CharsetInfo getCharset(final String args[]) {
+    if (args.length > 0) {
+      CharsetInfo r = CHARSETS.get(args[0]);
+      if (r == null) {
+        r = new CharsetInfo(Charset.forName(args[0]));
+        CHARSETS.putIfAbsent(args[0], r);
+      }
+
+      return r;
+    }
+
+    CharsetInfo r = defaultCharset;
+    if (r == null || r.charset != Charset.defaultCharset())
+      defaultCharset = r = new CharsetInfo(Charset.defaultCharset());
+    return r;
+  }
+
+  /**
+   * HTML escape table, indexed by unsigned byte value.  Bytes which do
+   * not need to be escaped are null.
+   */
+  private static final String[] HTML_ESCAPES = new String[256];
+  static {
+    for (int i = 0; i < 256; i++) {
+      if (i < 32 || i > 126)
+        HTML_ESCAPES[i] = "&#" + i + ";";
+    }
+
+    HTML_ESCAPES['&'] = "&amp;";
+    HTML_ESCAPES['<'] = "&lt;";
+    HTML_ESCAPES['>'] = "&gt;";
+    HTML_ESCAPES['\''] = "&apos;";
+    HTML_ESCAPES['"'] = "&quot;";
+  }
+
+  /**
+   * URL escape table, indexed by unsigned byte value.  Unreserved
+   * bytes, which do not need to be escaped, are null.
+   */
+  private static final String[] URL_ESCAPES = new String[256];
+  static {
+    final String hex = "0123456789ABCDEF";
+    for (int i = 0; i < 256; i++) {
+      final boolean unreserved = (
+        (i >= 'A' && i <= 'Z') ||
+        (i >= 'a' && i <= 'z') ||
+        (i >= '0' && i <= '9') ||
+        i == '-' || i == '_' || i == '.' || i == '~'
+      );
+
+      if (!unreserved)
+        URL_ESCAPES[i] = new String(new char[] { '%', hex.charAt(i >> 4), hex.charAt(i & 0xf) });
+    }
+
+    URL_ESCAPES[' '] = "+";
+  }
+
+  /**
+   * Get the offset of the first character of the given string which
+   * must be escaped with the given table, or which is not ASCII.
+   *
+   * @param val String value.
+   * @param table Escape table.
+   *
+   * @return Offset of first character to escape, or the string length.
+   */
+  private static int escapeSpan(final CharSequence val, final String[] table) {
+    int i = 0;
+    for (final int l = val.length(); i < l; i++) {
+      final char c = val.charAt(i);
+      if (c >= 128 || table[c] != null)
+        break;
+    }
+
+    return i;
+  }
+
+  /**
+   * Escape the given string with the given table and return the
+   * result, or return the string itself if nothing needs escaping.
    *
    * @param val String value.
    * @param args Array of filter arguments.  May be empty.
+   * @param table Escape table.
    *
-   * @return Byte array.
+   * @return Escaped string.
    */
-  private static byte[] getBytes(final String val, final String args[]) {
-    final Charset charset = (args.length > 0) ? Charset.forName(args[0]) :  Charset.defaultCharset();
-    return val.getBytes(charset);
+  private static String escape(
+    final String val,
+    final String args[],
+    final String[] table
+  ) {
+    // check for common case: ASCII string that needs no escaping
+    final CharsetInfo cs = getCharset(args);
+    if (cs.ascii && escapeSpan(val, table) == val.length())
+      return val;
+
+    final StringBuilder r = new StringBuilder(val.length() + 16);
+
+    try {
+      escape(val, cs, table, r);
+    } catch (IOException e) {
+      // never raised by StringBuilder
+      throw new UncheckedIOException(e);
+    }
+
+    return r.toString();
   }
 
   /**
-   * Convert signed byte to unsigned integer.
+   * Escape the given string with the given table and write the result
+   * to the given output.
+   *
+   * The value is escaped as if it was encoded as bytes in the given
+   * character set.  If the character set is ASCII-compatible, ASCII
+   * characters are escaped directly, and only the remainder of the
+   * string starting at the first non-ASCII character is encoded.
    *
-   * @param b Signed byte value.
+   * @param val Value.
+   * @param cs Character set info.
+   * @param table Escape table.
+   * @param out Output.
    *
-   * @return Unsigned integer.
+   * @throws IOException If an error occurs while writing to the output.
    */
-  private static int toUInt(final byte b) {
-    return (b < 0) ? (256 + b) : b;
+  private static void escape(
+    final CharSequence val,
+    final CharsetInfo cs,
+    final String[] table,
+    final Appendable out
+  ) throws IOException {
+    final int l = val.length();
+    int i = 0;
+
+    if (cs.ascii) {
+      // escape ascii characters, copying runs of safe characters
+      int start = 0;
+      for (; i < l; i++) {
+        final char c = val.charAt(i);
+        if (c >= 128)
+          break;
+
+        final String e = table[c];
+        if (e != null) {
+          if (i > start)
+            out.append(val, start, i);
+          out.append(e);
+          start = i + 1;
+        }
+      }
+
+      if (start == 0 && i == l) {
+        out.append(val);
+      } else if (i > start) {
+        out.append(val, start, i);
+      }
+
+      if (i == l)
+        return;
+    }
+
+    // escape remaining bytes
+    final byte bytes[] = val.subSequence(i, l).toString().getBytes(cs.charset);
+    for (int j = 0; j < bytes.length; j++) {
+      final int b = bytes[j] & 0xff;
+      final String e = table[b];
+      if (e != null) {
+        out.append(e);
+      } else {
+        out.append((char) b);
+      }
+    }
+  }
+
+  /**
+   * Can ASCII strings be case-converted one character at a time in the
+   * default locale?
+   *
+   * Turkish and Azeri have special rules for the letter i.
+   *
+   * @return True if ASCII case conversion is locale-independent.
+   */
+  private static boolean isSimpleCaseLocale() {
+    final String lang = Locale.getDefault().getLanguage();
+    return !lang.equals("tr") && !lang.equals("az");
+  }
+
+  /**
+   * Get the offset of the first non-ASCII character in the given
+   * string.
+   *
+   * @param val Value.
+   *
+   * @return Offset of first non-ASCII character, or the string length.
+   */
+  private static int asciiPrefix(final CharSequence val) {
+    int i = 0;
+    for (final int l = val.length(); i < l && val.charAt(i) < 128; i++);
+    return i;
   }
 
   /**
@@ -78,9 +557,11 @@ public final class Filter {
    *   <li><code>trim</code>: Strip leading and trailing whitespace from string.</li>
    *   <!-- li><code>base64</code>: Base64-encode value.</li -->
    * </ul>
+   *
+   * All default filters except <code>s</code> are pure (see Pure).
    */
   public static Map<String, Handler> FILTERS = new HashMap<String, Handler>() {{
-    put("null", new Handler() {
+    put("null", new PureHandler() {
       public String filter(String val, String args[], Map<String, String> row) {
         return "";
       }
@@ -93,160 +574,148 @@ public final class Filter {
       }
     });
 
-    put("uc", new Handler() {
+    put("uc", new PureStreamHandler() {
       public String filter(String val, String args[], Map<String, String> row) {
         return val.toUpperCase();
       }
+
+      public void filter(
+        final String val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        filter((CharSequence) val, args, row, out);
+      }
+
+      public void filter(
+        final CharSequence val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        final int l = val.length();
+        if (asciiPrefix(val) < l || !isSimpleCaseLocale()) {
+          out.append(val.toString().toUpperCase());
+          return;
+        }
+
+        for (int i = 0; i < l; i++) {
+          final char c = val.charAt(i);
+          out.append((c >= 'a' && c <= 'z') ? (char) (c - ('a' - 'A')) : c);
+        }
+      }
     });
 
-    put("lc", new Handler() {
+    put("lc", new PureStreamHandler() {
       public String filter(String val, String args[], Map<String, String> row) {
         return val.toLowerCase();
       }
+
+      public void filter(
+        final String val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        filter((CharSequence) val, args, row, out);
+      }
+
+      public void filter(
+        final CharSequence val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        final int l = val.length();
+        if (asciiPrefix(val) < l || !isSimpleCaseLocale()) {
+          out.append(val.toString().toLowerCase());
+          return;
+        }
+
+        for (int i = 0; i < l; i++) {
+          final char c = val.charAt(i);
+          out.append((c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c);
+        }
+      }
     });
 
-    put("length", new Handler() {
-      public String filter(String val, String args[], Map<String, String> row) {
+    put("length", new PureSequenceHandler() {
+      public CharSequence filter(CharSequence val, String args[], Map<String, String> row) {
         return Integer.toString(val.length());
       }
     });
 
-    put("trim", new Handler() {
+    put("trim", new PureHandler() {
       public String filter(String val, String args[], Map<String, String> row) {
         return val.trim();
       }
     });
 
-    put("h", new Handler() {
+    put("h", new PureStreamHandler() {
       public String filter(String val, String args[], Map<String, String> row) {
-        StringBuilder r = new StringBuilder();
-        final byte bytes[] = getBytes(val, args);
-
-        for (int i = 0, l = bytes.length; i < l; i++) {
-          final byte b = bytes[i];
-
-          switch (b) {
-          case '&':
-            r.append("&amp;");
-            break;
-          case '<':
-            r.append("&lt;");
-            break;
-          case '>':
-            r.append("&gt;");
-            break;
-          case '\'':
-            r.append("&apos;");
-            break;
-          case '"':
-            r.append("&quot;");
-            break;
-          default:
-            if (b < 32 || b > 126) {
-              r.append(String.format("&#%d;", toUInt(b)));
-            } else {
-              r.append((char) b);
-            }
-          }
-        }
+        return escape(val, args, HTML_ESCAPES);
+      }
 
-        return r.toString();
+      public void filter(
+        final String val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        escape(val, getCharset(args), HTML_ESCAPES, out);
+      }
+
+      public void filter(
+        final CharSequence val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        escape(val, getCharset(args), HTML_ESCAPES, out);
       }
     });
 
-    put("u", new Handler() {
+    put("u", new PureStreamHandler() {
       public String filter(String val, String args[], Map<String, String> row) {
-        final StringBuilder r = new StringBuilder();
-        final byte bytes[] = getBytes(val, args);
-
-        for (int i = 0, l = bytes.length; i < l; i++) {
-          final byte b = bytes[i];
-
-          switch (b) {
-          case 'A':
-          case 'B':
-          case 'C':
-          case 'D':
-          case 'E':
-          case 'F':
-          case 'G':
-          case 'H':
-          case 'I':
-          case 'J':
-          case 'K':
-          case 'L':
-          case 'M':
-          case 'N':
-          case 'O':
-          case 'P':
-          case 'Q':
-          case 'R':
-          case 'S':
-          case 'T':
-          case 'U':
-          case 'V':
-          case 'W':
-          case 'X':
-          case 'Y':
-          case 'Z':
-          case 'a':
-          case 'b':
-          case 'c':
-          case 'd':
-          case 'e':
-          case 'f':
-          case 'g':
-          case 'h':
-          case 'i':
-          case 'j':
-          case 'k':
-          case 'l':
-          case 'm':
-          case 'n':
-          case 'o':
-          case 'p':
-          case 'q':
-          case 'r':
-          case 's':
-          case 't':
-          case 'u':
-          case 'v':
-          case 'w':
-          case 'x':
-          case 'y':
-          case 'z':
-          case '0':
-          case '1':
-          case '2':
-          case '3':
-          case '4':
-          case '5':
-          case '6':
-          case '7':
-          case '8':
-          case '9':
-          case '-':
-          case '_':
-          case '.':
-          case '~':
-            // unreserved character
-            r.append((char) b);
-            break;
-          case ' ':
-            r.append("+");
-            break;
-          default:
-            r.append(String.format("%%%02X", toUInt(b)));
-          }
-        }
+        return escape(val, args, URL_ESCAPES);
+      }
+
+      public void filter(
+        final String val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        escape(val, getCharset(args), URL_ESCAPES, out);
+      }
 
-        return r.toString();
+      public void filter(
+        final CharSequence val,
+        final String args[],
+        final Map<String, String> row,
+        final Appendable out
+      ) throws IOException {
+        escape(val, getCharset(args), URL_ESCAPES, out);
       }
     });
 
-    put("trim", new Handler() {
-      public String filter(String val, String args[], Map<String, String> row) {
-        return val.replaceAll("\\A\\s+|\\s+\\Z", "");
+    put("trim", new PureSequenceHandler() {
+      public CharSequence filter(CharSequence val, String args[], Map<String, String> row) {
+        final int len = val.length();
+        if (len > 0 && is_terminator(val.charAt(len - 1)))
+          return val.toString().replaceAll("\\A\\s+|\\s+\\Z", "");
+
+        // strip leading and trailing regex whitespace
+        int start = 0;
+        while (start < len && Parser.is_space(val.charAt(start)))
+          start++;
+        int end = len;
+        while (end > start && Parser.is_space(val.charAt(end - 1)))
+          end--;
+
+        // return view of trimmed value
+        return (start == 0 && end == len) ? val : CharBuffer.wrap(val, start, end);
       }
     });
   }};
@@ -0,0 +1,52 @@
+package org.pablotron.luigi;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.pablotron.luigi.actions.TextAction;
+
+/**
+ * Pool of text literals shared by the templates in a cache.
+ *
+ * Identical text, such as shared headers and footers, is stored once
+ * no matter how many templates use it.  The pool only holds weak
+ * references, so literals are dropped once no template uses them.
+ * Literals are interned each time the cache creates a template
+ * (whatever the template flags), which may happen on several threads
+ * at once, so the pool is synchronized.
+ */
+final class Literals {
+  /**
+   * Map of text to shared text action.  The action references its key,
+   * so it is held by a weak reference.
+   */
+  private final Map<String, WeakReference<TextAction>> pool = new WeakHashMap<String, WeakReference<TextAction>>();
+
+  /**
+   * Get the shared text action with the same text as the given action,
+   * adding the given action to the pool if there is none.
+   *
+   * @param a Text action.
+   *
+   * @return Shared text action.
+   */
+  synchronized TextAction intern(final TextAction a) {
+    final WeakReference<TextAction> ref = pool.get(a.text());
+    final TextAction r = (ref != null) ? ref.get() : null;
+    if (r != null)
+      return r;
+
+    pool.put(a.text(), new WeakReference<TextAction>(a));
+    return a;
+  }
+
+  /**
+   * Get the number of literals in the pool.
+   *
+   * @return Number of literals.
+   */
+  synchronized int size() {
+    return pool.size();
+  }
+};
@@ -0,0 +1,463 @@
+package org.pablotron.luigi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.io.IOException;
+
+import org.pablotron.luigi.ArgumentResolver;
+import org.pablotron.luigi.Row;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.cache.EvictionPolicy;
+import org.pablotron.luigi.cache.LruPolicy;
+import org.pablotron.luigi.cache.OutputCacheStats;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Bounded cache of rendered template output.
+ *
+ * Outputs are keyed on the template key and the values of the
+ * arguments the template references, so arguments which the template
+ * does not use do not cause misses.  The key is the exact argument
+ * values rather than a hash, so two different renders never share an
+ * entry.
+ *
+ * Templates which use a filter declared Filter.Volatile bypass the
+ * output cache.  Templates which are recompiled (e.g. after
+ * Cache.invalidate()) do not reuse output cached for the previous
+ * version.
+ *
+ * An output cache is thread-safe, and is attached to a single Cache
+ * with Cache.Builder.outputCache().  If the cache does not link
+ * templates, changes to its filter map are not seen by cached output;
+ * call invalidateAll() after changing the filter map.
+ */
+public final class OutputCache {
+  /**
+   * Output cache builder.
+   */
+  public static final class Builder {
+    private final long maxWeight;
+    private long ttl = 0;
+    private EvictionPolicy.Factory policy = LruPolicy.FACTORY;
+
+    /**
+     * Create a new output cache builder.
+     *
+     * @param maxWeight Maximum total weight of cached outputs, in
+     * characters.  Each output weighs the length of the output plus the
+     * length of its key.
+     */
+    public Builder(final long maxWeight) {
+      if (maxWeight < 0)
+        throw new IllegalArgumentException("negative maximum weight");
+      this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Expire outputs the given time after they are rendered.
+     * Defaults to 0, which means outputs do not expire.
+     *
+     * @param duration Time to live.
+     * @param unit Time unit of duration.
+     *
+     * @return This builder.
+     */
+    public Builder expireAfterWrite(final long duration, final TimeUnit unit) {
+      if (duration < 0)
+        throw new IllegalArgumentException("negative duration");
+
+      this.ttl = unit.toNanos(duration);
+      return this;
+    }
+
+    /**
+     * Set the eviction policy.  Defaults to LruPolicy.FACTORY.
+     *
+     * @param policy Eviction policy factory (e.g. TinyLfuPolicy.FACTORY).
+     *
+     * @return This builder.
+     */
+    public Builder evictionPolicy(final EvictionPolicy.Factory policy) {
+      this.policy = policy;
+      return this;
+    }
+
+    /**
+     * Create a new OutputCache from this builder.
+     *
+     * @return New OutputCache instance.
+     */
+    public OutputCache build() {
+      return new OutputCache(this);
+    }
+  };
+
+  /**
+   * Cached output.
+   */
+  private static final class Entry {
+    /**
+     * Rendered output.
+     */
+    private final String output;
+
+    /**
+     * Generation of the template which rendered the output.  Stored
+     * instead of the template, so cached output does not keep previous
+     * versions of a template (and their compiled classes) alive.
+     */
+    private final long generation;
+
+    /**
+     * Expiry time, from System.nanoTime().  Ignored if the output
+     * cache has no time to live.
+     */
+    private final long expires;
+
+    private Entry(final String output, final long generation, final long expires) {
+      this.output = output;
+      this.generation = generation;
+      this.expires = expires;
+    }
+  };
+
+  /**
+   * Time to live, in nanoseconds, or 0 if outputs do not expire.
+   */
+  private final long ttl;
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * Eviction policy, guarded by lock.
+   */
+  private final EvictionPolicy policy;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bypasses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  /**
+   * Create a new OutputCache instance from the given builder.
+   *
+   * @param b Output cache builder.
+   */
+  private OutputCache(final Builder b) {
+    this.ttl = b.ttl;
+    this.policy = b.policy.create(b.maxWeight);
+  }
+
+  /**
+   * Get a snapshot of the statistics for this output cache.
+   *
+   * @return Output cache statistics.
+   */
+  public OutputCacheStats stats() {
+    final long weight;
+    lock.lock();
+    try {
+      weight = policy.weight();
+    } finally {
+      lock.unlock();
+    }
+
+    return new OutputCacheStats(
+      hits.sum(),
+      misses.sum(),
+      bypasses.sum(),
+      evictions.sum(),
+      expirations.sum(),
+      entries.size(),
+      weight
+    );
+  }
+
+  /**
+   * Remove all cached outputs.
+   */
+  public void invalidateAll() {
+    lock.lock();
+    try {
+      for (final String key: new ArrayList<String>(entries.keySet())) {
+        entries.remove(key);
+        policy.remove(key);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Run the given template with the given arguments, or return the
+   * cached output of a previous run with the same argument values.
+   *
+   * @param key Template key.
+   * @param t Template.
+   * @param args Template arguments.
+   *
+   * @return Result of template run.
+   *
+   * @throws LuigiError If an error occurs while running the template.
+   */
+  String run(
+    final String key,
+    final Template t,
+    final Map<String, String> args
+  ) throws LuigiError {
+    if (!t.isDeterministic()) {
+      bypasses.increment();
+      return t.run(args);
+    }
+
+    // build fingerprint; render without caching if a key is missing
+    final List<String> keys = t.keys();
+    final StringBuilder fp = fingerprint(key, keys.size());
+    for (final String k: keys) {
+      final String val = args.get(k);
+      if (val == null && !args.containsKey(k))
+        return t.run(args);
+      append(fp, val);
+    }
+
+    return render(fp.toString(), t, args, null);
+  }
+
+  /**
+   * Run the given template with arguments from the given resolver, or
+   * return the cached output of a previous run with the same argument
+   * values.
+   *
+   * Every key referenced by the template is resolved, even if the
+   * output is cached.
+   *
+   * @param key Template key.
+   * @param t Template.
+   * @param args Argument resolver.
+   *
+   * @return Result of template run.
+   *
+   * @throws LuigiError If an error occurs while running the template.
+   */
+  String run(
+    final String key,
+    final Template t,
+    final ArgumentResolver args
+  ) throws LuigiError {
+    if (!t.isDeterministic()) {
+      bypasses.increment();
+      return t.run(args);
+    }
+
+    // resolve referenced keys and build fingerprint
+    final Row row = t.schema().row(args);
+    final int num_slots = row.schema().size();
+    final StringBuilder fp = fingerprint(key, num_slots);
+    for (int i = 0; i < num_slots; i++) {
+      final CharSequence val = row.value(i);
+      if (val == null)
+        return t.run(row);
+      append(fp, val);
+    }
+
+    return render(fp.toString(), t, null, row);
+  }
+
+  /**
+   * Look up output by fingerprint, or run the template and cache the
+   * output.
+   *
+   * @param fp Fingerprint.
+   * @param t Template.
+   * @param args Template arguments, or null to use row.
+   * @param row Template arguments bound to the schema of the template.
+   *
+   * @return Result of template run.
+   *
+   * @throws LuigiError If an error occurs while running the template.
+   */
+  private String render(
+    final String fp,
+    final Template t,
+    final Map<String, String> args,
+    final Row row
+  ) throws LuigiError {
+    // check for cached output
+    final Entry e = entries.get(fp);
+    if (e != null) {
+      if (e.generation != t.generation()) {
+        // rendered by previous version of template
+        remove(fp, e);
+      } else if (ttl > 0 && System.nanoTime() - e.expires >= 0) {
+        // expired
+        if (remove(fp, e))
+          expirations.increment();
+      } else {
+        hits.increment();
+        access(fp);
+        return e.output;
+      }
+    }
+
+    misses.increment();
+
+    // run template
+    final String r = (args != null) ? t.run(args) : t.run(row);
+    put(fp, new Entry(r, t.generation(), System.nanoTime() + ttl), fp.length() + r.length());
+    return r;
+  }
+
+  /**
+   * Run the given template with the given arguments and write the
+   * result to the given output.  Cached outputs are written in one
+   * chunk.
+   *
+   * @param key Template key.
+   * @param t Template.
+   * @param args Template arguments.
+   * @param out Appendable output interface.
+   *
+   * @throws LuigiError If an error occurs while running the template.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  void run(
+    final String key,
+    final Template t,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    if (t.isDeterministic()) {
+      out.append(run(key, t, args));
+    } else {
+      // stream volatile templates
+      bypasses.increment();
+      t.run(args, out);
+    }
+  }
+
+  /**
+   * Run the given template with arguments from the given resolver and
+   * write the result to the given output.  Cached outputs are written
+   * in one chunk.
+   *
+   * @param key Template key.
+   * @param t Template.
+   * @param args Argument resolver.
+   * @param out Appendable output interface.
+   *
+   * @throws LuigiError If an error occurs while running the template.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  void run(
+    final String key,
+    final Template t,
+    final ArgumentResolver args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    if (t.isDeterministic()) {
+      out.append(run(key, t, args));
+    } else {
+      // stream volatile templates
+      bypasses.increment();
+      t.run(args, out);
+    }
+  }
+
+  /**
+   * Start a fingerprint with the given template key.
+   */
+  private static StringBuilder fingerprint(final String key, final int num_keys) {
+    final StringBuilder r = new StringBuilder(key.length() + 16 * (num_keys + 1));
+    append(r, key);
+    return r;
+  }
+
+  /**
+   * Append a value to a fingerprint.
+   *
+   * Values are prefixed with their length, and null values are written
+   * as a single dash, so distinct lists of values never produce the
+   * same fingerprint.
+   */
+  private static void append(final StringBuilder fp, final CharSequence val) {
+    if (val == null) {
+      fp.append('-');
+    } else {
+      fp.append(val.length()).append(':').append(val);
+    }
+  }
+
+  /**
+   * Record access of cached output with the eviction policy.
+   *
+   * The access is dropped rather than waiting if another thread holds
+   * the policy lock, so hits never block.
+   *
+   * @param fp Fingerprint.
+   */
+  private void access(final String fp) {
+    if (lock.tryLock()) {
+      try {
+        policy.access(fp);
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Add output to this cache, then remove any evicted outputs.
+   *
+   * @param fp Fingerprint.
+   * @param e Output entry.
+   * @param weight Entry weight.
+   */
+  private void put(final String fp, final Entry e, final long weight) {
+    final List<String> evicted = new ArrayList<String>();
+
+    lock.lock();
+    try {
+      // replace existing output, if any
+      if (entries.put(fp, e) != null)
+        policy.remove(fp);
+
+      policy.add(fp, weight, evicted);
+
+      // remove while holding the lock so the policy and the entry map
+      // stay in sync
+      for (final String k: evicted)
+        entries.remove(k);
+    } finally {
+      lock.unlock();
+    }
+
+    evictions.add(evicted.size());
+  }
+
+  /**
+   * Remove the given output, unless it was replaced by another thread.
+   *
+   * @param fp Fingerprint.
+   * @param e Output entry.
+   *
+   * @return True if the output was removed.
+   */
+  private boolean remove(final String fp, final Entry e) {
+    lock.lock();
+    try {
+      final boolean r = entries.remove(fp, e);
+      if (r)
+        policy.remove(fp);
+      return r;
+    } finally {
+      lock.unlock();
+    }
+  }
+};
@@ -1,8 +1,9 @@
 package org.pablotron.luigi;
 
 import java.util.ArrayList;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.pablotron.luigi.actions.Action;
 import org.pablotron.luigi.actions.FilterAction;
@@ -12,106 +13,212 @@ import org.pablotron.luigi.errors.LuigiError;
 
 /**
  * Internal template string parser.
+ *
+ * Templates are parsed in a single pass by a hand-written scanner.
+ * The scanner accepts the same language as the original regular
+ * expression parser:
+ *
+ * <pre>
+ *   %\{\s*([^\s|}]+)((\s*\|(\s*[^\s|}]+)+)*)\s*\}
+ * </pre>
+ *
+ * Any text which does not match is copied verbatim, except for the
+ * <code>%</code> character at the start of a failed match, which is
+ * dropped.
  */
 public final class Parser {
   /**
-   * Template string parsing regular expression.
+   * Hide constructor to prevent instantiation.
    */
-  private static final Pattern RE_ACTION = Pattern.compile(
-    // match opening brace
-    "%\\{" +
+  private Parser() {}
 
-      // match optional whitespace
-      "\\s*" +
+  /**
+   * Parse given template string into an array of actions.
+   *
+   * @param template Template string.
+   *
+   * @return Array of actions.
+   *
+   * @throws LuigiError If parsing fails.
+   */
+  protected static Action[] parse_template(
+    final String template
+  ) throws LuigiError {
+    return parse_template(template, new LinkedHashMap<String, Integer>());
+  }
 
-      // match key
-      // "(?<key>[^\\s\\|\\}]+)" +
-      "([^\\s\\|\\}]+)" +
+  /**
+   * Parse given template string into an array of actions, and assign
+   * each distinct key a slot in order of first appearance.
+   *
+   * @param template Template string.
+   * @param slots Output map of key to slot.
+   *
+   * @return Array of actions.
+   *
+   * @throws LuigiError If parsing fails.
+   */
+  protected static Action[] parse_template(
+    final String template,
+    final LinkedHashMap<String, Integer> slots
+  ) throws LuigiError {
+    final ArrayList<Action> r = new ArrayList<Action>();
+    final int len = template.length();
 
-      // match filter(s)
-      // "(?<filters>(\\s*\\|(\\s*[^\\s\\|\\}]+)+)*)" +
-      "((\\s*\\|(\\s*[^\\s\\|\\}]+)+)*)" +
+    int pos = 0;
+    while (pos < len) {
+      // find next percent sign
+      final int ofs = template.indexOf('%', pos);
+      if (ofs < 0) {
+        // add trailing text
+        r.add(new TextAction(template.substring(pos)));
+        break;
+      }
 
-      // match optional whitespace
-      "\\s*" +
+      // add leading text
+      if (ofs > pos)
+        r.add(new TextAction(template.substring(pos, ofs)));
 
-    // match closing brace
-    "\\}" +
+      // scan action; on failure skip percent sign
+      final int end = scan_action(template, ofs, slots, r);
+      pos = (end > 0) ? end : (ofs + 1);
+    }
 
-    // or match up all non-% chars or a single % char
-    // "| (?<text>[^%]* | %)",
-    "| ([^%]* | %)",
+    // build array of results
+    return coalesce(r);
+  }
 
-    Pattern.COMMENTS
-  );
+  /**
+   * Parse the given string as a single action.
+   *
+   * @param s Action string, starting with a percent sign and ending
+   * with a closing brace.
+   *
+   * @return Filter action, or null if the string is not an action.
+   */
+  static Action parse_action(final String s) {
+    final ArrayList<Action> r = new ArrayList<Action>(1);
+    final int end = scan_action(s, 0, new LinkedHashMap<String, Integer>(), r);
+    return (end == s.length()) ? r.get(0) : null;
+  }
 
   /**
-   * Filter string parsing regular expression.
+   * Merge adjacent text actions.
+   *
+   * Text on either side of a dropped percent sign is scanned as two
+   * text actions; merging them saves a dispatch and an append for each
+   * run of the template.
+   *
+   * @param actions List of actions.
+   *
+   * @return New array of actions with no adjacent text actions.
    */
-  private static final Pattern RE_FILTER = Pattern.compile(
-    // match filter name
-    // "(?<name>\\S+)" +
-    "(\\S+)" +
+  static Action[] coalesce(final List<Action> actions) {
+    final int n = actions.size();
+    final ArrayList<Action> r = new ArrayList<Action>(n);
 
-    // match filter arguments (optional)
-    // "(?<args>(\\s*\\S+)*)" +
-    "((\\s*\\S+)*)" +
+    int i = 0;
+    while (i < n) {
+      final Action a = actions.get(i);
 
-    // optional trailing whitespace
-    "\\s*",
+      // find end of run of text actions
+      int j = i + 1;
+      if (a instanceof TextAction) {
+        while (j < n && actions.get(j) instanceof TextAction)
+          j++;
+      }
 
-    Pattern.COMMENTS
-  );
+      if (j - i == 1) {
+        r.add(a);
+      } else {
+        // merge text actions
+        final StringBuilder buf = new StringBuilder();
+        for (int k = i; k < j; k++)
+          buf.append(((TextAction) actions.get(k)).text());
+        r.add(new TextAction(buf.toString()));
+      }
 
-  /**
-   * Filter chain delimiter.
-   */
-  private static final Pattern RE_DELIM_FILTERS = Pattern.compile(
-    "\\s*\\|\\s*"
-  );
+      i = j;
+    }
 
-  /**
-   * Filter arguments delimiter.
-   */
-  private static final Pattern RE_DELIM_ARGS = Pattern.compile(
-    "\\s+"
-  );
+    return r.toArray(new Action[r.size()]);
+  }
 
   /**
-   * Parse given template string into an array of actions.
-   *
-   * @param template Template string.
+   * Scan action at given offset of template string and add it to the
+   * action list.
    *
-   * @return Array of actions.
+   * @param s Template string.
+   * @param ofs Offset of percent sign in template string.
+   * @param slots Map of key to slot.
+   * @param r Output action list.
    *
-   * @throws LuigiError If parsing fails.
+   * @return Offset of first character after the action, or -1 if the
+   * text at the given offset is not an action.
    */
-  protected static Action[] parse_template(
-    final String template
-  ) throws LuigiError {
-    final ArrayList<Action> r = new ArrayList<Action>();
+  private static int scan_action(
+    final String s,
+    final int ofs,
+    final Map<String, Integer> slots,
+    final ArrayList<Action> r
+  ) {
+    final int len = s.length();
 
-    // match on text
-    final Matcher m = RE_ACTION.matcher(template);
+    // match opening brace
+    int i = ofs + 1;
+    if (i >= len || s.charAt(i) != '{')
+      return -1;
 
-    while (m.find()) {
-      // String key = m.group("key");
-      final String key = m.group(1);
+    // match optional whitespace and key
+    final int key_start = skip_space(s, i + 1);
+    final int key_end = skip_token(s, key_start);
+    if (key_end == key_start)
+      return -1;
 
-      if (key != null && key.length() > 0) {
-        // r.add(new FilterAction(key, parse_filters(m.group("filters"))));
-        r.add(new FilterAction(key, parse_filters(m.group(2))));
-      } else {
-        // r.add(new TextAction(m.group("text")));
-        r.add(new TextAction(m.group(5)));
+    // match filter(s)
+    int filters_end = key_end;
+    while (true) {
+      // match optional whitespace
+      i = skip_space(s, filters_end);
+      if (i >= len)
+        return -1;
+
+      final char c = s.charAt(i);
+      if (c == '}') {
+        // match closing brace
+        break;
+      } else if (c != '|') {
+        return -1;
       }
+
+      // match one or more filter tokens
+      int tok_start = skip_space(s, i + 1);
+      int tok_end = skip_token(s, tok_start);
+      if (tok_end == tok_start)
+        return -1;
+
+      do {
+        filters_end = tok_end;
+        tok_start = skip_space(s, filters_end);
+        tok_end = skip_token(s, tok_start);
+      } while (tok_end > tok_start);
     }
 
-    // build array of results
-    return r.toArray(new Action[r.size()]);
+    // get key and slot
+    final String key = s.substring(key_start, key_end);
+    Integer slot = slots.get(key);
+    if (slot == null) {
+      slot = slots.size();
+      slots.put(key, slot);
+    }
+
+    r.add(new FilterAction(key, slot, parse_filters(s, key_end, filters_end)));
+
+    return i + 1;
   }
 
   private static final String[] NO_ARGS = {};
+  private static final FilterReference[] NO_FILTERS = {};
 
   /**
    * Parse given filter string into an array of filter references.
@@ -125,31 +232,163 @@ public final class Parser {
   protected static FilterReference[] parse_filters(
     final String filters_str
   ) throws LuigiError {
-    final ArrayList<FilterReference> r = new ArrayList<FilterReference>();
+    return parse_filters(filters_str, 0, filters_str.length());
+  }
+
+  /**
+   * Parse the filter chain in the given range of a string into an
+   * array of filter references.
+   *
+   * Filters are separated by pipe characters.  Each filter is trimmed
+   * with String#trim(), empty filters are skipped, and the remainder
+   * is split into a filter name and arguments on whitespace.
+   *
+   * @param s String containing filter chain.
+   * @param start Offset of start of filter chain.
+   * @param end Offset of end of filter chain.
+   *
+   * @return Array of FilterReferences.
+   */
+  private static FilterReference[] parse_filters(
+    final String s,
+    final int start,
+    final int end
+  ) {
+    // check for empty filter chain
+    if (trim_start(s, start, end) == end)
+      return NO_FILTERS;
+
+    final ArrayList<FilterReference> r = new ArrayList<FilterReference>(2);
+
+    // handle each pipe-delimited filter
+    int pos = start;
+    while (pos <= end) {
+      int delim = s.indexOf('|', pos);
+      if (delim < 0 || delim > end)
+        delim = end;
 
-    // split string into individual filters and handle each one
-    for (String f: RE_DELIM_FILTERS.split(filters_str)) {
       // trim filter string and skip empty filters
-      f = f.trim();
-      if (f.length() == 0)
+      final int f_start = trim_start(s, pos, delim);
+      final int f_end = trim_end(s, f_start, delim);
+      pos = delim + 1;
+      if (f_start == f_end)
         continue;
 
-      // match on filter and check for error
-      final Matcher m = RE_FILTER.matcher(f);
-      if (!m.find())
-        throw new LuigiError("invalid filter: " + f);
+      // get filter name
+      final int name_end = skip_nonspace(s, f_start, f_end);
+      final String name = s.substring(f_start, name_end);
 
-      // get arguments string
-      final String args = m.group(2).trim();
+      // get trimmed arguments range
+      final int args_start = trim_start(s, name_end, f_end);
+      final int args_end = trim_end(s, args_start, f_end);
 
       // append new filter reference to result
-      r.add(new FilterReference(
-        m.group(1),
-        (args.length() > 0) ? RE_DELIM_ARGS.split(args) : NO_ARGS
-      ));
+      r.add(new FilterReference(name, parse_args(s, args_start, args_end)));
     }
 
     // return result
     return r.toArray(new FilterReference[r.size()]);
   }
+
+  /**
+   * Split the given range of a string on whitespace.
+   *
+   * @param s String containing filter arguments.
+   * @param start Offset of start of arguments.  Must not be whitespace.
+   * @param end Offset of end of arguments.
+   *
+   * @return Array of arguments.
+   */
+  private static String[] parse_args(
+    final String s,
+    final int start,
+    final int end
+  ) {
+    if (start == end)
+      return NO_ARGS;
+
+    // count arguments
+    int num_args = 0;
+    for (int i = start; i < end; num_args++)
+      i = skip_space(s, skip_nonspace(s, i, end), end);
+
+    // build result
+    final String[] r = new String[num_args];
+    for (int i = start, j = 0; i < end; j++) {
+      final int arg_end = skip_nonspace(s, i, end);
+      r[j] = s.substring(i, arg_end);
+      i = skip_space(s, arg_end, end);
+    }
+
+    return r;
+  }
+
+  /**
+   * Is the given character a regular expression whitespace character
+   * (e.g. <code>\s</code>)?
+   */
+  static boolean is_space(final char c) {
+    return c == ' ' || (c >= '\t' && c <= '\r');
+  }
+
+  /**
+   * Skip whitespace characters starting at the given offset.
+   */
+  private static int skip_space(final String s, final int i) {
+    return skip_space(s, i, s.length());
+  }
+
+  /**
+   * Skip whitespace characters in the given range.
+   */
+  private static int skip_space(final String s, int i, final int end) {
+    while (i < end && is_space(s.charAt(i)))
+      i++;
+    return i;
+  }
+
+  /**
+   * Skip non-whitespace characters in the given range.
+   */
+  private static int skip_nonspace(final String s, int i, final int end) {
+    while (i < end && !is_space(s.charAt(i)))
+      i++;
+    return i;
+  }
+
+  /**
+   * Skip key or filter token characters (anything except whitespace,
+   * pipe, and closing brace) starting at the given offset.
+   */
+  private static int skip_token(final String s, int i) {
+    final int len = s.length();
+    while (i < len) {
+      final char c = s.charAt(i);
+      if (c == '|' || c == '}' || is_space(c))
+        break;
+      i++;
+    }
+
+    return i;
+  }
+
+  /**
+   * Skip leading characters removed by String#trim() in the given
+   * range.
+   */
+  private static int trim_start(final String s, int i, final int end) {
+    while (i < end && s.charAt(i) <= ' ')
+      i++;
+    return i;
+  }
+
+  /**
+   * Skip trailing characters removed by String#trim() in the given
+   * range.
+   */
+  private static int trim_end(final String s, final int start, int i) {
+    while (i > start && s.charAt(i - 1) <= ' ')
+      i--;
+    return i;
+  }
 };
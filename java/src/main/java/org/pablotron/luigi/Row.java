@@ -0,0 +1,307 @@
+package org.pablotron.luigi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Template arguments bound to the slots of a template schema.
+ *
+ * A row stores argument values in a plain array, indexed by slot, so
+ * running a template with a row does not hash any keys.  Rows are
+ * meant to be reused: fill the slots, run the template, then clear or
+ * overwrite the slots for the next run.
+ *
+ * A row may also be backed by an ArgumentResolver, in which case each
+ * slot is resolved the first time it is read, and the value is kept
+ * until the row is cleared.
+ *
+ * Values may be any CharSequence (e.g. a StringBuilder or CharBuffer),
+ * which is passed to the template without being copied into a String.
+ *
+ * A row is also a Map of keys to values, which is what filters receive
+ * as the <code>row</code> argument.  Unset slots are treated as
+ * missing keys.  Rows are not thread-safe.
+ */
+public final class Row extends AbstractMap<String, String> {
+  private final Schema schema;
+  private final CharSequence[] values;
+
+  /**
+   * Argument resolver, or null.
+   */
+  private final ArgumentResolver resolver;
+
+  /**
+   * Which slots have been resolved, or null if there is no resolver.
+   */
+  private final boolean[] resolved;
+
+  /**
+   * Create a new, empty row for the given schema.
+   *
+   * @param schema Template schema.
+   */
+  Row(final Schema schema) {
+    this(schema, null);
+  }
+
+  /**
+   * Create a new row for the given schema, which resolves unset slots
+   * with the given resolver.
+   *
+   * @param schema Template schema.
+   * @param resolver Argument resolver, or null.
+   */
+  Row(final Schema schema, final ArgumentResolver resolver) {
+    this.schema = schema;
+    this.values = new CharSequence[schema.size()];
+    this.resolver = resolver;
+    this.resolved = (resolver != null) ? new boolean[values.length] : null;
+  }
+
+  /**
+   * Get the schema of this row.
+   *
+   * @return Template schema.
+   */
+  public Schema schema() {
+    return schema;
+  }
+
+  /**
+   * Get the value in the given slot as a String.
+   *
+   * @param slot Slot.
+   *
+   * @return Value, or null if the slot is not set.
+   *
+   * @throws IndexOutOfBoundsException If the slot is out of range.
+   */
+  public String get(final int slot) {
+    return string(load(slot));
+  }
+
+  /**
+   * Get the value in the given slot without converting it to a String.
+   *
+   * @param slot Slot.
+   *
+   * @return Value, or null if the slot is not set.
+   *
+   * @throws IndexOutOfBoundsException If the slot is out of range.
+   */
+  public CharSequence value(final int slot) {
+    return load(slot);
+  }
+
+  /**
+   * Get the value of the given key without converting it to a String.
+   *
+   * If the row has a resolver, keys which are not in the schema are
+   * passed to the resolver each time they are read.
+   *
+   * @param key Key.
+   *
+   * @return Value, or null if the key is not set or not in the schema.
+   */
+  public CharSequence value(final String key) {
+    final int slot = schema.slot(key);
+    if (slot >= 0)
+      return load(slot);
+    return (resolver != null) ? resolver.resolve(key) : null;
+  }
+
+  /**
+   * Set the value in the given slot.
+   *
+   * The value is not copied, so a mutable value (e.g. a StringBuilder)
+   * must not be changed while a template is run with this row.
+   *
+   * @param slot Slot.
+   * @param val Value, or null to unset the slot.
+   *
+   * @return This row.
+   *
+   * @throws IndexOutOfBoundsException If the slot is out of range.
+   */
+  public Row set(final int slot, final CharSequence val) {
+    values[slot] = val;
+    if (resolved != null)
+      resolved[slot] = true;
+    return this;
+  }
+
+  /**
+   * Set the value of the given key.
+   *
+   * @param key Key.
+   * @param val Value, or null to unset the key.
+   *
+   * @return This row.
+   *
+   * @throws IllegalArgumentException If the key is not in the schema.
+   */
+  public Row set(final String key, final CharSequence val) {
+    return set(checkSlot(key), val);
+  }
+
+  /**
+   * Unset all slots.  If the row has a resolver, slots are resolved
+   * again the next time they are read.
+   */
+  public void clear() {
+    Arrays.fill(values, null);
+    if (resolved != null)
+      Arrays.fill(resolved, false);
+  }
+
+  /**
+   * Get the value of the given key.
+   *
+   * @param key Key.
+   *
+   * @return Value, or null if the key is not set or not in the schema.
+   */
+  public String get(final Object key) {
+    return (key instanceof String) ? string(value((String) key)) : null;
+  }
+
+  /**
+   * Is the given key set?
+   *
+   * @param key Key.
+   *
+   * @return True if the key is in the schema and set.
+   */
+  public boolean containsKey(final Object key) {
+    return (key instanceof String) && value((String) key) != null;
+  }
+
+  /**
+   * Set the value of the given key.
+   *
+   * @param key Key.
+   * @param val Value, or null to unset the key.
+   *
+   * @return Previous value.
+   *
+   * @throws IllegalArgumentException If the key is not in the schema.
+   */
+  public String put(final String key, final String val) {
+    final int slot = checkSlot(key);
+    final String r = string(load(slot));
+    set(slot, val);
+    return r;
+  }
+
+  /**
+   * Unset the given key.
+   *
+   * @param key Key.
+   *
+   * @return Previous value.
+   */
+  public String remove(final Object key) {
+    final int slot = schema.slot(key);
+    if (slot < 0)
+      return null;
+
+    final String r = string(load(slot));
+    set(slot, null);
+    return r;
+  }
+
+  /**
+   * Get the set of key/value entries for all set slots.
+   *
+   * @return Entry set.
+   */
+  public Set<Map.Entry<String, String>> entrySet() {
+    // resolve all slots
+    for (int i = 0; i < values.length; i++)
+      load(i);
+
+    return new AbstractSet<Map.Entry<String, String>>() {
+      public int size() {
+        int r = 0;
+        for (final CharSequence val: values)
+          r += (val != null) ? 1 : 0;
+        return r;
+      }
+
+      public Iterator<Map.Entry<String, String>> iterator() {
+        return new Iterator<Map.Entry<String, String>>() {
+          private int next = skip(0);
+          private int last = -1;
+
+          private int skip(int i) {
+            while (i < values.length && values[i] == null)
+              i++;
+            return i;
+          }
+
+          public boolean hasNext() {
+            return next < values.length;
+          }
+
+          public Map.Entry<String, String> next() {
+            if (next >= values.length)
+              throw new NoSuchElementException();
+
+            last = next;
+            next = skip(next + 1);
+            return new AbstractMap.SimpleImmutableEntry<String, String>(
+              schema.key(last),
+              string(values[last])
+            );
+          }
+
+          public void remove() {
+            if (last < 0)
+              throw new IllegalStateException();
+
+            // mark slot resolved, as remove(key) does, so a resolver
+            // does not resolve the removed key again
+            set(last, null);
+            last = -1;
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Get the value in the given slot, resolving it first if necessary.
+   */
+  private CharSequence load(final int slot) {
+    if (resolved != null && !resolved[slot]) {
+      values[slot] = resolver.resolve(schema.key(slot));
+      resolved[slot] = true;
+    }
+
+    return values[slot];
+  }
+
+  /**
+   * Convert the given value to a String.
+   */
+  private static String string(final CharSequence val) {
+    return (val != null) ? val.toString() : null;
+  }
+
+  /**
+   * Get the slot of the given key, or raise an IllegalArgumentException
+   * if the key is not in the schema.
+   */
+  private int checkSlot(final String key) {
+    final int slot = schema.slot(key);
+    if (slot < 0)
+      throw new IllegalArgumentException("key not in schema: " + key);
+    return slot;
+  }
+};
@@ -0,0 +1,132 @@
+package org.pablotron.luigi;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Key schema of a template.
+ *
+ * The schema assigns each distinct key used by a template a slot,
+ * numbered from zero in order of first appearance.  Use the schema to
+ * create rows, which store argument values in an array indexed by
+ * slot rather than in a hash map.
+ */
+public final class Schema {
+  /**
+   * Keys, in slot order.
+   */
+  private final String[] keys;
+
+  /**
+   * Map of key to slot.
+   */
+  private final Map<String, Integer> slots;
+
+  /**
+   * Create a new schema from the given list of keys.
+   *
+   * @param keys Distinct keys, in slot order.
+   */
+  Schema(final List<String> keys) {
+    this.keys = keys.toArray(new String[keys.size()]);
+    this.slots = new HashMap<String, Integer>(2 * this.keys.length);
+
+    for (int i = 0; i < this.keys.length; i++)
+      slots.put(this.keys[i], i);
+  }
+
+  /**
+   * Get the number of slots in this schema.
+   *
+   * @return Number of slots.
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * Get the key in the given slot.
+   *
+   * @param slot Slot.
+   *
+   * @return Key.
+   *
+   * @throws IndexOutOfBoundsException If the slot is out of range.
+   */
+  public String key(final int slot) {
+    return keys[slot];
+  }
+
+  /**
+   * Get the slot of the given key.
+   *
+   * @param key Key.
+   *
+   * @return Slot, or -1 if the key is not in this schema.
+   */
+  public int slot(final Object key) {
+    final Integer r = slots.get(key);
+    return (r != null) ? r : -1;
+  }
+
+  /**
+   * Get the keys of this schema, in slot order.
+   *
+   * @return Unmodifiable list of keys.
+   */
+  public List<String> keys() {
+    return Collections.unmodifiableList(Arrays.asList(keys));
+  }
+
+  /**
+   * Create a new, empty row for this schema.
+   *
+   * @return New row.
+   */
+  public Row row() {
+    return new Row(this);
+  }
+
+  /**
+   * Create a new row for this schema and copy the values for the keys
+   * in this schema from the given map.  Other keys are ignored.  Values
+   * are not copied.
+   *
+   * @param args Argument map.
+   *
+   * @return New row.
+   */
+  public Row row(final Map<String, ? extends CharSequence> args) {
+    final Row r = new Row(this);
+
+    for (int i = 0; i < keys.length; i++) {
+      final CharSequence val = args.get(keys[i]);
+      if (val != null)
+        r.set(i, val);
+    }
+
+    return r;
+  }
+
+  /**
+   * Create a new row for this schema which resolves each slot with the
+   * given resolver the first time the slot is read.
+   *
+   * @param resolver Argument resolver.
+   *
+   * @return New row.
+   */
+  public Row row(final ArgumentResolver resolver) {
+    return new Row(this, resolver);
+  }
+
+  /**
+   * Return a string representation of this schema.
+   */
+  public String toString() {
+    return Arrays.toString(keys);
+  }
+};
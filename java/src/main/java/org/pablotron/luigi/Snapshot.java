@@ -0,0 +1,361 @@
+package org.pablotron.luigi;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.FilterReference;
+import org.pablotron.luigi.Parser;
+import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.actions.FilterAction;
+import org.pablotron.luigi.actions.TextAction;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Binary snapshot of the parsed templates of a cache.
+ *
+ * A snapshot stores the template strings of a cache together with
+ * their parsed actions, so a cache created from a snapshot never runs
+ * the parser.  Templates are still linked or compiled on first use,
+ * according to the flags of the new cache.
+ *
+ * The format is a header (magic number and format version), a string
+ * table, and the parsed templates, followed by a CRC32 checksum of
+ * everything before it.  Integers are written as unsigned variable
+ * length quantities, and each distinct string is written once.
+ *
+ * A cache created from a snapshot drops each parsed template once it
+ * has built the template, so templates which are evicted or
+ * invalidated are parsed again from their template strings.
+ */
+public final class Snapshot {
+  /**
+   * Magic number ("LUIG").
+   */
+  private static final int MAGIC = 0x4c554947;
+
+  /**
+   * Snapshot format version.
+   */
+  public static final int VERSION = 1;
+
+  // action tags
+  private static final int TEXT = 0;
+  private static final int FILTER = 1;
+
+  /**
+   * Hide constructor to prevent instantiation.
+   */
+  private Snapshot() {}
+
+  /**
+   * Parsed template stored in a snapshot.
+   */
+  static final class Entry {
+    /**
+     * Template string.
+     */
+    final String source;
+
+    /**
+     * Unlinked actions.
+     */
+    final Action actions[];
+
+    /**
+     * Schema keys, in slot order.
+     */
+    final List<String> keys;
+
+    Entry(final String source, final Action actions[], final List<String> keys) {
+      this.source = source;
+      this.actions = actions;
+      this.keys = keys;
+    }
+  };
+
+  /**
+   * Parse every template in the given cache and write the parsed
+   * templates to the given output.
+   *
+   * @param cache Template cache.
+   * @param out Output stream.
+   *
+   * @throws LuigiError If a template cannot be parsed.
+   * @throws IOException If an error occurs while writing.
+   */
+  public static void write(
+    final Cache cache,
+    final OutputStream out
+  ) throws LuigiError, IOException {
+    // parse templates
+    final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    for (final Map.Entry<String, String> e: cache.strings().entrySet()) {
+      final LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>();
+      final Action actions[] = Parser.parse_template(e.getValue(), slots);
+      entries.put(e.getKey(), new Entry(e.getValue(), actions, new ArrayList<String>(slots.keySet())));
+    }
+
+    // build string table
+    final Map<String, Integer> ids = new HashMap<String, Integer>();
+    final List<String> strings = new ArrayList<String>();
+    for (final Map.Entry<String, Entry> e: entries.entrySet()) {
+      intern(ids, strings, e.getKey());
+      intern(ids, strings, e.getValue().source);
+      for (final String key: e.getValue().keys)
+        intern(ids, strings, key);
+
+      for (final Action a: e.getValue().actions) {
+        if (a instanceof TextAction) {
+          intern(ids, strings, ((TextAction) a).text());
+        } else {
+          final FilterAction fa = (FilterAction) a;
+          intern(ids, strings, fa.key());
+          for (final FilterReference f: fa.filters()) {
+            intern(ids, strings, f.name);
+            for (final String arg: f.args)
+              intern(ids, strings, arg);
+          }
+        }
+      }
+    }
+
+    final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+    final DataOutputStream os = new DataOutputStream(checked);
+
+    // write header
+    os.writeInt(MAGIC);
+    os.writeInt(VERSION);
+
+    // write string table
+    writeInt(os, strings.size());
+    for (final String s: strings) {
+      final byte bytes[] = s.getBytes(StandardCharsets.UTF_8);
+      writeInt(os, bytes.length);
+      os.write(bytes);
+    }
+
+    // write templates
+    writeInt(os, entries.size());
+    for (final Map.Entry<String, Entry> e: entries.entrySet()) {
+      final Entry entry = e.getValue();
+      writeInt(os, ids.get(e.getKey()));
+      writeInt(os, ids.get(entry.source));
+
+      writeInt(os, entry.keys.size());
+      for (final String key: entry.keys)
+        writeInt(os, ids.get(key));
+
+      writeInt(os, entry.actions.length);
+      for (final Action a: entry.actions) {
+        if (a instanceof TextAction) {
+          os.writeByte(TEXT);
+          writeInt(os, ids.get(((TextAction) a).text()));
+        } else {
+          final FilterAction fa = (FilterAction) a;
+          os.writeByte(FILTER);
+          writeInt(os, ids.get(fa.key()));
+          writeInt(os, fa.slot() + 1);
+          writeInt(os, fa.filters().length);
+          for (final FilterReference f: fa.filters()) {
+            writeInt(os, ids.get(f.name));
+            writeInt(os, f.args.length);
+            for (final String arg: f.args)
+              writeInt(os, ids.get(arg));
+          }
+        }
+      }
+    }
+
+    // write checksum
+    os.flush();
+    new DataOutputStream(out).writeLong(checked.getChecksum().getValue());
+    out.flush();
+  }
+
+  /**
+   * Read a snapshot from the given input and return a cache builder
+   * for the templates it contains.
+   *
+   * The builder uses the template strings from the snapshot; set the
+   * filters, flags, and other options on the builder before building
+   * the cache.
+   *
+   * The input is read to the end, and the checksum is verified before
+   * the templates are decoded.
+   *
+   * @param in Input stream.
+   *
+   * @return Cache builder.
+   *
+   * @throws IOException If the snapshot is invalid or cannot be read.
+   */
+  public static Cache.Builder read(final InputStream in) throws IOException {
+    final byte buf[] = readAll(in);
+    final int len = buf.length - 8;
+    if (len < 8)
+      throw new IOException("truncated snapshot");
+
+    final DataInputStream is = new DataInputStream(new ByteArrayInputStream(buf, 0, len));
+
+    // check header
+    if (is.readInt() != MAGIC)
+      throw new IOException("not a template snapshot");
+    final int version = is.readInt();
+    if (version != VERSION)
+      throw new IOException("unsupported snapshot version: " + version);
+
+    // verify checksum
+    final CRC32 crc = new CRC32();
+    crc.update(buf, 0, len);
+    final long expected = new DataInputStream(new ByteArrayInputStream(buf, len, 8)).readLong();
+    if (crc.getValue() != expected)
+      throw new IOException("snapshot checksum mismatch");
+
+    // read string table
+    final String strings[] = new String[readCount(is)];
+    for (int i = 0; i < strings.length; i++) {
+      final byte bytes[] = new byte[readCount(is)];
+      is.readFully(bytes);
+      strings[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // read templates
+    final int num_templates = readCount(is);
+    final Map<String, String> sources = new LinkedHashMap<String, String>();
+    final Map<String, Entry> entries = new HashMap<String, Entry>();
+    for (int i = 0; i < num_templates; i++) {
+      final String key = string(strings, readInt(is));
+      final String source = string(strings, readInt(is));
+
+      final String keys[] = new String[readCount(is)];
+      for (int j = 0; j < keys.length; j++)
+        keys[j] = string(strings, readInt(is));
+
+      final Action actions[] = new Action[readCount(is)];
+      for (int j = 0; j < actions.length; j++) {
+        final int tag = is.readUnsignedByte();
+        if (tag == TEXT) {
+          actions[j] = new TextAction(string(strings, readInt(is)));
+        } else if (tag == FILTER) {
+          final String name = string(strings, readInt(is));
+          final int slot = readInt(is) - 1;
+          final FilterReference filters[] = new FilterReference[readCount(is)];
+          for (int k = 0; k < filters.length; k++) {
+            final String filter = string(strings, readInt(is));
+            final String args[] = new String[readCount(is)];
+            for (int l = 0; l < args.length; l++)
+              args[l] = string(strings, readInt(is));
+            filters[k] = new FilterReference(filter, args);
+          }
+
+          actions[j] = new FilterAction(name, slot, filters);
+        } else {
+          throw new IOException("invalid snapshot action: " + tag);
+        }
+      }
+
+      sources.put(key, source);
+      entries.put(key, new Entry(source, actions, Arrays.asList(keys)));
+    }
+
+    if (is.available() > 0)
+      throw new IOException("invalid snapshot: trailing data");
+
+    return new Cache.Builder(sources).parsed(entries);
+  }
+
+  /**
+   * Add string to string table.
+   */
+  private static void intern(
+    final Map<String, Integer> ids,
+    final List<String> strings,
+    final String s
+  ) {
+    if (!ids.containsKey(s)) {
+      ids.put(s, strings.size());
+      strings.add(s);
+    }
+  }
+
+  /**
+   * Get string from string table.
+   */
+  private static String string(final String strings[], final int id) throws IOException {
+    if (id >= strings.length)
+      throw new IOException("invalid snapshot string: " + id);
+    return strings[id];
+  }
+
+  /**
+   * Write unsigned variable length integer.
+   */
+  private static void writeInt(final DataOutputStream os, final int val) throws IOException {
+    int v = val;
+    while ((v & ~0x7f) != 0) {
+      os.writeByte((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+
+    os.writeByte(v);
+  }
+
+  /**
+   * Read the given input to the end.
+   */
+  private static byte[] readAll(final InputStream in) throws IOException {
+    final ByteArrayOutputStream r = new ByteArrayOutputStream();
+    final byte chunk[] = new byte[8192];
+
+    int len;
+    while ((len = in.read(chunk)) != -1)
+      r.write(chunk, 0, len);
+
+    return r.toByteArray();
+  }
+
+  /**
+   * Read a count of items (or bytes), each of which takes at least one
+   * byte, and check it against the number of bytes remaining.
+   */
+  private static int readCount(final DataInputStream is) throws IOException {
+    final int r = readInt(is);
+    if (r > is.available())
+      throw new IOException("invalid snapshot count: " + r);
+    return r;
+  }
+
+  /**
+   * Read unsigned variable length integer.
+   */
+  private static int readInt(final DataInputStream is) throws IOException {
+    int r = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      final int b = is.readUnsignedByte();
+      r |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (r < 0)
+          throw new IOException("invalid snapshot integer");
+        return r;
+      }
+    }
+
+    throw new IOException("invalid snapshot integer");
+  }
+};
@@ -0,0 +1,264 @@
+package org.pablotron.luigi;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Parser;
+import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Single-pass template parser and renderer which reads the template
+ * from a Reader and writes the result as it goes.
+ *
+ * Text is copied to the output in chunks, and each action is parsed
+ * and run as soon as its closing brace is read, so memory use is
+ * bounded by MAX_ACTION_LENGTH rather than the size of the template.
+ *
+ * The language is the same as Parser: an action which fails to match
+ * drops its percent sign, and the text after the percent sign is
+ * scanned again.  The one difference is that actions longer than
+ * MAX_ACTION_LENGTH characters are not recognized: the percent sign is
+ * dropped and the text read so far is copied as is, without scanning
+ * it again.
+ */
+final class StreamParser {
+  /**
+   * Size of read buffer and maximum size of buffered text.
+   */
+  private static final int CHUNK_SIZE = 8192;
+
+  /**
+   * Maximum length of an action, including the percent sign and
+   * braces.
+   */
+  static final int MAX_ACTION_LENGTH = 8192;
+
+  /**
+   * Action scanner results.
+   */
+  private static final int MATCH = 0;
+  private static final int FAIL = 1;
+  private static final int TOO_LONG = 2;
+  private static final int END = 3;
+
+  /**
+   * Action scanner states.  See Parser#scan_action().
+   */
+  private static final int PERCENT = 0;
+  private static final int OPEN = 1;
+  private static final int KEY = 2;
+  private static final int AFTER_KEY = 3;
+  private static final int PIPE = 4;
+  private static final int TOKEN = 5;
+  private static final int AFTER_TOKEN = 6;
+
+  private final Reader in;
+
+  /**
+   * Input buffer.  Characters from the mark onward are kept when the
+   * buffer is refilled, so a failed action can be scanned again.
+   */
+  private final char[] buf = new char[MAX_ACTION_LENGTH + CHUNK_SIZE];
+  private int pos = 0;
+  private int end = 0;
+  private int mark = -1;
+
+  /**
+   * Set once an action scan reaches the end of input.  The rest of the
+   * input has no closing brace, so no later action can match.
+   */
+  private boolean no_close = false;
+
+  /**
+   * Create a stream parser for the given input.
+   *
+   * @param in Template input.
+   */
+  private StreamParser(final Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Parse the template read from the given input, run it with the
+   * given arguments and filters, and write the result to the given
+   * output.
+   *
+   * @param in Template input.
+   * @param args Template arguments.
+   * @param filters Template filters.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occurs while running the template.
+   * @throws IOException If an error occurs while reading the template
+   * or writing the output.
+   */
+  static void run(
+    final Reader in,
+    final Map<String, String> args,
+    final Map<String, Filter.Handler> filters,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    new StreamParser(in).run(args, filters, out);
+  }
+
+  /**
+   * Parse and run the template.
+   */
+  private void run(
+    final Map<String, String> args,
+    final Map<String, Filter.Handler> filters,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    final StringBuilder text = new StringBuilder();
+
+    int c;
+    while ((c = read()) >= 0) {
+      if (c != '%') {
+        // buffer text
+        text.append((char) c);
+        if (text.length() >= CHUNK_SIZE) {
+          out.append(text);
+          text.setLength(0);
+        }
+
+        continue;
+      }
+
+      // drop percent signs which cannot start an action
+      if (no_close)
+        continue;
+
+      mark = pos - 1;
+      final int r = scan();
+      final int start = mark;
+      mark = -1;
+
+      switch (r) {
+      case MATCH:
+        // write text, then run action
+        if (text.length() > 0) {
+          out.append(text);
+          text.setLength(0);
+        }
+
+        final Action a = Parser.parse_action(new String(buf, start, pos - start));
+        if (a == null)
+          throw new IllegalStateException("scanned invalid action");
+        a.run(filters, args, out);
+        break;
+      case TOO_LONG:
+        // drop percent sign and copy the rest as text
+        text.append(buf, start + 1, pos - start - 1);
+        break;
+      default:
+        // drop percent sign and scan remaining characters again
+        pos = start + 1;
+      }
+    }
+
+    // write trailing text
+    if (text.length() > 0)
+      out.append(text);
+  }
+
+  /**
+   * Read the rest of an action.
+   *
+   * Stops at the closing brace of the action, at the first character
+   * which cannot be part of the action, once the action is longer than
+   * MAX_ACTION_LENGTH, or at the end of input.
+   *
+   * @return MATCH if a complete action was read, TOO_LONG if the action
+   * is too long, END at the end of input, or FAIL otherwise.
+   *
+   * @throws IOException If an error occurs while reading.
+   */
+  private int scan() throws IOException {
+    int state = PERCENT;
+
+    int c;
+    while ((c = read()) >= 0) {
+      if (pos - mark > MAX_ACTION_LENGTH)
+        return TOO_LONG;
+
+      final boolean space = Parser.is_space((char) c);
+      final boolean token = !space && c != '|' && c != '}';
+
+      switch (state) {
+      case PERCENT:
+        if (c != '{')
+          return FAIL;
+        state = OPEN;
+        break;
+      case OPEN:
+        if (token)
+          state = KEY;
+        else if (!space)
+          return FAIL;
+        break;
+      case KEY:
+      case TOKEN:
+      case AFTER_TOKEN:
+        if (c == '}')
+          return MATCH;
+        else if (c == '|')
+          state = PIPE;
+        else if (space)
+          state = (state == KEY) ? AFTER_KEY : AFTER_TOKEN;
+        else if (state == AFTER_TOKEN)
+          state = TOKEN;
+        break;
+      case AFTER_KEY:
+        if (c == '}')
+          return MATCH;
+        else if (c == '|')
+          state = PIPE;
+        else if (!space)
+          return FAIL;
+        break;
+      case PIPE:
+        if (token)
+          state = TOKEN;
+        else if (!space)
+          return FAIL;
+        break;
+      }
+    }
+
+    // end of input: every state stops at a closing brace, so there is
+    // none left
+    no_close = true;
+    return END;
+  }
+
+  /**
+   * Read the next character.
+   *
+   * @return Character, or -1 at the end of input.
+   *
+   * @throws IOException If an error occurs while reading.
+   */
+  private int read() throws IOException {
+    while (pos == end) {
+      // keep marked characters, discard the rest
+      final int keep = (mark >= 0) ? mark : end;
+      if (keep > 0) {
+        System.arraycopy(buf, keep, buf, 0, end - keep);
+        pos -= keep;
+        end -= keep;
+        if (mark >= 0)
+          mark = 0;
+      }
+
+      final int len = in.read(buf, end, buf.length - end);
+      if (len < 0)
+        return -1;
+      end += len;
+    }
+
+    return buf[pos++];
+  }
+};
@@ -1,13 +1,41 @@
 package org.pablotron.luigi;
 
 import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
+import org.pablotron.luigi.ArgumentResolver;
+import org.pablotron.luigi.Batch;
 import org.pablotron.luigi.Parser;
 import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.FilterReference;
+import org.pablotron.luigi.Literals;
+import org.pablotron.luigi.StreamParser;
 import org.pablotron.luigi.errors.LuigiError;
 import org.pablotron.luigi.errors.LuigiError;
 import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.actions.FilterAction;
+import org.pablotron.luigi.actions.TextAction;
+import org.pablotron.luigi.compiler.Compiler;
+import org.pablotron.luigi.compiler.Renderer;
+import org.pablotron.luigi.metrics.Listener;
+import org.pablotron.luigi.metrics.TimedFilters;
 
 /**
  * Template class.
@@ -18,9 +46,327 @@ public final class Template {
    */
   public static final String VERSION = "0.4.2";
 
+  /**
+   * Link flag.
+   *
+   * Resolve filters when the template is created instead of each time
+   * the template is run.  An unknown filter raises an
+   * UnknownFilterError from the constructor, and later changes to the
+   * filter map do not affect the template.
+   */
+  public static final int LINK = 1;
+
+  /**
+   * Compile flag.
+   *
+   * Compile the template into a renderer class when the template is
+   * created.  Implies LINK.  Compiling is slower than parsing, but the
+   * compiled template runs faster, so this flag is best suited to
+   * templates which are cached and run many times.
+   *
+   * Templates which cannot be compiled are interpreted instead.
+   */
+  public static final int COMPILE = 2;
+
+  /**
+   * Compact flag.
+   *
+   * Store the template in a compact flat form when the template is
+   * created: one string holding all text literals and an array of
+   * opcodes, run by a single loop.  Implies LINK.  Compact templates
+   * use much less heap than parsed actions, which suits caches that
+   * hold many templates.
+   */
+  public static final int COMPACT = 4;
+
+  /**
+   * Discard source flag.
+   *
+   * Do not keep the template string.  Only has an effect with the
+   * COMPACT flag; toString() then rebuilds an equivalent template
+   * string from the compact form.
+   */
+  public static final int DISCARD_SOURCE = 8;
+
+  /**
+   * Handler for the results of a batch run.
+   */
+  public interface RowHandler {
+    /**
+     * Called with the result of each row of a batch run.
+     *
+     * The result buffer is reused for the next row, so it is only
+     * valid until this method returns.
+     *
+     * @param args Template arguments for this row.
+     * @param result Template result for this row.
+     *
+     * @throws LuigiError If an error occurs while handling this result.
+     * @throws IOException If an error occurs while writing this result.
+     */
+    public void handle(
+      Map<String, String> args,
+      CharSequence result
+    ) throws LuigiError, IOException;
+  };
+
+  /**
+   * Template builder.
+   */
+  public static final class Builder {
+    private final String template;
+    private Map<String, Filter.Handler> filters = Filter.FILTERS;
+    private int flags = 0;
+    private String name = null;
+    private Listener listener = null;
+    private Literals literals = null;
+
+    /**
+     * Parsed actions and schema keys, or null to parse the template
+     * string.
+     */
+    private Action actions[] = null;
+    private List<String> keys = null;
+
+    /**
+     * Create a new Template builder.
+     *
+     * @param template Template string.
+     */
+    public Builder(final String template) {
+      this.template = template;
+    }
+
+    /**
+     * Set the filter map.  Defaults to Filter.FILTERS.
+     *
+     * @param filters Map of filter names to filter handlers.
+     *
+     * @return This builder.
+     */
+    public Builder filters(final Map<String, Filter.Handler> filters) {
+      this.filters = filters;
+      return this;
+    }
+
+    /**
+     * Set the template flags (e.g. Template.LINK).  Defaults to 0.
+     *
+     * @param flags Bitmask of template flags.
+     *
+     * @return This builder.
+     */
+    public Builder flags(final int flags) {
+      this.flags = flags;
+      return this;
+    }
+
+    /**
+     * Share text literals with other templates through the given pool.
+     * Set by Cache.
+     *
+     * @param literals Text literal pool.
+     *
+     * @return This builder.
+     */
+    Builder literals(final Literals literals) {
+      this.literals = literals;
+      return this;
+    }
+
+    /**
+     * Set the template name reported to the listener (e.g. the cache
+     * key).  Defaults to null.
+     *
+     * @param name Template name.
+     *
+     * @return This builder.
+     */
+    public Builder name(final String name) {
+      this.name = name;
+      return this;
+    }
+
+    /**
+     * Set the instrumentation listener.  Defaults to null, which
+     * disables instrumentation.
+     *
+     * @param listener Instrumentation listener.
+     *
+     * @return This builder.
+     */
+    public Builder listener(final Listener listener) {
+      this.listener = listener;
+      return this;
+    }
+
+    /**
+     * Use the given parsed actions instead of parsing the template
+     * string.
+     *
+     * @param actions Unlinked actions of the template string.
+     * @param keys Schema keys, in slot order.
+     *
+     * @return This builder.
+     */
+    Builder parsed(final Action actions[], final List<String> keys) {
+      this.actions = actions;
+      this.keys = keys;
+      return this;
+    }
+
+    /**
+     * Create a new Template from this builder.
+     *
+     * @return New Template instance.
+     *
+     * @throws UnknownFilterError If the LINK, COMPILE, or COMPACT flag is set and a filter specified in the template does not exist.
+     */
+    public Template build() throws LuigiError {
+      return new Template(this);
+    }
+  };
+
+  /**
+   * Empty list of filter names, shared by templates without filters.
+   */
+  private static final String NO_FILTERS[] = new String[0];
+
+  /**
+   * Source of template generation numbers.
+   */
+  private static final AtomicLong GENERATIONS = new AtomicLong();
+
+  /**
+   * Template string, or null if the source was discarded.
+   */
   private final String template;
+
+  /**
+   * Length of template string.
+   */
+  private final int length;
+
+  /**
+   * Parsed actions, or null if the template is compact.
+   */
   private final Action actions[];
+
+  /**
+   * Compact form of this template, or null.
+   */
+  private final Compact compact;
+
+  /**
+   * Names of filters used by this template, in order of first use.
+   * Stored as an array to keep compact templates small.
+   */
+  private final String filterNames[];
+
+  /**
+   * False if this template uses a volatile filter.
+   */
+  private final boolean deterministic;
+
+  /**
+   * Generation number, unique to this template instance.
+   */
+  private final long generation = GENERATIONS.incrementAndGet();
+
   private final Map<String, Filter.Handler> filters;
+  private final int flags;
+  private final Schema schema;
+  private final Renderer renderer;
+  private final String name;
+
+  /**
+   * Instrumentation listener, or null if instrumentation is disabled.
+   */
+  private final Listener listener;
+
+  /**
+   * Create a new template from the given builder.
+   *
+   * @param b Template builder.
+   *
+   * @throws UnknownFilterError If the LINK, COMPILE, or COMPACT flag is set and a filter specified in the template does not exist.
+   */
+  private Template(final Builder b) throws LuigiError {
+    final Object ctx = (b.listener != null) ? b.listener.begin(Listener.Kind.PARSE) : null;
+    final long t0 = (b.listener != null) ? System.nanoTime() : 0;
+    final Action actions[];
+
+    this.length = b.template.length();
+    this.flags = b.flags;
+    this.name = b.name;
+    this.listener = b.listener;
+
+    // time filter calls if instrumentation is enabled
+    this.filters = (listener != null) ? new TimedFilters(b.filters, name, listener) : b.filters;
+
+    if (b.actions != null) {
+      // use parsed actions (copied, since linking replaces them)
+      actions = Parser.coalesce(Arrays.asList(b.actions));
+      this.schema = new Schema(new ArrayList<String>(b.keys));
+    } else {
+      final LinkedHashMap<String, Integer> slots = new LinkedHashMap<String, Integer>();
+      actions = Parser.parse_template(b.template, slots);
+      this.schema = new Schema(new ArrayList<String>(slots.keySet()));
+    }
+
+    // collect filter names
+    this.filterNames = filterNames(actions);
+
+    // check for volatile filters
+    boolean deterministic = true;
+    for (final String n: filterNames) {
+      if (Filter.isVolatile(b.filters.get(n)))
+        deterministic = false;
+    }
+    this.deterministic = deterministic;
+
+    // share text literals (compact templates copy their text into one
+    // string, so they are only shared if the template is not flattened)
+    if (b.literals != null && (flags & COMPACT) == 0)
+      intern(actions, b.literals);
+
+    if ((flags & (LINK | COMPILE | COMPACT)) != 0) {
+      // resolve filters
+      for (int i = 0; i < actions.length; i++)
+        actions[i] = actions[i].link(filters);
+    }
+
+    // compile actions (null if template cannot be compiled)
+    this.renderer = ((flags & COMPILE) != 0) ? Compiler.compile(actions) : null;
+
+    // flatten actions (null if template cannot be flattened)
+    this.compact = ((flags & COMPACT) != 0) ? Compact.of(actions, schema) : null;
+    if (b.literals != null && (flags & COMPACT) != 0 && compact == null)
+      intern(actions, b.literals);
+    this.actions = (compact != null) ? null : actions;
+    this.template = (compact != null && (flags & DISCARD_SOURCE) != 0) ? null : b.template;
+
+    if (listener != null)
+      listener.parsed(ctx, name, length, System.nanoTime() - t0);
+  }
+
+  /**
+   * Create a new template with the given string, filter set, and
+   * flags.
+   *
+   * @param template Template string.
+   * @param filters Map of filter names to filter handlers.
+   * @param flags Bitmask of template flags (e.g. Template.LINK).
+   *
+   * @throws UnknownFilterError If the LINK, COMPILE, or COMPACT flag is set and a filter specified in the template does not exist.
+   */
+  public Template(
+    final String template,
+    final Map<String, Filter.Handler> filters,
+    final int flags
+  ) throws LuigiError {
+    this(new Builder(template).filters(filters).flags(flags));
+  }
 
   /**
    * Create a new template with the given string and filter set.
@@ -32,9 +378,7 @@ public final class Template {
     final String template,
     final Map<String, Filter.Handler> filters
   ) throws LuigiError {
-    this.template = template;
-    this.filters = filters;
-    this.actions = Parser.parse_template(template);
+    this(template, filters, 0);
   }
 
   /**
@@ -47,6 +391,121 @@ public final class Template {
     this(template, Filter.FILTERS);
   }
 
+  /**
+   * Get the name of this template.
+   *
+   * @return Template name, or null.
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * Get the flags this template was created with.
+   *
+   * @return Bitmask of template flags.
+   */
+  public int flags() {
+    return flags;
+  }
+
+  /**
+   * Was this template compiled into a renderer class?
+   *
+   * @return True if the COMPILE flag was set and the template was
+   * compiled, and false otherwise.
+   */
+  public boolean isCompiled() {
+    return renderer != null;
+  }
+
+  /**
+   * Get the key schema of this template.
+   *
+   * @return Template schema.
+   */
+  public Schema schema() {
+    return schema;
+  }
+
+  /**
+   * Get the argument keys referenced by this template.
+   *
+   * @return Unmodifiable list of keys, in order of first use.
+   */
+  public List<String> keys() {
+    return schema.keys();
+  }
+
+  /**
+   * Get the names of the filters used by this template.
+   *
+   * @return Unmodifiable set of filter names, in order of first use.
+   */
+  public Set<String> filters() {
+    return Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(filterNames)));
+  }
+
+  /**
+   * Replace the text actions in the given array with shared copies from
+   * the given pool.
+   *
+   * @param actions Actions.
+   * @param literals Text literal pool.
+   */
+  private static void intern(final Action actions[], final Literals literals) {
+    for (int i = 0; i < actions.length; i++) {
+      if (actions[i] instanceof TextAction)
+        actions[i] = literals.intern((TextAction) actions[i]);
+    }
+  }
+
+  /**
+   * Get the names of the filters used by the given actions.
+   *
+   * @param actions Parsed actions.
+   *
+   * @return Array of distinct filter names, in order of first use.
+   */
+  static String[] filterNames(final Action actions[]) {
+    final Set<String> r = new LinkedHashSet<String>();
+    for (final Action a: actions) {
+      if (a instanceof FilterAction) {
+        for (final FilterReference f: ((FilterAction) a).filters())
+          r.add(f.name);
+      }
+    }
+
+    return r.isEmpty() ? NO_FILTERS : r.toArray(new String[r.size()]);
+  }
+
+  /**
+   * Does this template always produce the same output for the same
+   * values of its argument keys?
+   *
+   * Checked against the filter map when the template is created.
+   *
+   * @return False if this template uses a filter declared
+   * Filter.Volatile, and true otherwise.
+   */
+  public boolean isDeterministic() {
+    return deterministic;
+  }
+
+  /**
+   * Get the generation number of this template.
+   *
+   * Each template instance has a distinct generation number, so a
+   * recompiled template never matches output cached for the previous
+   * version, and the output cache does not need to hold a reference to
+   * the template.
+   *
+   * @return Generation number.
+   */
+  long generation() {
+    return generation;
+  }
+
   /**
    * Run this template with given arguments, then return the result as a
    * String.
@@ -59,10 +518,7 @@ public final class Template {
    */
   public String run(final Map<String, String> args) throws LuigiError {
     final StringBuilder r = new StringBuilder();
-
-    for (Action a: this.actions)
-      r.append(a.run(this.filters, args));
-
+    render(args, r);
     return r.toString();
   }
 
@@ -70,6 +526,10 @@ public final class Template {
    * Run this template with given arguments, and pass each chunk of
    # the result to the given output object.
    *
+   * A compiled template writes the result directly to a StringBuilder
+   * output, and writes the result to any other output as a single
+   * chunk.
+   *
    * @param args Template arguments.
    * @param out Appendable output interface.
    *
@@ -81,16 +541,402 @@ public final class Template {
     final Map<String, String> args,
     final Appendable out
   ) throws LuigiError, IOException {
-    for (Action a: this.actions) {
-      out.append(a.run(this.filters, args));
+    execute(args, null, out);
+  }
+
+  /**
+   * Run this template with the arguments in the given row, then return
+   * the result as a String.
+   *
+   * If the row was created from the schema of this template, values
+   * are read directly from their slots.  Otherwise the row is used as
+   * an argument map.
+   *
+   * @param row Template arguments.
+   *
+   * @throws UnknownKeyError If a key specified in the template is not set.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   */
+  public String run(final Row row) throws LuigiError {
+    final StringBuilder r = new StringBuilder();
+
+    try {
+      run(row, r);
+    } catch (IOException e) {
+      // never raised by StringBuilder
+      throw new UncheckedIOException(e);
+    }
+
+    return r.toString();
+  }
+
+  /**
+   * Run this template with the arguments in the given row, and pass
+   * each chunk of the result to the given output object.
+   *
+   * If the row was created from the schema of this template, values
+   * are read directly from their slots.  Otherwise the row is used as
+   * an argument map.
+   *
+   * @param row Template arguments.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template is not set.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   */
+  public void run(
+    final Row row,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    // read slots only if row was created from this schema
+    execute(row, (row.schema() == schema) ? row : null, out);
+  }
+
+  /**
+   * Run this template with arguments from the given resolver, then
+   * return the result as a String.
+   *
+   * @param args Argument resolver.
+   *
+   * @throws UnknownKeyError If a key specified in the template cannot be resolved.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   *
+   * @see #run(ArgumentResolver, Appendable)
+   */
+  public String run(final ArgumentResolver args) throws LuigiError {
+    final StringBuilder r = new StringBuilder();
+
+    try {
+      run(args, r);
+    } catch (IOException e) {
+      // never raised by StringBuilder
+      throw new UncheckedIOException(e);
+    }
+
+    return r.toString();
+  }
+
+  /**
+   * Run this template with arguments from the given resolver, and pass
+   * each chunk of the result to the given output object.
+   *
+   * Each key is resolved when the template first needs it, at most
+   * once per run, and keys which the template does not reference are
+   * never resolved.
+   *
+   * @param args Argument resolver.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template cannot be resolved.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   */
+  public void run(
+    final ArgumentResolver args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    final Row row = schema.row(args);
+    execute(row, row, out);
+  }
+
+  /**
+   * Run this template and report the run to the listener, if any.
+   *
+   * @param args Template arguments.
+   * @param row Template arguments bound to the schema of this template, or null.
+   * @param out Appendable output interface.
+   *
+   * @throws LuigiError If an error occurs while running this template.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  private void execute(
+    final Map<String, String> args,
+    final Row row,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    if (listener == null) {
+      emit(args, row, out);
+      return;
+    }
+
+    final Object ctx = listener.begin(Listener.Kind.RENDER);
+    final long t0 = System.nanoTime();
+    final int num_chars;
+
+    if (out instanceof StringBuilder) {
+      // measure output directly
+      final StringBuilder sb = (StringBuilder) out;
+      final int start = sb.length();
+      emit(args, row, sb);
+      num_chars = sb.length() - start;
+    } else {
+      // count output
+      final CountingAppendable c = new CountingAppendable(out);
+      emit(args, row, c);
+      num_chars = c.count();
+    }
+
+    listener.rendered(ctx, name, length, num_chars, System.nanoTime() - t0);
+  }
+
+  /**
+   * Run this template and write the result to the given output.
+   *
+   * @param args Template arguments.
+   * @param row Template arguments bound to the schema of this template, or null.
+   * @param out Appendable output interface.
+   *
+   * @throws LuigiError If an error occurs while running this template.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  private void emit(
+    final Map<String, String> args,
+    final Row row,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    if (row == null && renderer != null) {
+      if (out instanceof StringBuilder) {
+        renderer.render(args, (StringBuilder) out);
+      } else {
+        final StringBuilder r = new StringBuilder();
+        renderer.render(args, r);
+        out.append(r);
+      }
+    } else if (compact != null) {
+      compact.run(args, row, out);
+    } else if (row != null) {
+      for (Action a: this.actions)
+        a.run(this.filters, row, out);
+    } else {
+      for (Action a: this.actions)
+        a.run(this.filters, args, out);
+    }
+  }
+
+  /**
+   * Run this template once for each argument map in the given rows,
+   * and write the results to the given output.
+   *
+   * Each row is rendered into one buffer which is reused for the whole
+   * batch, so the output is written with one call per row and memory
+   * use does not grow with the number of rows.
+   *
+   * @param rows Template arguments for each row.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   */
+  public void runAll(
+    final Iterable<? extends Map<String, String>> rows,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    runAll(rows, null, out);
+  }
+
+  /**
+   * Run this template once for each argument map in the given rows,
+   * and write the results to the given output, separated by the given
+   * separator.
+   *
+   * Each row is rendered into one buffer which is reused for the whole
+   * batch, so the output is written with one call per row and memory
+   * use does not grow with the number of rows.
+   *
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   */
+  public void runAll(
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    final StringBuilder buf = new StringBuilder();
+    boolean first = true;
+
+    for (final Map<String, String> args: rows) {
+      buf.setLength(0);
+
+      // prepend separator to all but the first row
+      if (!first && separator != null)
+        buf.append(separator);
+      first = false;
+
+      render(args, buf);
+      out.append(buf);
+    }
+  }
+
+  /**
+   * Run this template once for each argument map in the given rows,
+   * and pass each result to the given row handler.
+   *
+   * Each row is rendered into one buffer which is reused for the whole
+   * batch, so the result passed to the handler is only valid until the
+   * handler returns.
+   *
+   * @param rows Template arguments for each row.
+   * @param handler Row result handler.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   */
+  public void runAll(
+    final Iterable<? extends Map<String, String>> rows,
+    final RowHandler handler
+  ) throws LuigiError, IOException {
+    final StringBuilder buf = new StringBuilder();
+
+    for (final Map<String, String> args: rows) {
+      buf.setLength(0);
+      render(args, buf);
+      handler.handle(args, buf);
     }
   }
 
+  /**
+   * Run this template once for each argument map in the given rows on
+   * the common ForkJoinPool, and write the results to the given output
+   * in row order, separated by the given separator.
+   *
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   *
+   * @see #runParallel(Iterable, CharSequence, Appendable, Executor, int)
+   */
+  public void runParallel(
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    runParallel(rows, separator, out, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Run this template once for each argument map in the given rows on
+   * the given executor, and write the results to the given output in
+   * row order, separated by the given separator.
+   *
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   * @param executor Executor used to render rows.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   *
+   * @see #runParallel(Iterable, CharSequence, Appendable, Executor, int)
+   */
+  public void runParallel(
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out,
+    final Executor executor
+  ) throws LuigiError, IOException {
+    runParallel(rows, separator, out, executor, Batch.DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Run this template once for each argument map in the given rows on
+   * the given executor, and write the results to the given output in
+   * row order, separated by the given separator.
+   *
+   * Rows are read on the calling thread and split into chunks of the
+   * given size.  Each chunk is rendered into its own buffer on the
+   * executor, and finished chunks are written to the output on the
+   * calling thread in the original row order.  The number of chunks in
+   * flight is bounded, so memory use does not grow with the number of
+   * rows.
+   *
+   * Argument maps are read by worker threads after the iterator has
+   * returned them, so the rows must not reuse or modify a map once it
+   * has been returned.  Filters used by the template must be
+   * thread-safe.
+   *
+   * @param rows Template arguments for each row.
+   * @param separator Separator written between rows, or null.
+   * @param out Appendable output interface.
+   * @param executor Executor used to render rows.
+   * @param chunk_size Number of rows per chunk.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   */
+  public void runParallel(
+    final Iterable<? extends Map<String, String>> rows,
+    final CharSequence separator,
+    final Appendable out,
+    final Executor executor,
+    final int chunk_size
+  ) throws LuigiError, IOException {
+    Batch.run(this, rows, separator, out, executor, chunk_size);
+  }
+
+  /**
+   * Run this template with the given arguments and append the result
+   * to the given buffer.
+   *
+   * @param args Template arguments.
+   * @param buf Output buffer.
+   *
+   * @throws LuigiError If an error occurs while running this template.
+   */
+  void render(
+    final Map<String, String> args,
+    final StringBuilder buf
+  ) throws LuigiError {
+    try {
+      run(args, buf);
+    } catch (IOException e) {
+      // never raised by StringBuilder
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Get the length of the original template string.
+   *
+   * @return Length of template string.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Was this template stored in compact form?
+   *
+   * @return True if the COMPACT flag was set and the template was
+   * flattened, and false otherwise.
+   */
+  public boolean isCompact() {
+    return compact != null;
+  }
+
   /**
    * Return the original template string for this Template instance.
+   *
+   * If the source was discarded (see DISCARD_SOURCE), an equivalent
+   * template string is rebuilt from the compact form.
    */
   public String toString() {
-    return this.template;
+    return (template != null) ? template : compact.toString();
   }
 
   /**
@@ -178,4 +1024,93 @@ public final class Template {
     final Template t = new Template(template, filters);
     t.run(args, out);
   }
+
+  /**
+   * Parse and run the template read from the given input with the
+   * given arguments, using the default filter set, and write the
+   * result to the given output.
+   *
+   * @param template Template input.
+   * @param args Template arguments.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   * @throws IOException If an error occurs while reading the template or writing the output.
+   *
+   * @see #run(Reader, Map, Map, Appendable)
+   */
+  public static void run(
+    final Reader template,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    run(template, args, Filter.FILTERS, out);
+  }
+
+  /**
+   * Parse and run the template read from the given input with the
+   * given arguments and filters, and write the result to the given
+   * output.
+   *
+   * The template is parsed in a single forward pass, and text and
+   * action results are written to the output as soon as they are
+   * read, so a template of any size is run in bounded memory.  The
+   * result is the same as running the template string, except that
+   * output written before an error is not discarded, and that actions
+   * longer than 8192 characters are copied as text (without their
+   * percent sign) rather than run.
+   *
+   * @param template Template input.
+   * @param args Template arguments.
+   * @param filters Template filters.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   * @throws IOException If an error occurs while reading the template or writing the output.
+   */
+  public static void run(
+    final Reader template,
+    final Map<String, String> args,
+    final Map<String, Filter.Handler> filters,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    StreamParser.run(template, args, filters, out);
+  }
+
+  /**
+   * Parse and run the template read from the given channel with the
+   * given arguments and filters, and write the result to the given
+   * output.  Malformed input is replaced, like new String(bytes,
+   * charset).
+   *
+   * @param template Template channel.
+   * @param charset Template character set.
+   * @param args Template arguments.
+   * @param filters Template filters.
+   * @param out Appendable output interface.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws UnknownFilterError If a filter specified in the template does not exist.
+   * @throws FilterError If a given filter fails.
+   * @throws IOException If an error occurs while reading the template or writing the output.
+   *
+   * @see #run(Reader, Map, Map, Appendable)
+   */
+  public static void run(
+    final ReadableByteChannel template,
+    final Charset charset,
+    final Map<String, String> args,
+    final Map<String, Filter.Handler> filters,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    final CharsetDecoder decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    StreamParser.run(Channels.newReader(template, decoder, -1), args, filters, out);
+  }
 };
@@ -1,9 +1,12 @@
 package org.pablotron.luigi.actions;
 
 import java.util.Map;
+import java.io.IOException;
 
 import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Row;
 import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownFilterError;
 
 /**
  * Parser action.
@@ -23,4 +26,67 @@ public interface Action {
     Map<String, Filter.Handler> filters,
     Map<String, String> args
   ) throws LuigiError;
+
+  /**
+   * Called during template run to expand given action and write the
+   * result to the given output.
+   *
+   * The default implementation appends the result of
+   * run(filters, args).
+   *
+   * @param filters Template filters.
+   * @param args Run argument map.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occurs while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  public default void run(
+    final Map<String, Filter.Handler> filters,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    out.append(run(filters, args));
+  }
+
+  /**
+   * Called during template run to expand given action with the
+   * arguments in the given row and write the result to the given
+   * output.
+   *
+   * The default implementation calls run(filters, args, out) with the
+   * row as the argument map.
+   *
+   * @param filters Template filters.
+   * @param row Run arguments, bound to the schema of the template.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occurs while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  public default void run(
+    final Map<String, Filter.Handler> filters,
+    final Row row,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    run(filters, (Map<String, String>) row, out);
+  }
+
+  /**
+   * Called when a linked template is created to resolve any filters
+   * used by this action.
+   *
+   * The default implementation returns this action unchanged.
+   *
+   * @param filters Template filters.
+   *
+   * @return Linked action.
+   *
+   * @throws UnknownFilterError If a filter used by this action does not exist.
+   */
+  public default Action link(
+    final Map<String, Filter.Handler> filters
+  ) throws LuigiError {
+    return this;
+  }
 };
@@ -1,10 +1,12 @@
 package org.pablotron.luigi.actions;
 
 import java.util.Map;
+import java.io.IOException;
 
 import org.pablotron.luigi.actions.Action;
 import org.pablotron.luigi.FilterReference;
 import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Row;
 import org.pablotron.luigi.errors.LuigiError;
 import org.pablotron.luigi.errors.UnknownFilterError;
 import org.pablotron.luigi.errors.UnknownKeyError;
@@ -18,6 +20,11 @@ public final class FilterAction implements Action {
    */
   private final String key;
 
+  /**
+   * Slot of key in template schema, or -1 if unknown.
+   */
+  private final int slot;
+
   /**
    * Array of filters to apply to value.
    */
@@ -27,13 +34,56 @@ public final class FilterAction implements Action {
    * Create a new FilterAction.
    *
    * @param key Template run argument key.
+   * @param slot Slot of key in template schema, or -1 if unknown.
    * @param filters Array of filter references.
    */
-  public FilterAction(final String key, final FilterReference filters[]) {
+  public FilterAction(
+    final String key,
+    final int slot,
+    final FilterReference filters[]
+  ) {
     this.key = key;
+    this.slot = slot;
     this.filters = filters;
   }
 
+  /**
+   * Create a new FilterAction.
+   *
+   * @param key Template run argument key.
+   * @param filters Array of filter references.
+   */
+  public FilterAction(final String key, final FilterReference filters[]) {
+    this(key, -1, filters);
+  }
+
+  /**
+   * Get value key.
+   *
+   * @return Template run argument key.
+   */
+  public String key() {
+    return this.key;
+  }
+
+  /**
+   * Get slot of key in template schema.
+   *
+   * @return Slot, or -1 if unknown.
+   */
+  public int slot() {
+    return this.slot;
+  }
+
+  /**
+   * Get filter references.
+   *
+   * @return Array of filter references.
+   */
+  public FilterReference[] filters() {
+    return this.filters;
+  }
+
   /**
    * Run this filter action and return the result as a string.
    *
@@ -53,7 +103,7 @@ public final class FilterAction implements Action {
       throw new UnknownKeyError(key);
 
     // reduce value to result
-    String r = args.get(key);
+    CharSequence r = args.get(key);
     for (int i = 0, l = this.filters.length; i < l; i++) {
       // get/check filter
       Filter.Handler f = filters.get(this.filters[i].name);
@@ -61,10 +111,132 @@ public final class FilterAction implements Action {
         throw new UnknownFilterError(this.filters[i].name);
 
       // run filter
-      r = f.filter(r, this.filters[i].args, args);
+      r = Filter.apply(f, r, this.filters[i].args, args);
     }
 
     // return result
-    return r;
+    return (r != null) ? r.toString() : null;
+  }
+
+  /**
+   * Run this filter action and write the result to the given output.
+   *
+   * If the last filter is a Filter.StreamHandler, then it writes its
+   * result directly to the output.
+   *
+   * @param filters Template filters.
+   * @param args Template run arguments.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occured while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  public void run(
+    final Map<String, Filter.Handler> filters,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    // check for key
+    if (!args.containsKey(key))
+      throw new UnknownKeyError(key);
+
+    apply(filters, args.get(key), args, out);
+  }
+
+  /**
+   * Run this filter action with the value in the given row slot and
+   * write the result to the given output.
+   *
+   * @param filters Template filters.
+   * @param row Template run arguments.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occured while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  public void run(
+    final Map<String, Filter.Handler> filters,
+    final Row row,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    // check for key
+    final CharSequence val = (slot >= 0) ? row.value(slot) : row.value(key);
+    if (val == null)
+      throw new UnknownKeyError(key);
+
+    apply(filters, val, row, out);
+  }
+
+  /**
+   * Apply filters to value and write the result to the given output.
+   *
+   * @param filters Template filters.
+   * @param val Value.
+   * @param args Template run arguments.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occured while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  private void apply(
+    final Map<String, Filter.Handler> filters,
+    final CharSequence val,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    // reduce value to result, except for last filter
+    CharSequence r = val;
+    final int last = this.filters.length - 1;
+    for (int i = 0; i < last; i++) {
+      // get/check filter
+      Filter.Handler f = filters.get(this.filters[i].name);
+      if (f == null)
+        throw new UnknownFilterError(this.filters[i].name);
+
+      // run filter
+      r = Filter.apply(f, r, this.filters[i].args, args);
+    }
+
+    if (last < 0) {
+      // no filters
+      out.append(r);
+      return;
+    }
+
+    // get/check last filter
+    final Filter.Handler f = filters.get(this.filters[last].name);
+    if (f == null)
+      throw new UnknownFilterError(this.filters[last].name);
+
+    // run last filter
+    if (f instanceof Filter.StreamHandler) {
+      ((Filter.StreamHandler) f).filter(r, this.filters[last].args, args, out);
+    } else {
+      out.append(Filter.apply(f, r, this.filters[last].args, args));
+    }
+  }
+
+  /**
+   * Resolve the filters of this action with the given filter map.
+   *
+   * @param filters Template filters.
+   *
+   * @return LinkedFilterAction with the resolved filter handlers.
+   *
+   * @throws UnknownFilterError If a filter does not exist.
+   */
+  public Action link(
+    final Map<String, Filter.Handler> filters
+  ) throws LuigiError {
+    final Filter.Handler handlers[] = new Filter.Handler[this.filters.length];
+
+    for (int i = 0, l = this.filters.length; i < l; i++) {
+      // get/check filter
+      handlers[i] = filters.get(this.filters[i].name);
+      if (handlers[i] == null)
+        throw new UnknownFilterError(this.filters[i].name);
+    }
+
+    return new LinkedFilterAction(key, slot, this.filters, handlers);
   }
 };
@@ -0,0 +1,235 @@
+package org.pablotron.luigi.actions;
+
+import java.util.Map;
+import java.io.IOException;
+
+import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.FilterReference;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Row;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+/**
+ * FilterAction with filter handlers resolved when the template is
+ * created rather than when the template is run.
+ */
+public final class LinkedFilterAction implements Action {
+  /**
+   * Value key.
+   */
+  private final String key;
+
+  /**
+   * Slot of key in template schema, or -1 if unknown.
+   */
+  private final int slot;
+
+  /**
+   * Array of filters to apply to value.
+   */
+  private final FilterReference filters[];
+
+  /**
+   * Array of filter handlers, in the same order as filters.
+   */
+  private final Filter.Handler handlers[];
+
+  /**
+   * Last filter handler if it is a Filter.StreamHandler, or null.
+   */
+  private final Filter.StreamHandler stream;
+
+  /**
+   * Create a new LinkedFilterAction.
+   *
+   * @param key Template run argument key.
+   * @param slot Slot of key in template schema, or -1 if unknown.
+   * @param filters Array of filter references.
+   * @param handlers Array of filter handlers.
+   */
+  public LinkedFilterAction(
+    final String key,
+    final int slot,
+    final FilterReference filters[],
+    final Filter.Handler handlers[]
+  ) {
+    this.key = key;
+    this.slot = slot;
+    this.filters = filters;
+    this.handlers = handlers;
+
+    final int last = handlers.length - 1;
+    this.stream = (last >= 0 && handlers[last] instanceof Filter.StreamHandler) ?
+      (Filter.StreamHandler) handlers[last] :
+      null;
+  }
+
+  /**
+   * Get value key.
+   *
+   * @return Template run argument key.
+   */
+  public String key() {
+    return this.key;
+  }
+
+  /**
+   * Get slot of key in template schema.
+   *
+   * @return Slot, or -1 if unknown.
+   */
+  public int slot() {
+    return this.slot;
+  }
+
+  /**
+   * Get filter references.
+   *
+   * @return Array of filter references.
+   */
+  public FilterReference[] filters() {
+    return this.filters;
+  }
+
+  /**
+   * Get filter handlers.
+   *
+   * @return Array of filter handlers, in the same order as filters().
+   */
+  public Filter.Handler[] handlers() {
+    return this.handlers;
+  }
+
+  /**
+   * Run this filter action and return the result as a string.
+   *
+   * @param filters Template filters (ignored).
+   * @param args Template run arguments.
+   *
+   * @return Action result.
+   *
+   * @throws LuigiError If an error occured while running this action.
+   */
+  public String run(
+    final Map<String, Filter.Handler> filters,
+    final Map<String, String> args
+  ) throws LuigiError {
+    // check for key
+    final String val = args.get(key);
+    if (val == null && !args.containsKey(key))
+      throw new UnknownKeyError(key);
+
+    final CharSequence r = reduce(val, handlers.length, args);
+    return (r != null) ? r.toString() : null;
+  }
+
+  /**
+   * Run this filter action and write the result to the given output.
+   *
+   * If the last filter is a Filter.StreamHandler, then it writes its
+   * result directly to the output.
+   *
+   * @param filters Template filters (ignored).
+   * @param args Template run arguments.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occured while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  public void run(
+    final Map<String, Filter.Handler> filters,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    // check for key
+    final String val = args.get(key);
+    if (val == null && !args.containsKey(key))
+      throw new UnknownKeyError(key);
+
+    apply(val, args, out);
+  }
+
+  /**
+   * Run this filter action with the value in the given row slot and
+   * write the result to the given output.
+   *
+   * @param filters Template filters (ignored).
+   * @param row Template run arguments.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occured while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  public void run(
+    final Map<String, Filter.Handler> filters,
+    final Row row,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    // check for key
+    final CharSequence val = (slot >= 0) ? row.value(slot) : row.value(key);
+    if (val == null)
+      throw new UnknownKeyError(key);
+
+    apply(val, row, out);
+  }
+
+  /**
+   * Apply filters to value and write the result to the given output.
+   *
+   * @param val Value.
+   * @param args Template run arguments.
+   * @param out Template output.
+   *
+   * @throws LuigiError If an error occured while running this action.
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  private void apply(
+    final CharSequence val,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws LuigiError, IOException {
+    if (stream == null) {
+      out.append(reduce(val, handlers.length, args));
+    } else {
+      // write result of last filter
+      final int last = handlers.length - 1;
+      final CharSequence r = reduce(val, last, args);
+      stream.filter(r, this.filters[last].args, args, out);
+    }
+  }
+
+  /**
+   * Apply the first <code>num</code> filters to the given value.
+   *
+   * @param val Value.
+   * @param num Number of filters to apply.
+   * @param args Template run arguments.
+   *
+   * @return Filtered value.
+   *
+   * @throws LuigiError If an error occured while running a filter.
+   */
+  private CharSequence reduce(
+    final CharSequence val,
+    final int num,
+    final Map<String, String> args
+  ) throws LuigiError {
+    CharSequence r = val;
+    for (int i = 0; i < num; i++)
+      r = Filter.apply(this.handlers[i], r, this.filters[i].args, args);
+
+    return r;
+  }
+
+  /**
+   * Return this action, which is already linked.
+   *
+   * @param filters Template filters (ignored).
+   *
+   * @return This action.
+   */
+  public Action link(final Map<String, Filter.Handler> filters) {
+    return this;
+  }
+};
@@ -1,6 +1,7 @@
 package org.pablotron.luigi.actions;
 
 import java.util.Map;
+import java.io.IOException;
 
 import org.pablotron.luigi.actions.Action;
 import org.pablotron.luigi.Filter;
@@ -24,6 +25,15 @@ public final class TextAction implements Action {
     this.text = text;
   }
 
+  /**
+   * Get text literal.
+   *
+   * @return Text literal.
+   */
+  public String text() {
+    return this.text;
+  }
+
   /**
    * Run action and return text literal.
    *
@@ -40,5 +50,22 @@ public final class TextAction implements Action {
   ) throws LuigiError {
     return this.text;
   }
+
+  /**
+   * Run action and write text literal to the given output.
+   *
+   * @param filters Template filters (ignored).
+   * @param args Template run arguments (ignored).
+   * @param out Template output.
+   *
+   * @throws IOException If an error occurs while writing to the output.
+   */
+  public void run(
+    final Map<String, Filter.Handler> filters,
+    final Map<String, String> args,
+    final Appendable out
+  ) throws IOException {
+    out.append(this.text);
+  }
 };
 
@@ -0,0 +1,102 @@
+package org.pablotron.luigi.cache;
+
+/**
+ * Snapshot of template cache statistics.
+ */
+public final class CacheStats {
+  /**
+   * Number of requests for templates which were already compiled.
+   */
+  public final long hits;
+
+  /**
+   * Number of requests for templates which had to be compiled.
+   */
+  public final long misses;
+
+  /**
+   * Number of templates evicted from the cache.
+   */
+  public final long evictions;
+
+  /**
+   * Total time spent compiling templates, in nanoseconds.
+   */
+  public final long compileNanos;
+
+  /**
+   * Number of compiled templates in the cache.
+   */
+  public final long size;
+
+  /**
+   * Total weight of the compiled templates in the cache, or -1 if the
+   * cache is unbounded.
+   */
+  public final long weight;
+
+  /**
+   * Create a new statistics snapshot.
+   *
+   * @param hits Number of cache hits.
+   * @param misses Number of cache misses.
+   * @param evictions Number of evicted templates.
+   * @param compileNanos Total compile time, in nanoseconds.
+   * @param size Number of compiled templates.
+   * @param weight Total weight of compiled templates, or -1.
+   */
+  public CacheStats(
+    final long hits,
+    final long misses,
+    final long evictions,
+    final long compileNanos,
+    final long size,
+    final long weight
+  ) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.compileNanos = compileNanos;
+    this.size = size;
+    this.weight = weight;
+  }
+
+  /**
+   * Get the total number of requests.
+   *
+   * @return Sum of hits and misses.
+   */
+  public long requests() {
+    return hits + misses;
+  }
+
+  /**
+   * Get the ratio of hits to requests.
+   *
+   * @return Hit rate between 0.0 and 1.0, or 1.0 if there have been no
+   * requests.
+   */
+  public double hitRate() {
+    final long n = requests();
+    return (n > 0) ? ((double) hits / n) : 1.0;
+  }
+
+  /**
+   * Get the average time spent compiling a template, in nanoseconds.
+   *
+   * @return Average compile time, or 0 if no templates were compiled.
+   */
+  public double averageCompileNanos() {
+    return (misses > 0) ? ((double) compileNanos / misses) : 0.0;
+  }
+
+  /**
+   * Return a string representation of this snapshot.
+   */
+  public String toString() {
+    return String.format(
+      "CacheStats{hits=%d, misses=%d, evictions=%d, compileNanos=%d, size=%d, weight=%d}",
+      hits, misses, evictions, compileNanos, size, weight
+    );
+  }
+};
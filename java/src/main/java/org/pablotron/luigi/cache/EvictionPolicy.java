@@ -0,0 +1,71 @@
+package org.pablotron.luigi.cache;
+
+import java.util.Collection;
+
+/**
+ * Eviction policy for a bounded template Cache.
+ *
+ * Policies track the keys and weights of the compiled templates in a
+ * cache and decide which templates to evict when the total weight
+ * exceeds the capacity of the policy.
+ *
+ * Policies do not need to be thread-safe; the cache serializes all
+ * calls to a policy.
+ */
+public interface EvictionPolicy {
+  /**
+   * Eviction policy factory.
+   */
+  public static interface Factory {
+    /**
+     * Create a new eviction policy.
+     *
+     * @param capacity Maximum total weight.
+     *
+     * @return New eviction policy.
+     */
+    public EvictionPolicy create(long capacity);
+  };
+
+  /**
+   * Called when a newly compiled template is added to the cache.
+   *
+   * Append the keys of any templates which must be evicted to the
+   * given collection.  The key that was just added may be evicted
+   * immediately.
+   *
+   * @param key Template key.
+   * @param weight Template weight.
+   * @param evicted Output collection of evicted template keys.
+   */
+  public void add(String key, long weight, Collection<String> evicted);
+
+  /**
+   * Called when a cached template is requested.
+   *
+   * @param key Template key.
+   */
+  public void access(String key);
+
+  /**
+   * Called when a template is removed from the cache for a reason other
+   * than eviction.
+   *
+   * @param key Template key.
+   */
+  public void remove(String key);
+
+  /**
+   * Get the total weight of all templates tracked by this policy.
+   *
+   * @return Total weight.
+   */
+  public long weight();
+
+  /**
+   * Get the maximum total weight of this policy.
+   *
+   * @return Maximum total weight.
+   */
+  public long capacity();
+};
@@ -0,0 +1,141 @@
+package org.pablotron.luigi.cache;
+
+/**
+ * Count-min sketch of 4-bit access frequencies, used by TinyLfuPolicy.
+ *
+ * Counters are halved periodically so that the sketch tracks recent
+ * popularity rather than all-time popularity.
+ */
+final class FrequencySketch {
+  /**
+   * Number of hash functions (rows).
+   */
+  private static final int DEPTH = 4;
+
+  /**
+   * Maximum counter value.
+   */
+  private static final int MAX_COUNT = 15;
+
+  /**
+   * Per-row hash seeds.
+   */
+  private static final int[] SEEDS = {
+    0x97cb3127, 0xa3b195c5, 0x6c4d9b3d, 0x85ebca6b,
+  };
+
+  private byte[] table = null;
+  private int width = 0;
+  private int additions;
+  private int sampleSize;
+
+  /**
+   * Create a new frequency sketch.
+   */
+  FrequencySketch() {
+    resize(16);
+  }
+
+  /**
+   * Grow the sketch to track at least the given number of entries.
+   * Growing the sketch keeps the existing counts.
+   *
+   * @param n Expected number of entries.
+   */
+  void ensureCapacity(final int n) {
+    if (n > width)
+      resize(n);
+  }
+
+  /**
+   * Get the estimated frequency of the given key.
+   *
+   * @param key Key.
+   *
+   * @return Estimated frequency, between 0 and 15.
+   */
+  int frequency(final String key) {
+    final int h = spread(key.hashCode());
+
+    int r = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++)
+      r = Math.min(r, table[index(h, i)]);
+
+    return r;
+  }
+
+  /**
+   * Increment the estimated frequency of the given key.
+   *
+   * @param key Key.
+   */
+  void increment(final String key) {
+    final int h = spread(key.hashCode());
+
+    boolean changed = false;
+    for (int i = 0; i < DEPTH; i++) {
+      final int ofs = index(h, i);
+      if (table[ofs] < MAX_COUNT) {
+        table[ofs]++;
+        changed = true;
+      }
+    }
+
+    if (changed && ++additions >= sampleSize)
+      reset();
+  }
+
+  /**
+   * Halve all counters.
+   */
+  private void reset() {
+    for (int i = 0; i < table.length; i++)
+      table[i] >>>= 1;
+    additions >>>= 1;
+  }
+
+  /**
+   * Resize table to the next power of two at or above the given width.
+   *
+   * The low bits of a hash's offset in the new table are its offset in
+   * the old table, so each new counter starts with the count of the old
+   * counter it was split from.  Estimates stay upper bounds, and the
+   * frequency history is kept.
+   *
+   * @param n Minimum table width.
+   */
+  private void resize(final int n) {
+    final int new_width = Integer.highestOneBit(Math.max(16, Math.min(n, 1 << 24)) - 1) << 1;
+    if (new_width <= width)
+      return;
+
+    final byte new_table[] = new byte[DEPTH * new_width];
+    if (table != null) {
+      for (int row = 0; row < DEPTH; row++) {
+        for (int i = 0; i < new_width; i++)
+          new_table[row * new_width + i] = table[row * width + (i & (width - 1))];
+      }
+    }
+
+    width = new_width;
+    table = new_table;
+    sampleSize = 10 * width;
+  }
+
+  /**
+   * Get the table offset of the given hash in the given row.
+   */
+  private int index(final int h, final int row) {
+    final int v = (h * SEEDS[row]) >>> 8;
+    return row * width + (v & (width - 1));
+  }
+
+  /**
+   * Scramble hash code bits.
+   */
+  private static int spread(int h) {
+    h ^= h >>> 16;
+    h *= 0x45d9f3b;
+    return h ^ (h >>> 16);
+  }
+};
@@ -0,0 +1,104 @@
+package org.pablotron.luigi.cache;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently used eviction policy.
+ */
+public final class LruPolicy implements EvictionPolicy {
+  /**
+   * Factory for LRU eviction policies.
+   */
+  public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+    public EvictionPolicy create(final long capacity) {
+      return new LruPolicy(capacity);
+    }
+  };
+
+  private final long capacity;
+
+  /**
+   * Map of key to weight, in access order.
+   */
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+  private long weight = 0;
+
+  /**
+   * Create a new LRU eviction policy.
+   *
+   * @param capacity Maximum total weight.
+   */
+  public LruPolicy(final long capacity) {
+    if (capacity < 0)
+      throw new IllegalArgumentException("negative capacity");
+    this.capacity = capacity;
+  }
+
+  /**
+   * Add entry, then evict least-recently used entries until the total
+   * weight is within capacity.
+   *
+   * @param key Template key.
+   * @param weight Template weight.
+   * @param evicted Output collection of evicted template keys.
+   */
+  public void add(
+    final String key,
+    final long weight,
+    final Collection<String> evicted
+  ) {
+    final Long old = entries.put(key, weight);
+    this.weight += weight - ((old != null) ? old : 0);
+
+    // evict least-recently used entries
+    final Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+    while (this.weight > capacity && it.hasNext()) {
+      final Map.Entry<String, Long> e = it.next();
+      this.weight -= e.getValue();
+      evicted.add(e.getKey());
+      it.remove();
+    }
+  }
+
+  /**
+   * Mark entry as most-recently used.
+   *
+   * @param key Template key.
+   */
+  public void access(final String key) {
+    // moves key to the end of the access order
+    entries.get(key);
+  }
+
+  /**
+   * Remove entry.
+   *
+   * @param key Template key.
+   */
+  public void remove(final String key) {
+    final Long old = entries.remove(key);
+    if (old != null)
+      weight -= old;
+  }
+
+  /**
+   * Get total weight of all entries.
+   *
+   * @return Total weight.
+   */
+  public long weight() {
+    return weight;
+  }
+
+  /**
+   * Get maximum total weight.
+   *
+   * @return Maximum total weight.
+   */
+  public long capacity() {
+    return capacity;
+  }
+};
@@ -0,0 +1,101 @@
+package org.pablotron.luigi.cache;
+
+/**
+ * Snapshot of render output cache statistics.
+ */
+public final class OutputCacheStats {
+  /**
+   * Number of renders answered from the output cache.
+   */
+  public final long hits;
+
+  /**
+   * Number of renders which were not in the output cache.
+   */
+  public final long misses;
+
+  /**
+   * Number of renders which bypassed the output cache because the
+   * template uses a volatile filter.
+   */
+  public final long bypasses;
+
+  /**
+   * Number of outputs evicted from the output cache.
+   */
+  public final long evictions;
+
+  /**
+   * Number of outputs which expired.
+   */
+  public final long expirations;
+
+  /**
+   * Number of outputs in the output cache.
+   */
+  public final long size;
+
+  /**
+   * Total weight of the outputs in the output cache, in characters.
+   */
+  public final long weight;
+
+  /**
+   * Create a new statistics snapshot.
+   *
+   * @param hits Number of output cache hits.
+   * @param misses Number of output cache misses.
+   * @param bypasses Number of renders which bypassed the output cache.
+   * @param evictions Number of evicted outputs.
+   * @param expirations Number of expired outputs.
+   * @param size Number of cached outputs.
+   * @param weight Total weight of cached outputs.
+   */
+  public OutputCacheStats(
+    final long hits,
+    final long misses,
+    final long bypasses,
+    final long evictions,
+    final long expirations,
+    final long size,
+    final long weight
+  ) {
+    this.hits = hits;
+    this.misses = misses;
+    this.bypasses = bypasses;
+    this.evictions = evictions;
+    this.expirations = expirations;
+    this.size = size;
+    this.weight = weight;
+  }
+
+  /**
+   * Get the total number of cacheable renders.
+   *
+   * @return Sum of hits and misses.
+   */
+  public long requests() {
+    return hits + misses;
+  }
+
+  /**
+   * Get the ratio of hits to cacheable renders.
+   *
+   * @return Hit rate between 0.0 and 1.0, or 0.0 if there have been no
+   * cacheable renders.
+   */
+  public double hitRate() {
+    final long n = requests();
+    return (n > 0) ? ((double) hits / n) : 0.0;
+  }
+
+  /**
+   * Return a string representation of this snapshot.
+   */
+  public String toString() {
+    return String.format(
+      "OutputCacheStats{hits=%d, misses=%d, bypasses=%d, evictions=%d, expirations=%d, size=%d, weight=%d}",
+      hits, misses, bypasses, evictions, expirations, size, weight
+    );
+  }
+};
@@ -0,0 +1,268 @@
+package org.pablotron.luigi.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Frequency-aware W-TinyLFU eviction policy.
+ *
+ * New templates enter a small LRU admission window.  Templates leaving
+ * the window only displace a template in the main segmented LRU if
+ * they have been requested more often, according to a compact
+ * frequency sketch.  This keeps templates which are requested often
+ * in the cache even when a large number of templates are requested
+ * once, which defeats a plain LRU policy.
+ */
+public final class TinyLfuPolicy implements EvictionPolicy {
+  /**
+   * Factory for W-TinyLFU eviction policies.
+   */
+  public static final EvictionPolicy.Factory FACTORY = new EvictionPolicy.Factory() {
+    public EvictionPolicy create(final long capacity) {
+      return new TinyLfuPolicy(capacity);
+    }
+  };
+
+  /**
+   * Percentage of the capacity used by the admission window.
+   */
+  private static final int WINDOW_PERCENT = 1;
+
+  /**
+   * Percentage of the main segment used by the protected segment.
+   */
+  private static final int PROTECTED_PERCENT = 80;
+
+  /**
+   * Maximum initial frequency sketch size.
+   */
+  private static final int INITIAL_SKETCH_SIZE = 1 << 12;
+
+  private final long capacity;
+  private final long windowCapacity;
+  private final long protectedCapacity;
+
+  /**
+   * Segments, as maps of key to weight in access order.
+   */
+  private final LinkedHashMap<String, Long> window = newSegment();
+  private final LinkedHashMap<String, Long> probation = newSegment();
+  private final LinkedHashMap<String, Long> protect = newSegment();
+
+  private long windowWeight = 0;
+  private long probationWeight = 0;
+  private long protectWeight = 0;
+
+  private final FrequencySketch sketch = new FrequencySketch();
+
+  /**
+   * Keys moved from the window to the probation segment which have not
+   * yet been compared against an eviction victim.
+   */
+  private final ArrayList<String> candidates = new ArrayList<String>();
+
+  /**
+   * Create a new W-TinyLFU eviction policy.
+   *
+   * @param capacity Maximum total weight.
+   */
+  public TinyLfuPolicy(final long capacity) {
+    if (capacity < 0)
+      throw new IllegalArgumentException("negative capacity");
+
+    this.capacity = capacity;
+    this.windowCapacity = Math.min(capacity, Math.max(1, percent(capacity, WINDOW_PERCENT)));
+    this.protectedCapacity = percent(capacity - windowCapacity, PROTECTED_PERCENT);
+
+    // size sketch up front so counts are not discarded as the cache
+    // fills; capacity is only an entry count for Weigher.ENTRIES, so
+    // cap the initial size and let the sketch grow for other weighers
+    sketch.ensureCapacity((int) Math.min(capacity, INITIAL_SKETCH_SIZE));
+  }
+
+  /**
+   * Add entry to the admission window, then evict entries until the
+   * total weight is within capacity.
+   *
+   * @param key Template key.
+   * @param weight Template weight.
+   * @param evicted Output collection of evicted template keys.
+   */
+  public void add(
+    final String key,
+    final long weight,
+    final Collection<String> evicted
+  ) {
+    remove(key);
+
+    sketch.ensureCapacity(size() + 1);
+    sketch.increment(key);
+
+    window.put(key, weight);
+    windowWeight += weight;
+
+    // move overflow from the window to the probation segment
+    final Iterator<Map.Entry<String, Long>> it = window.entrySet().iterator();
+    while (windowWeight > windowCapacity && it.hasNext()) {
+      final Map.Entry<String, Long> e = it.next();
+      final String k = e.getKey();
+      final long w = e.getValue();
+      it.remove();
+      windowWeight -= w;
+
+      probation.put(k, w);
+      probationWeight += w;
+      candidates.add(k);
+    }
+
+    evict(evicted);
+    candidates.clear();
+  }
+
+  /**
+   * Evict entries until the total weight is within capacity.  Each
+   * candidate that left the window competes with the least-recently
+   * used entry of the main segment; the less frequent of the two is
+   * evicted.
+   *
+   * @param evicted Output collection of evicted template keys.
+   */
+  private void evict(final Collection<String> evicted) {
+    while (weight() > capacity) {
+      final String victim = eldest();
+
+      // drop candidates which are no longer in the probation segment
+      String candidate = null;
+      while (candidate == null && !candidates.isEmpty()) {
+        final String k = candidates.get(candidates.size() - 1);
+        if (probation.containsKey(k) && !k.equals(victim)) {
+          candidate = k;
+        } else {
+          candidates.remove(candidates.size() - 1);
+        }
+      }
+
+      final String loser;
+      if (candidate == null || sketch.frequency(candidate) > sketch.frequency(victim)) {
+        loser = victim;
+      } else {
+        loser = candidate;
+        candidates.remove(candidates.size() - 1);
+      }
+
+      remove(loser);
+      evicted.add(loser);
+    }
+  }
+
+  /**
+   * Get the least-recently used entry of the main segment, or of the
+   * window if the main segment is empty.
+   */
+  private String eldest() {
+    if (!probation.isEmpty())
+      return probation.keySet().iterator().next();
+    if (!protect.isEmpty())
+      return protect.keySet().iterator().next();
+    return window.keySet().iterator().next();
+  }
+
+  /**
+   * Record access, and promote entry from the probation segment to the
+   * protected segment.
+   *
+   * @param key Template key.
+   */
+  public void access(final String key) {
+    sketch.increment(key);
+
+    if (window.containsKey(key)) {
+      // move to end of window
+      window.get(key);
+    } else if (protect.containsKey(key)) {
+      // move to end of protected segment
+      protect.get(key);
+    } else if (probation.containsKey(key)) {
+      // promote to protected segment
+      final long w = probation.remove(key);
+      probationWeight -= w;
+      protect.put(key, w);
+      protectWeight += w;
+
+      // demote overflow from protected segment to probation segment
+      final Iterator<Map.Entry<String, Long>> it = protect.entrySet().iterator();
+      while (protectWeight > protectedCapacity && it.hasNext()) {
+        final Map.Entry<String, Long> e = it.next();
+        final String k = e.getKey();
+        final long kw = e.getValue();
+        if (k.equals(key))
+          break;
+
+        it.remove();
+        protectWeight -= kw;
+        probation.put(k, kw);
+        probationWeight += kw;
+      }
+    }
+  }
+
+  /**
+   * Remove entry.
+   *
+   * @param key Template key.
+   */
+  public void remove(final String key) {
+    Long w;
+
+    if ((w = window.remove(key)) != null) {
+      windowWeight -= w;
+    } else if ((w = probation.remove(key)) != null) {
+      probationWeight -= w;
+    } else if ((w = protect.remove(key)) != null) {
+      protectWeight -= w;
+    }
+  }
+
+  /**
+   * Get total weight of all entries.
+   *
+   * @return Total weight.
+   */
+  public long weight() {
+    return windowWeight + probationWeight + protectWeight;
+  }
+
+  /**
+   * Get maximum total weight.
+   *
+   * @return Maximum total weight.
+   */
+  public long capacity() {
+    return capacity;
+  }
+
+  /**
+   * Get number of entries.
+   */
+  private int size() {
+    return window.size() + probation.size() + protect.size();
+  }
+
+  /**
+   * Get the given percentage of the given weight, rounded down,
+   * without overflowing for large weights.
+   */
+  private static long percent(final long val, final int pct) {
+    return val / 100 * pct + val % 100 * pct / 100;
+  }
+
+  /**
+   * Create a new access-ordered segment.
+   */
+  private static LinkedHashMap<String, Long> newSegment() {
+    return new LinkedHashMap<String, Long>(16, 0.75f, true);
+  }
+};
@@ -0,0 +1,71 @@
+package org.pablotron.luigi.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pablotron.luigi.errors.LuigiError;
+
+/**
+ * Result of warming a template cache.
+ */
+public final class WarmReport {
+  /**
+   * Number of templates compiled.
+   */
+  public final int compiled;
+
+  /**
+   * Number of templates which were already compiled.
+   */
+  public final int skipped;
+
+  /**
+   * Compile errors, by template key, in request order.
+   */
+  public final Map<String, LuigiError> errors;
+
+  /**
+   * Elapsed time, in nanoseconds.
+   */
+  public final long nanos;
+
+  /**
+   * Create a new warm report.
+   *
+   * @param compiled Number of templates compiled.
+   * @param skipped Number of templates which were already compiled.
+   * @param errors Compile errors, by template key.
+   * @param nanos Elapsed time, in nanoseconds.
+   */
+  public WarmReport(
+    final int compiled,
+    final int skipped,
+    final Map<String, LuigiError> errors,
+    final long nanos
+  ) {
+    this.compiled = compiled;
+    this.skipped = skipped;
+    this.errors = Collections.unmodifiableMap(new LinkedHashMap<String, LuigiError>(errors));
+    this.nanos = nanos;
+  }
+
+  /**
+   * Did every template compile?
+   *
+   * @return True if there were no compile errors.
+   */
+  public boolean isSuccess() {
+    return errors.isEmpty();
+  }
+
+  /**
+   * Return a string representation of this report.
+   */
+  public String toString() {
+    return String.format(
+      "WarmReport{compiled=%d, skipped=%d, errors=%s, nanos=%d}",
+      compiled, skipped, errors.keySet(), nanos
+    );
+  }
+};
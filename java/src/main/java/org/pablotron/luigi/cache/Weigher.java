@@ -0,0 +1,39 @@
+package org.pablotron.luigi.cache;
+
+import org.pablotron.luigi.Template;
+
+/**
+ * Calculates the weight of a compiled template in a bounded Cache.
+ */
+public interface Weigher {
+  /**
+   * Calculate the weight of a compiled template.
+   *
+   * @param key Template key.
+   * @param template Compiled template.
+   *
+   * @return Template weight.  Must not be negative.
+   */
+  public long weigh(String key, Template template);
+
+  /**
+   * Weigher which counts each template as a single entry.
+   */
+  public static final Weigher ENTRIES = new Weigher() {
+    public long weigh(final String key, final Template template) {
+      return 1;
+    }
+  };
+
+  /**
+   * Weigher which estimates the number of characters retained by a
+   * template: the key, the template string, and the parsed text
+   * literals and arguments, which are about the same size as the
+   * template string.
+   */
+  public static final Weigher CHARS = new Weigher() {
+    public long weigh(final String key, final Template template) {
+      return key.length() + 2L * template.length();
+    }
+  };
+};
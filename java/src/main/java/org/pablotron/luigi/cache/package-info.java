@@ -0,0 +1,4 @@
+/**
+ * Template cache eviction policies, weighers, and statistics.
+ */
+package org.pablotron.luigi.cache;
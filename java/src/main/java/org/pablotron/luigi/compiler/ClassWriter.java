@@ -0,0 +1,406 @@
+package org.pablotron.luigi.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file writer.
+ *
+ * Supports exactly what the template compiler needs: a public final
+ * class with static fields and methods made of straight-line code.
+ * Methods have no branches or exception handlers, so no stack map
+ * frames are required.
+ */
+final class ClassWriter {
+  /**
+   * Class file version (Java 8).
+   */
+  private static final int VERSION = 52;
+
+  /**
+   * Maximum number of constant pool entries.
+   */
+  static final int MAX_CONSTANTS = 0xffff;
+
+  /**
+   * Maximum encoded length of a Utf8 constant.
+   */
+  static final int MAX_UTF8_LENGTH = 0xffff;
+
+  // access flags
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_PRIVATE = 0x0002;
+  static final int ACC_STATIC = 0x0008;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+  static final int ACC_SYNTHETIC = 0x1000;
+
+  // constant pool tags
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  // opcodes
+  static final int ICONST_0 = 0x03;
+  static final int BIPUSH = 0x10;
+  static final int SIPUSH = 0x11;
+  static final int LDC_W = 0x13;
+  static final int ALOAD_0 = 0x2a;
+  static final int ALOAD_1 = 0x2b;
+  static final int ALOAD_2 = 0x2c;
+  static final int AALOAD = 0x32;
+  static final int ASTORE_0 = 0x4b;
+  static final int POP = 0x57;
+  static final int SWAP = 0x5f;
+  static final int RETURN = 0xb1;
+  static final int GETSTATIC = 0xb2;
+  static final int PUTSTATIC = 0xb3;
+  static final int INVOKEVIRTUAL = 0xb6;
+  static final int INVOKESPECIAL = 0xb7;
+  static final int INVOKESTATIC = 0xb8;
+  static final int INVOKEINTERFACE = 0xb9;
+  static final int CHECKCAST = 0xc0;
+
+  /**
+   * Straight-line method body.
+   */
+  static final class Code {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final ClassWriter cw;
+
+    private Code(final ClassWriter cw) {
+      this.cw = cw;
+    }
+
+    /**
+     * Get the size of this method body, in bytes.
+     */
+    int size() {
+      return bytes.size();
+    }
+
+    /**
+     * Emit instruction with no operands.
+     */
+    Code op(final int op) {
+      bytes.write(op);
+      return this;
+    }
+
+    /**
+     * Emit instruction with a 16-bit constant pool operand.
+     */
+    private Code op(final int op, final int index) {
+      bytes.write(op);
+      bytes.write(index >> 8);
+      bytes.write(index);
+      return this;
+    }
+
+    /**
+     * Push an integer constant.
+     */
+    Code iconst(final int val) {
+      if (val >= 0 && val <= 5) {
+        return op(ICONST_0 + val);
+      } else if (val >= Byte.MIN_VALUE && val <= Byte.MAX_VALUE) {
+        bytes.write(BIPUSH);
+        bytes.write(val);
+        return this;
+      } else {
+        return op(SIPUSH, val);
+      }
+    }
+
+    /**
+     * Push a string constant.
+     */
+    Code ldc(final String val) {
+      return op(LDC_W, cw.string(val));
+    }
+
+    Code getstatic(final String owner, final String name, final String desc) {
+      return op(GETSTATIC, cw.fieldref(owner, name, desc));
+    }
+
+    Code putstatic(final String owner, final String name, final String desc) {
+      return op(PUTSTATIC, cw.fieldref(owner, name, desc));
+    }
+
+    Code checkcast(final String type) {
+      return op(CHECKCAST, cw.classref(type));
+    }
+
+    Code invokevirtual(final String owner, final String name, final String desc) {
+      return op(INVOKEVIRTUAL, cw.methodref(owner, name, desc));
+    }
+
+    Code invokespecial(final String owner, final String name, final String desc) {
+      return op(INVOKESPECIAL, cw.methodref(owner, name, desc));
+    }
+
+    Code invokestatic(final String owner, final String name, final String desc) {
+      return op(INVOKESTATIC, cw.methodref(owner, name, desc));
+    }
+
+    Code invokeinterface(final String owner, final String name, final String desc, final int num_args) {
+      op(INVOKEINTERFACE, cw.interfaceMethodref(owner, name, desc));
+      bytes.write(num_args + 1);
+      bytes.write(0);
+      return this;
+    }
+  };
+
+  /**
+   * Field or method.
+   */
+  private static final class Member {
+    private final int access;
+    private final int name;
+    private final int desc;
+    private final Code code;
+    private final int max_stack;
+    private final int max_locals;
+
+    private Member(
+      final int access,
+      final int name,
+      final int desc,
+      final Code code,
+      final int max_stack,
+      final int max_locals
+    ) {
+      this.access = access;
+      this.name = name;
+      this.desc = desc;
+      this.code = code;
+      this.max_stack = max_stack;
+      this.max_locals = max_locals;
+    }
+  };
+
+  private final ByteArrayOutputStream pool_bytes = new ByteArrayOutputStream();
+  private final DataOutputStream pool = new DataOutputStream(pool_bytes);
+  private final Map<String, Integer> constants = new HashMap<String, Integer>();
+  private int num_constants = 1;
+
+  private final int access;
+  private final int this_class;
+  private final int super_class;
+  private final List<Member> fields = new ArrayList<Member>();
+  private final List<Member> methods = new ArrayList<Member>();
+
+  /**
+   * Create a new class writer.
+   *
+   * @param access Class access flags.
+   * @param name Internal class name.
+   * @param super_name Internal name of superclass.
+   */
+  ClassWriter(final int access, final String name, final String super_name) {
+    this.access = access;
+    this.this_class = classref(name);
+    this.super_class = classref(super_name);
+  }
+
+  /**
+   * Get the number of constant pool entries used so far.
+   */
+  int numConstants() {
+    return num_constants;
+  }
+
+  /**
+   * Create a new method body.
+   */
+  Code code() {
+    return new Code(this);
+  }
+
+  /**
+   * Add field.
+   */
+  void field(final int access, final String name, final String desc) {
+    fields.add(new Member(access, utf8(name), utf8(desc), null, 0, 0));
+  }
+
+  /**
+   * Add method.
+   */
+  void method(
+    final int access,
+    final String name,
+    final String desc,
+    final Code code,
+    final int max_stack,
+    final int max_locals
+  ) {
+    methods.add(new Member(access, utf8(name), utf8(desc), code, max_stack, max_locals));
+  }
+
+  /**
+   * Get the encoded length of the given string as a Utf8 constant.
+   */
+  static int utf8Length(final CharSequence s) {
+    int r = 0;
+    for (int i = 0, l = s.length(); i < l; i++) {
+      final char c = s.charAt(i);
+      r += (c >= 0x01 && c <= 0x7f) ? 1 : (c <= 0x7ff) ? 2 : 3;
+    }
+
+    return r;
+  }
+
+  /**
+   * Build class file.
+   */
+  byte[] toByteArray() {
+    final int code_attr = utf8("Code");
+    if (num_constants > MAX_CONSTANTS)
+      throw new IllegalStateException("too many constants");
+
+    try {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream out = new DataOutputStream(bytes);
+
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(num_constants);
+      pool.flush();
+      pool_bytes.writeTo(out);
+
+      out.writeShort(access);
+      out.writeShort(this_class);
+      out.writeShort(super_class);
+      out.writeShort(0);
+
+      out.writeShort(fields.size());
+      for (final Member f: fields) {
+        out.writeShort(f.access);
+        out.writeShort(f.name);
+        out.writeShort(f.desc);
+        out.writeShort(0);
+      }
+
+      out.writeShort(methods.size());
+      for (final Member m: methods) {
+        out.writeShort(m.access);
+        out.writeShort(m.name);
+        out.writeShort(m.desc);
+        out.writeShort(1);
+
+        // code attribute
+        out.writeShort(code_attr);
+        out.writeInt(12 + m.code.size());
+        out.writeShort(m.max_stack);
+        out.writeShort(m.max_locals);
+        out.writeInt(m.code.size());
+        m.code.bytes.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+      }
+
+      out.writeShort(0);
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // never raised by ByteArrayOutputStream
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private int utf8(final String val) {
+    final String key = "u" + val;
+    final Integer r = constants.get(key);
+    if (r != null)
+      return r;
+
+    try {
+      pool.writeByte(CONSTANT_UTF8);
+      pool.writeUTF(val);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return add(key, 1);
+  }
+
+  private int classref(final String name) {
+    return ref("c", CONSTANT_CLASS, utf8(name), -1, name);
+  }
+
+  private int string(final String val) {
+    return ref("s", CONSTANT_STRING, utf8(val), -1, val);
+  }
+
+  private int nameAndType(final String name, final String desc) {
+    return ref("n", CONSTANT_NAME_AND_TYPE, utf8(name), utf8(desc), name + ' ' + desc);
+  }
+
+  private int fieldref(final String owner, final String name, final String desc) {
+    return member("f", CONSTANT_FIELDREF, owner, name, desc);
+  }
+
+  private int methodref(final String owner, final String name, final String desc) {
+    return member("m", CONSTANT_METHODREF, owner, name, desc);
+  }
+
+  private int interfaceMethodref(final String owner, final String name, final String desc) {
+    return member("i", CONSTANT_INTERFACE_METHODREF, owner, name, desc);
+  }
+
+  private int member(
+    final String prefix,
+    final int tag,
+    final String owner,
+    final String name,
+    final String desc
+  ) {
+    return ref(prefix, tag, classref(owner), nameAndType(name, desc), owner + ' ' + name + ' ' + desc);
+  }
+
+  /**
+   * Add constant which refers to one or two other constants.
+   */
+  private int ref(
+    final String prefix,
+    final int tag,
+    final int a,
+    final int b,
+    final String val
+  ) {
+    final String key = prefix + val;
+    final Integer r = constants.get(key);
+    if (r != null)
+      return r;
+
+    try {
+      pool.writeByte(tag);
+      pool.writeShort(a);
+      if (b >= 0)
+        pool.writeShort(b);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return add(key, 1);
+  }
+
+  private int add(final String key, final int size) {
+    final int r = num_constants;
+    constants.put(key, r);
+    num_constants += size;
+    return r;
+  }
+};
@@ -0,0 +1,307 @@
+package org.pablotron.luigi.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.FilterReference;
+import org.pablotron.luigi.actions.Action;
+import org.pablotron.luigi.actions.LinkedFilterAction;
+import org.pablotron.luigi.actions.TextAction;
+
+/**
+ * Template compiler.
+ *
+ * Translates the linked actions of a template into a renderer class
+ * with straight-line code: text literals become constant appends, and
+ * filter chains become direct calls to handlers stored in static final
+ * fields.  Each generated class has its own call sites, so the JIT
+ * sees each handler call as monomorphic and can inline it.
+ *
+ * Each renderer class is defined in its own class loader, so it can be
+ * unloaded once its template is no longer used.
+ */
+public final class Compiler {
+  /**
+   * Hide constructor to prevent instantiation.
+   */
+  private Compiler() {}
+
+  // internal names and descriptors
+  private static final String PREFIX = "org/pablotron/luigi/compiler/GeneratedRenderer";
+  private static final String RENDERER = "org/pablotron/luigi/compiler/Renderer";
+  private static final String HANDLER = "org/pablotron/luigi/Filter$Handler";
+  private static final String STREAM_HANDLER = "org/pablotron/luigi/Filter$StreamHandler";
+  private static final String STRING_BUILDER = "java/lang/StringBuilder";
+  private static final String STRING_ARRAY = "[Ljava/lang/String;";
+  private static final String MAP_DESC = "Ljava/util/Map;";
+  private static final String CHUNK_DESC = "(Ljava/util/Map;Ljava/lang/StringBuilder;)V";
+  private static final String APPEND_DESC = "(Ljava/lang/String;)Ljava/lang/StringBuilder;";
+  private static final String CONSTANTS_DESC = "(Ljava/lang/invoke/MethodHandles$Lookup;)[Ljava/lang/Object;";
+  private static final String LOOKUP_DESC = "(Ljava/util/Map;Ljava/lang/String;)Ljava/lang/String;";
+  private static final String FILTER_DESC = "(Ljava/lang/String;[Ljava/lang/String;Ljava/util/Map;)Ljava/lang/String;";
+  private static final String STREAM_DESC = "(Ljava/lang/String;[Ljava/lang/String;Ljava/util/Map;Ljava/lang/Appendable;)V";
+
+  /**
+   * Maximum size of a method body before starting a new one.
+   */
+  private static final int MAX_CHUNK_SIZE = 32 * 1024;
+
+  /**
+   * Maximum method body size.
+   */
+  private static final int MAX_CODE_SIZE = 0xffff;
+
+  /**
+   * Maximum number of characters in a single text constant.  Each
+   * character takes at most 3 bytes in a Utf8 constant.
+   */
+  private static final int MAX_TEXT_CHARS = ClassWriter.MAX_UTF8_LENGTH / 3;
+
+  /**
+   * Generated class counter.
+   */
+  private static final AtomicLong COUNTER = new AtomicLong();
+
+  /**
+   * Class loader for a single generated class.
+   */
+  static final class Loader extends ClassLoader {
+    private Loader() {
+      super(Renderer.class.getClassLoader());
+    }
+
+    private Class<?> define(final String name, final byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  };
+
+  /**
+   * Static final fields of a generated class.
+   */
+  private static final class Constants {
+    private final List<Object> values = new ArrayList<Object>();
+    private final List<String> descs = new ArrayList<String>();
+    private final Map<Object, Integer> handlers = new IdentityHashMap<Object, Integer>();
+    private final Map<Object, Integer> streams = new IdentityHashMap<Object, Integer>();
+    private final Map<Object, Integer> args = new HashMap<Object, Integer>();
+
+    /**
+     * Get the field name for the given value, adding a field if needed.
+     */
+    private String get(final Map<Object, Integer> map, final Object key, final Object val, final String desc) {
+      Integer r = map.get(key);
+      if (r == null) {
+        r = values.size();
+        map.put(key, r);
+        values.add(val);
+        descs.add(desc);
+      }
+
+      return "c" + r;
+    }
+
+    private String handler(final Filter.Handler h) {
+      return get(handlers, h, h, "L" + HANDLER + ";");
+    }
+
+    private String stream(final Filter.StreamHandler h) {
+      return get(streams, h, h, "L" + STREAM_HANDLER + ";");
+    }
+
+    private String args(final String[] a) {
+      // share argument arrays with the same contents
+      return get(args, Arrays.asList(a), a, STRING_ARRAY);
+    }
+  };
+
+  /**
+   * Compile the given linked actions into a renderer.
+   *
+   * Returns null if the actions cannot be compiled, either because an
+   * action is not a TextAction or LinkedFilterAction, or because the
+   * template exceeds the limits of a class file.  The template should
+   * be interpreted instead.
+   *
+   * @param actions Array of linked actions.
+   *
+   * @return New renderer, or null.
+   */
+  public static Renderer compile(final Action[] actions) {
+    final String name = PREFIX + COUNTER.incrementAndGet();
+    final ClassWriter cw = new ClassWriter(
+      ClassWriter.ACC_PUBLIC | ClassWriter.ACC_FINAL | ClassWriter.ACC_SUPER | ClassWriter.ACC_SYNTHETIC,
+      name,
+      RENDERER
+    );
+    final Constants constants = new Constants();
+
+    // compile actions into chunk methods
+    final List<String> chunks = new ArrayList<String>();
+    ClassWriter.Code code = cw.code();
+    for (final Action a: actions) {
+      if (a instanceof TextAction) {
+        final String text = ((TextAction) a).text();
+        for (int i = 0, l = text.length(); i < l; i += MAX_TEXT_CHARS) {
+          code.op(ClassWriter.ALOAD_1)
+            .ldc(text.substring(i, Math.min(l, i + MAX_TEXT_CHARS)))
+            .invokevirtual(STRING_BUILDER, "append", APPEND_DESC)
+            .op(ClassWriter.POP);
+        }
+      } else if (a instanceof LinkedFilterAction) {
+        if (!compileFilterAction(name, code, constants, (LinkedFilterAction) a))
+          return null;
+      } else {
+        // unsupported action
+        return null;
+      }
+
+      // check method size limit (a single action can be large)
+      if (code.size() >= MAX_CODE_SIZE)
+        return null;
+
+      if (code.size() > MAX_CHUNK_SIZE) {
+        chunks.add(addChunk(cw, chunks.size(), code));
+        code = cw.code();
+      }
+    }
+
+    if (code.size() > 0)
+      chunks.add(addChunk(cw, chunks.size(), code));
+
+    // render method: call each chunk
+    final ClassWriter.Code render = cw.code();
+    for (final String chunk: chunks) {
+      render.op(ClassWriter.ALOAD_1)
+        .op(ClassWriter.ALOAD_2)
+        .invokestatic(name, chunk, CHUNK_DESC);
+    }
+    render.op(ClassWriter.RETURN);
+    cw.method(ClassWriter.ACC_PUBLIC, "render", CHUNK_DESC, render, 2, 3);
+
+    // constructor
+    final ClassWriter.Code init = cw.code()
+      .op(ClassWriter.ALOAD_0)
+      .invokespecial(RENDERER, "<init>", "()V")
+      .op(ClassWriter.RETURN);
+    cw.method(ClassWriter.ACC_PUBLIC, "<init>", "()V", init, 1, 1);
+
+    // static initializer: load constants into static final fields
+    final String class_name = name.replace('/', '.');
+    final ClassWriter.Code clinit = cw.code()
+      .invokestatic("java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;")
+      .invokestatic(RENDERER, "constants", CONSTANTS_DESC)
+      .op(ClassWriter.ASTORE_0);
+    for (int i = 0; i < constants.values.size(); i++) {
+      final String desc = constants.descs.get(i);
+      cw.field(
+        ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC | ClassWriter.ACC_FINAL,
+        "c" + i,
+        desc
+      );
+
+      clinit.op(ClassWriter.ALOAD_0)
+        .iconst(i)
+        .op(ClassWriter.AALOAD)
+        .checkcast(desc.startsWith("L") ? desc.substring(1, desc.length() - 1) : desc)
+        .putstatic(name, "c" + i, desc);
+    }
+    clinit.op(ClassWriter.RETURN);
+    cw.method(ClassWriter.ACC_STATIC, "<clinit>", "()V", clinit, 3, 1);
+
+    // check class file limits
+    if (clinit.size() > MAX_CODE_SIZE || render.size() > MAX_CODE_SIZE || cw.numConstants() >= ClassWriter.MAX_CONSTANTS)
+      return null;
+
+    // define and initialize class
+    final byte[] bytes = cw.toByteArray();
+    Renderer.register(class_name, constants.values.toArray());
+    try {
+      final Class<?> cls = new Loader().define(class_name, bytes);
+      return (Renderer) cls.getConstructor().newInstance();
+    } catch (LinkageError e) {
+      // rejected by the verifier; interpret template instead
+      return null;
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("couldn't create renderer", e);
+    } finally {
+      Renderer.unregister(class_name);
+    }
+  }
+
+  /**
+   * Compile filter action.
+   *
+   * Returns false if the action cannot be compiled.
+   */
+  private static boolean compileFilterAction(
+    final String name,
+    final ClassWriter.Code code,
+    final Constants constants,
+    final LinkedFilterAction a
+  ) {
+    final String key = a.key();
+    if (ClassWriter.utf8Length(key) > ClassWriter.MAX_UTF8_LENGTH)
+      return false;
+
+    // look up value: stack is [val]
+    code.op(ClassWriter.ALOAD_0)
+      .ldc(key)
+      .invokestatic(RENDERER, "lookup", LOOKUP_DESC);
+
+    final FilterReference[] filters = a.filters();
+    final Filter.Handler[] handlers = a.handlers();
+    final int last = handlers.length - 1;
+
+    for (int i = 0; i <= last; i++) {
+      final String args = constants.args(filters[i].args);
+
+      if (i == last && handlers[i] instanceof Filter.StreamHandler) {
+        // write result of last filter directly to output
+        code.getstatic(name, constants.stream((Filter.StreamHandler) handlers[i]), "L" + STREAM_HANDLER + ";")
+          .op(ClassWriter.SWAP)
+          .getstatic(name, args, STRING_ARRAY)
+          .op(ClassWriter.ALOAD_0)
+          .op(ClassWriter.ALOAD_1)
+          .invokeinterface(STREAM_HANDLER, "filter", STREAM_DESC, 4);
+        return true;
+      }
+
+      // apply filter: stack is [val]
+      code.getstatic(name, constants.handler(handlers[i]), "L" + HANDLER + ";")
+        .op(ClassWriter.SWAP)
+        .getstatic(name, args, STRING_ARRAY)
+        .op(ClassWriter.ALOAD_0)
+        .invokeinterface(HANDLER, "filter", FILTER_DESC, 3);
+    }
+
+    // append value
+    code.op(ClassWriter.ALOAD_1)
+      .op(ClassWriter.SWAP)
+      .invokevirtual(STRING_BUILDER, "append", APPEND_DESC)
+      .op(ClassWriter.POP);
+
+    return true;
+  }
+
+  /**
+   * Finish chunk method and add it to the class.
+   *
+   * @return Chunk method name.
+   */
+  private static String addChunk(
+    final ClassWriter cw,
+    final int index,
+    final ClassWriter.Code code
+  ) {
+    final String name = "r" + index;
+    code.op(ClassWriter.RETURN);
+    cw.method(ClassWriter.ACC_PRIVATE | ClassWriter.ACC_STATIC, name, CHUNK_DESC, code, 5, 2);
+    return name;
+  }
+};
@@ -0,0 +1,114 @@
+package org.pablotron.luigi.compiler;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pablotron.luigi.compiler.Compiler;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+/**
+ * Base class of the renderer classes generated by the template
+ * compiler.
+ *
+ * The static methods of this class are called by generated code and
+ * should not be called directly.
+ */
+public abstract class Renderer {
+  /**
+   * Constants for generated classes which have been defined but not
+   * yet initialized, indexed by class name.
+   */
+  private static final ConcurrentHashMap<String, Object[]> PENDING = new ConcurrentHashMap<String, Object[]>();
+
+  /**
+   * Create a new renderer.
+   */
+  protected Renderer() {}
+
+  /**
+   * Render template with the given arguments to the given output.
+   *
+   * @param args Template arguments.
+   * @param out Output buffer.
+   *
+   * @throws UnknownKeyError If a key specified in the template does not exist.
+   * @throws LuigiError If a filter fails.
+   * @throws IOException If a filter fails while writing to the output.
+   */
+  public abstract void render(
+    Map<String, String> args,
+    StringBuilder out
+  ) throws LuigiError, IOException;
+
+  /**
+   * Get the value of the given key, or raise an UnknownKeyError if the
+   * key does not exist.  Called by generated code.
+   *
+   * @param args Template arguments.
+   * @param key Key.
+   *
+   * @return Value.
+   *
+   * @throws UnknownKeyError If the key does not exist.
+   */
+  public static String lookup(
+    final Map<String, String> args,
+    final String key
+  ) throws UnknownKeyError {
+    final String r = args.get(key);
+    if (r == null && !args.containsKey(key))
+      throw new UnknownKeyError(key);
+    return r;
+  }
+
+  /**
+   * Take the constants for the calling generated class.  Called once by
+   * the static initializer of each generated class.
+   *
+   * The lookup must have private access to a class defined by the
+   * template compiler, so only a generated class can take its own
+   * constants.
+   *
+   * @param lookup Lookup object of the generated class.
+   *
+   * @return Array of constants.
+   *
+   * @throws IllegalArgumentException If the lookup is not the full
+   * privilege lookup of a generated class.
+   */
+  public static Object[] constants(final MethodHandles.Lookup lookup) {
+    final Class<?> cls = lookup.lookupClass();
+    if ((lookup.lookupModes() & MethodHandles.Lookup.PRIVATE) == 0 || !(cls.getClassLoader() instanceof Compiler.Loader))
+      throw new IllegalArgumentException("not a generated renderer: " + cls.getName());
+
+    final String name = cls.getName();
+    final Object[] r = PENDING.remove(name);
+    if (r == null)
+      throw new IllegalStateException("no constants for class: " + name);
+    return r;
+  }
+
+  /**
+   * Register the constants for a generated class before it is
+   * initialized.
+   *
+   * @param name Generated class name.
+   * @param constants Array of constants.
+   */
+  static void register(final String name, final Object[] constants) {
+    PENDING.put(name, constants);
+  }
+
+  /**
+   * Discard the constants for a generated class if it was not
+   * initialized.
+   *
+   * @param name Generated class name.
+   */
+  static void unregister(final String name) {
+    PENDING.remove(name);
+  }
+};
@@ -0,0 +1,4 @@
+/**
+ * Runtime compiler which translates templates into renderer classes.
+ */
+package org.pablotron.luigi.compiler;
@@ -0,0 +1,443 @@
+package org.pablotron.luigi.loader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.pablotron.luigi.Cache;
+
+/**
+ * Template string map backed by a directory tree.
+ *
+ * Each regular file under the root directory is a template, keyed by
+ * its path relative to the root with '/' separators and without the
+ * configured suffix (e.g. <code>mail/welcome.html.luigi</code> becomes
+ * <code>mail/welcome.html</code>).  File names are listed when the
+ * loader is created, but files are only read by get().
+ *
+ * Pass a FileLoader to a Cache as its template string map.  The cache
+ * calls get() once for each template it compiles, so each file is
+ * read when its template is first requested.  Call watch() to reload
+ * templates when their files change: changed files are invalidated in
+ * the watching caches one entry at a time.
+ *
+ * A FileLoader is read-only and thread-safe.
+ */
+public final class FileLoader extends AbstractMap<String, String> implements Closeable {
+  /**
+   * File loader builder.
+   */
+  public static final class Builder {
+    private final Path root;
+    private String suffix = "";
+    private Charset charset = StandardCharsets.UTF_8;
+
+    /**
+     * Create a new FileLoader builder.
+     *
+     * @param root Root directory.
+     */
+    public Builder(final Path root) {
+      this.root = root;
+    }
+
+    /**
+     * Only load files whose names end with the given suffix, and strip
+     * the suffix from template keys.  Defaults to the empty string,
+     * which loads every file.
+     *
+     * @param suffix File name suffix (e.g. ".luigi").
+     *
+     * @return This builder.
+     */
+    public Builder suffix(final String suffix) {
+      this.suffix = suffix;
+      return this;
+    }
+
+    /**
+     * Set the template file encoding.  Defaults to UTF-8.
+     *
+     * @param charset Template file encoding.
+     *
+     * @return This builder.
+     */
+    public Builder charset(final Charset charset) {
+      this.charset = charset;
+      return this;
+    }
+
+    /**
+     * Create a new FileLoader from this builder.
+     *
+     * @return New FileLoader instance.
+     *
+     * @throws IOException If the root directory cannot be listed.
+     */
+    public FileLoader build() throws IOException {
+      return new FileLoader(this);
+    }
+  };
+
+  private final Path root;
+  private final String suffix;
+  private final Charset charset;
+
+  /**
+   * Template file paths, by key.
+   */
+  private final ConcurrentHashMap<String, Path> paths = new ConcurrentHashMap<String, Path>();
+
+  /**
+   * Caches to invalidate when a file changes.
+   */
+  private final CopyOnWriteArrayList<Cache> caches = new CopyOnWriteArrayList<Cache>();
+
+  /**
+   * Directory watch service, or null if not watching.
+   */
+  private WatchService watcher = null;
+
+  /**
+   * Create a new file loader from the given builder.
+   *
+   * @param b File loader builder.
+   *
+   * @throws IOException If the root directory cannot be listed.
+   */
+  private FileLoader(final Builder b) throws IOException {
+    this.root = b.root.toAbsolutePath().normalize();
+    this.suffix = b.suffix;
+    this.charset = b.charset;
+
+    scan(root);
+  }
+
+  /**
+   * Create a new file loader for the given root directory, which loads
+   * every file as UTF-8.
+   *
+   * @param root Root directory.
+   *
+   * @throws IOException If the root directory cannot be listed.
+   */
+  public FileLoader(final Path root) throws IOException {
+    this(new Builder(root));
+  }
+
+  /**
+   * Read the template string for the given key.
+   *
+   * @param key Template key.
+   *
+   * @return Template string, or null if there is no such template.
+   *
+   * @throws UncheckedIOException If the template file cannot be read.
+   */
+  public String get(final Object key) {
+    final Path path = paths.get(key);
+    if (path == null)
+      return null;
+
+    try {
+      return read(path);
+    } catch (NoSuchFileException e) {
+      // removed since it was listed
+      paths.remove(key, path);
+      return null;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Is there a template file for the given key?
+   *
+   * @param key Template key.
+   *
+   * @return True if there is a template file for the key.
+   */
+  public boolean containsKey(final Object key) {
+    return paths.containsKey(key);
+  }
+
+  /**
+   * Get the number of template files.
+   *
+   * @return Number of template files.
+   */
+  public int size() {
+    return paths.size();
+  }
+
+  /**
+   * Get the template keys.
+   *
+   * @return Set of template keys.
+   */
+  public Set<String> keySet() {
+    return paths.keySet();
+  }
+
+  /**
+   * Get a view of the templates.  Iterating over the entries reads
+   * every template file.
+   *
+   * @return Set of template entries.
+   */
+  public Set<Map.Entry<String, String>> entrySet() {
+    return new AbstractSet<Map.Entry<String, String>>() {
+      public int size() {
+        return paths.size();
+      }
+
+      public Iterator<Map.Entry<String, String>> iterator() {
+        final Iterator<String> it = paths.keySet().iterator();
+
+        return new Iterator<Map.Entry<String, String>>() {
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          public Map.Entry<String, String> next() {
+            final String key = it.next();
+            return new AbstractMap.SimpleImmutableEntry<String, String>(key, get(key));
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Watch the root directory for changes, and invalidate changed
+   * templates in the given cache.
+   *
+   * Starts a daemon thread the first time it is called.  Call close()
+   * to stop watching.
+   *
+   * @param cache Concurrent cache to invalidate when a template file changes.
+   *
+   * @throws IllegalArgumentException If the cache is not concurrent.
+   * @throws IOException If the directory tree cannot be watched.
+   */
+  public synchronized void watch(final Cache cache) throws IOException {
+    // caches are invalidated from the watch thread
+    if (!cache.isConcurrent())
+      throw new IllegalArgumentException("cache is not concurrent");
+
+    caches.addIfAbsent(cache);
+    if (watcher != null)
+      return;
+
+    watcher = root.getFileSystem().newWatchService();
+    register(root);
+
+    final WatchService w = watcher;
+    final Thread t = new Thread(new Runnable() {
+      public void run() {
+        poll(w);
+      }
+    }, "luigi-file-loader");
+    t.setDaemon(true);
+    t.start();
+  }
+
+  /**
+   * Stop watching the root directory.
+   *
+   * @throws IOException If the watch service cannot be closed.
+   */
+  public synchronized void close() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+    }
+  }
+
+  /**
+   * Add the template files under the given directory.
+   */
+  private void scan(final Path dir) throws IOException {
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()) {
+          final String key = key(path);
+          if (key != null)
+            paths.put(key, path);
+        }
+
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Register the given directory and its subdirectories with the watch
+   * service.
+   */
+  private void register(final Path dir) throws IOException {
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      public FileVisitResult preVisitDirectory(final Path path, final BasicFileAttributes attrs) throws IOException {
+        path.register(
+          watcher,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE,
+          StandardWatchEventKinds.ENTRY_MODIFY
+        );
+
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  /**
+   * Process watch events until the watch service is closed.
+   *
+   * Exceptions raised while handling an event (e.g. by a cache
+   * listener) are passed to the uncaught exception handler of the
+   * watch thread, and do not stop the thread.
+   */
+  private void poll(final WatchService w) {
+    try {
+      while (true) {
+        final WatchKey wk = w.take();
+        final Path dir = (Path) wk.watchable();
+
+        for (final WatchEvent<?> e: wk.pollEvents()) {
+          try {
+            if (e.kind() == StandardWatchEventKinds.OVERFLOW) {
+              // events were lost; reload everything
+              rescan();
+            } else {
+              changed(dir.resolve((Path) e.context()));
+            }
+          } catch (RuntimeException err) {
+            // report error and keep watching
+            final Thread t = Thread.currentThread();
+            t.getUncaughtExceptionHandler().uncaughtException(t, err);
+          }
+        }
+
+        wk.reset();
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed by close()
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Handle a created, modified, or deleted path.
+   */
+  private void changed(final Path path) {
+    try {
+      if (Files.isDirectory(path)) {
+        // new directory: watch it and add its templates
+        synchronized (this) {
+          if (watcher != null)
+            register(path);
+        }
+
+        scan(path);
+        return;
+      }
+    } catch (IOException e) {
+      // directory removed while scanning; later events clean up
+    }
+
+    if (Files.isRegularFile(path)) {
+      // new or modified file
+      final String key = key(path);
+      if (key != null) {
+        paths.put(key, path);
+        invalidate(key);
+      }
+
+      return;
+    }
+
+    // removed file or directory: drop every template at or under the
+    // path, since removing a directory only raises an event for the
+    // directory itself
+    final Iterator<Map.Entry<String, Path>> it = paths.entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<String, Path> e = it.next();
+      if (e.getValue().startsWith(path)) {
+        it.remove();
+        invalidate(e.getKey());
+      }
+    }
+  }
+
+  /**
+   * List the directory tree again, and invalidate all templates in the
+   * watching caches.
+   */
+  private void rescan() {
+    // drop removed files
+    final Iterator<Path> it = paths.values().iterator();
+    while (it.hasNext()) {
+      if (!Files.isRegularFile(it.next()))
+        it.remove();
+    }
+
+    try {
+      scan(root);
+    } catch (IOException e) {
+      // root removed while scanning
+    }
+
+    for (final Cache cache: caches)
+      cache.invalidateAll();
+  }
+
+  /**
+   * Invalidate the given template in the watching caches.
+   */
+  private void invalidate(final String key) {
+    for (final Cache cache: caches)
+      cache.invalidate(key);
+  }
+
+  /**
+   * Get the template key for the given file, or null if the file name
+   * does not have the configured suffix.
+   */
+  private String key(final Path path) {
+    final String rel = root.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+    if (!rel.endsWith(suffix) || rel.length() == suffix.length())
+      return null;
+    return rel.substring(0, rel.length() - suffix.length());
+  }
+
+  /**
+   * Read and decode the given file.
+   *
+   * The file is closed before this method returns, so it can be
+   * replaced while the loader is watching it.
+   */
+  private String read(final Path path) throws IOException {
+    return new String(Files.readAllBytes(path), charset);
+  }
+};
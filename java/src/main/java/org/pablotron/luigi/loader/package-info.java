@@ -0,0 +1,4 @@
+/**
+ * Template string sources for caches.
+ */
+package org.pablotron.luigi.loader;
@@ -0,0 +1,245 @@
+package org.pablotron.luigi.memo;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pablotron.luigi.Filter;
+
+/**
+ * Filter map view which memoizes the results of pure filters.
+ *
+ * Each pure filter (see Filter.Pure) gets a bounded memo table keyed by
+ * value and filter arguments.  Values longer than the maximum value
+ * length bypass the memo table, so memory use stays bounded.  Filters
+ * which are not pure are passed through unchanged, as are sequence
+ * handlers (see Filter.SequenceHandler), which would otherwise lose
+ * their CharSequence variant and copy every value.
+ *
+ * Example:
+ *
+ * <pre>
+ *   final MemoFilters filters = new MemoFilters.Builder(Filter.FILTERS)
+ *     .maximumSize(4096)
+ *     .build();
+ *
+ *   final Cache cache = new Cache.Builder(strings)
+ *     .filters(filters)
+ *     .build();
+ * </pre>
+ */
+public final class MemoFilters extends AbstractMap<String, Filter.Handler> {
+  /**
+   * Default maximum number of memoized results per filter.
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+  /**
+   * Default maximum length of memoized values and results.
+   */
+  public static final int DEFAULT_MAXIMUM_VALUE_LENGTH = 256;
+
+  /**
+   * Memo filter map builder.
+   */
+  public static final class Builder {
+    private final Map<String, Filter.Handler> filters;
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    private int maximumValueLength = DEFAULT_MAXIMUM_VALUE_LENGTH;
+
+    /**
+     * Create a new builder for the given filter map.
+     *
+     * @param filters Filter map.
+     */
+    public Builder(final Map<String, Filter.Handler> filters) {
+      this.filters = filters;
+    }
+
+    /**
+     * Set the maximum number of memoized results per filter.  Rounded
+     * down to a power of two.  Defaults to 1024.
+     *
+     * @param size Maximum number of results.
+     *
+     * @return This builder.
+     *
+     * @throws IllegalArgumentException If the size is not positive.
+     */
+    public Builder maximumSize(final int size) {
+      if (size < 1)
+        throw new IllegalArgumentException("invalid maximum size: " + size);
+      this.maximumSize = size;
+      return this;
+    }
+
+    /**
+     * Set the maximum length of memoized values and results.  Longer
+     * values bypass the memo table.  Defaults to 256.
+     *
+     * @param length Maximum length, in characters.
+     *
+     * @return This builder.
+     *
+     * @throws IllegalArgumentException If the length is negative.
+     */
+    public Builder maximumValueLength(final int length) {
+      if (length < 0)
+        throw new IllegalArgumentException("invalid maximum value length: " + length);
+      this.maximumValueLength = length;
+      return this;
+    }
+
+    /**
+     * Create memo filter map.
+     *
+     * @return New memo filter map.
+     */
+    public MemoFilters build() {
+      return new MemoFilters(this);
+    }
+  };
+
+  private final Map<String, Filter.Handler> filters;
+  private final int maximumSize;
+  private final int maximumValueLength;
+
+  /**
+   * Memoizing handlers, by filter name.
+   */
+  private final ConcurrentHashMap<String, MemoHandler> handlers = new ConcurrentHashMap<String, MemoHandler>();
+
+  /**
+   * Create a memo filter map from the given builder.
+   *
+   * @param b Builder.
+   */
+  private MemoFilters(final Builder b) {
+    this.filters = b.filters;
+    this.maximumSize = b.maximumSize;
+    this.maximumValueLength = b.maximumValueLength;
+  }
+
+  /**
+   * Get the memoizing handler for the given filter.
+   *
+   * Handlers are wrapped when they are looked up, so later changes to
+   * the filter map are visible through the view.
+   *
+   * @param key Filter name.
+   *
+   * @return Filter handler, or null if the filter does not exist.
+   */
+  public Filter.Handler get(final Object key) {
+    return wrap((String) key, filters.get(key));
+  }
+
+  /**
+   * Does the given filter exist?
+   *
+   * @param key Filter name.
+   *
+   * @return True if the filter exists.
+   */
+  public boolean containsKey(final Object key) {
+    return filters.containsKey(key);
+  }
+
+  /**
+   * Get the number of filters.
+   *
+   * @return Number of filters.
+   */
+  public int size() {
+    return filters.size();
+  }
+
+  /**
+   * Get a view of the memoizing filters.
+   *
+   * @return Set of filter entries.
+   */
+  public Set<Map.Entry<String, Filter.Handler>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Filter.Handler>>() {
+      public int size() {
+        return filters.size();
+      }
+
+      public Iterator<Map.Entry<String, Filter.Handler>> iterator() {
+        final Iterator<Map.Entry<String, Filter.Handler>> it = filters.entrySet().iterator();
+
+        return new Iterator<Map.Entry<String, Filter.Handler>>() {
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          public Map.Entry<String, Filter.Handler> next() {
+            final Map.Entry<String, Filter.Handler> e = it.next();
+            return new AbstractMap.SimpleImmutableEntry<String, Filter.Handler>(
+              e.getKey(),
+              wrap(e.getKey(), e.getValue())
+            );
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Get the statistics of each memoized filter.
+   *
+   * @return Map of filter name to statistics, sorted by name.
+   */
+  public Map<String, MemoStats> stats() {
+    final Map<String, MemoStats> r = new TreeMap<String, MemoStats>();
+    for (final Map.Entry<String, MemoHandler> e: handlers.entrySet())
+      r.put(e.getKey(), e.getValue().stats());
+    return r;
+  }
+
+  /**
+   * Get the statistics of the given memoized filter.
+   *
+   * @param name Filter name.
+   *
+   * @return Filter statistics, or null if the filter has not been used
+   * or is not pure.
+   */
+  public MemoStats stats(final String name) {
+    final MemoHandler h = handlers.get(name);
+    return (h != null) ? h.stats() : null;
+  }
+
+  /**
+   * Remove all memoized results.  The filters themselves are not
+   * changed.
+   */
+  public void invalidateAll() {
+    for (final MemoHandler h: handlers.values())
+      h.clear();
+  }
+
+  /**
+   * Wrap the given handler if it is pure.
+   *
+   * The memoizing handler for each filter is created once and reused
+   * until the filter is replaced in the underlying map.
+   */
+  private Filter.Handler wrap(final String name, final Filter.Handler h) {
+    if (h == null || !Filter.isPure(h) || h instanceof Filter.SequenceHandler || h instanceof MemoHandler)
+      return h;
+
+    // check for existing memo handler
+    MemoHandler r = handlers.get(name);
+    if (r != null && r.handler == h)
+      return r;
+
+    r = new MemoHandler(h, maximumSize, maximumValueLength);
+    handlers.put(name, r);
+    return r;
+  }
+};
@@ -0,0 +1,176 @@
+package org.pablotron.luigi.memo;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.FilterError;
+
+/**
+ * Filter handler which memoizes the results of a pure filter in a
+ * fixed-size, direct-mapped table.
+ *
+ * Each value and argument list maps to one slot, and a new result
+ * replaces whatever was in its slot, so the table never grows.  Slots
+ * hold immutable entries and are read and written without locking; a
+ * racing write only costs a later miss.
+ */
+final class MemoHandler implements Filter.StreamHandler, Filter.Pure {
+  /**
+   * Memoized filter result.
+   */
+  private static final class Entry {
+    private final String val;
+    private final String args[];
+    private final String result;
+
+    private Entry(final String val, final String args[], final String result) {
+      this.val = val;
+      this.args = args;
+      this.result = result;
+    }
+  };
+
+  final Filter.Handler handler;
+  private final Entry[] slots;
+  private final int mask;
+  private final int maximumValueLength;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bypasses = new LongAdder();
+
+  /**
+   * Create a memoizing handler.
+   *
+   * @param handler Pure filter handler.
+   * @param maximumSize Maximum number of memoized results.
+   * @param maximumValueLength Maximum length of memoized values and
+   * results.
+   */
+  MemoHandler(
+    final Filter.Handler handler,
+    final int maximumSize,
+    final int maximumValueLength
+  ) {
+    this.handler = handler;
+    this.maximumValueLength = maximumValueLength;
+
+    // round table size down to a power of two
+    final int size = Integer.highestOneBit(Math.max(1, maximumSize));
+    this.slots = new Entry[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * Apply the filter, returning a memoized result if possible.
+   */
+  public String filter(
+    final String val,
+    final String args[],
+    final Map<String, String> row
+  ) throws FilterError {
+    if (val.length() > maximumValueLength) {
+      bypasses.increment();
+      return handler.filter(val, args, row);
+    }
+
+    // check slot
+    final int i = slot(val, args);
+    final Entry e = slots[i];
+    if (e != null && e.val.equals(val) && (e.args == args || Arrays.equals(e.args, args))) {
+      hits.increment();
+      return e.result;
+    }
+
+    misses.increment();
+    final String r = handler.filter(val, args, row);
+    if (r.length() <= maximumValueLength)
+      slots[i] = new Entry(val, args, r);
+    return r;
+  }
+
+  /**
+   * Apply the filter and write the result to the given output.
+   *
+   * Values which are too large to memoize are passed directly to the
+   * wrapped handler.
+   */
+  public void filter(
+    final String val,
+    final String args[],
+    final Map<String, String> row,
+    final Appendable out
+  ) throws FilterError, IOException {
+    if (val.length() > maximumValueLength) {
+      bypass(val, args, row, out);
+      return;
+    }
+
+    out.append(filter(val, args, row));
+  }
+
+  /**
+   * Apply the filter to a CharSequence value and write the result to
+   * the given output.
+   *
+   * Values which are too large to memoize are passed to the wrapped
+   * handler without converting them to a String.
+   */
+  public void filter(
+    final CharSequence val,
+    final String args[],
+    final Map<String, String> row,
+    final Appendable out
+  ) throws FilterError, IOException {
+    if (val.length() > maximumValueLength) {
+      bypass(val, args, row, out);
+      return;
+    }
+
+    out.append(filter(val.toString(), args, row));
+  }
+
+  /**
+   * Apply the wrapped handler to a value which is too large to memoize
+   * and write the result to the given output, using the streaming or
+   * CharSequence variant of the handler if it has one.
+   */
+  private void bypass(
+    final CharSequence val,
+    final String args[],
+    final Map<String, String> row,
+    final Appendable out
+  ) throws FilterError, IOException {
+    bypasses.increment();
+    if (handler instanceof Filter.StreamHandler) {
+      ((Filter.StreamHandler) handler).filter(val, args, row, out);
+    } else {
+      out.append(Filter.apply(handler, val, args, row));
+    }
+  }
+
+  /**
+   * Get the slot for the given value and filter arguments.
+   */
+  private int slot(final String val, final String args[]) {
+    final int h = val.hashCode() * 31 + Arrays.hashCode(args);
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /**
+   * Get a snapshot of the statistics of this handler.
+   */
+  MemoStats stats() {
+    return new MemoStats(hits.sum(), misses.sum(), bypasses.sum());
+  }
+
+  /**
+   * Remove all memoized results.
+   */
+  void clear() {
+    Arrays.fill(slots, null);
+  }
+};
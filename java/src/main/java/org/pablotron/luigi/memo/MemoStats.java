@@ -0,0 +1,69 @@
+package org.pablotron.luigi.memo;
+
+/**
+ * Snapshot of memoized filter statistics.
+ */
+public final class MemoStats {
+  /**
+   * Number of filter calls answered from the memo cache.
+   */
+  public final long hits;
+
+  /**
+   * Number of filter calls which had to be computed.
+   */
+  public final long misses;
+
+  /**
+   * Number of filter calls which bypassed the memo cache because the
+   * value was too large.
+   */
+  public final long bypasses;
+
+  /**
+   * Create a new statistics snapshot.
+   *
+   * @param hits Number of memo hits.
+   * @param misses Number of memo misses.
+   * @param bypasses Number of calls which bypassed the memo cache.
+   */
+  public MemoStats(
+    final long hits,
+    final long misses,
+    final long bypasses
+  ) {
+    this.hits = hits;
+    this.misses = misses;
+    this.bypasses = bypasses;
+  }
+
+  /**
+   * Get the total number of filter calls.
+   *
+   * @return Sum of hits, misses, and bypasses.
+   */
+  public long calls() {
+    return hits + misses + bypasses;
+  }
+
+  /**
+   * Get the ratio of hits to filter calls.
+   *
+   * @return Hit rate between 0.0 and 1.0, or 0.0 if there have been no
+   * calls.
+   */
+  public double hitRate() {
+    final long n = calls();
+    return (n > 0) ? ((double) hits / n) : 0.0;
+  }
+
+  /**
+   * Return a string representation of this snapshot.
+   */
+  public String toString() {
+    return String.format(
+      "MemoStats{hits=%d, misses=%d, bypasses=%d}",
+      hits, misses, bypasses
+    );
+  }
+};
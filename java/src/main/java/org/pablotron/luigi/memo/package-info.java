@@ -0,0 +1,4 @@
+/**
+ * Memoization of pure filter results.
+ */
+package org.pablotron.luigi.memo;
@@ -0,0 +1,92 @@
+package org.pablotron.luigi.metrics;
+
+import org.pablotron.luigi.metrics.Listener;
+
+/**
+ * Listener which forwards each call to several listeners.
+ */
+final class CompositeListener implements Listener {
+  private final Listener listeners[];
+
+  /**
+   * Create a new composite listener.
+   *
+   * @param listeners Listeners.
+   */
+  CompositeListener(final Listener listeners[]) {
+    this.listeners = listeners;
+  }
+
+  /**
+   * Begin work on each listener.
+   *
+   * @return Array of contexts, one per listener.
+   */
+  public Object begin(final Kind kind) {
+    final Object r[] = new Object[listeners.length];
+    for (int i = 0; i < listeners.length; i++)
+      r[i] = listeners[i].begin(kind);
+    return r;
+  }
+
+  public void parsed(final String name, final int length, final long nanos) {
+    for (final Listener l: listeners)
+      l.parsed(name, length, nanos);
+  }
+
+  public void parsed(final Object context, final String name, final int length, final long nanos) {
+    final Object cs[] = contexts(context);
+    for (int i = 0; i < listeners.length; i++)
+      listeners[i].parsed(cs[i], name, length, nanos);
+  }
+
+  public void rendered(final String name, final int length, final int output_length, final long nanos) {
+    for (final Listener l: listeners)
+      l.rendered(name, length, output_length, nanos);
+  }
+
+  public void rendered(final Object context, final String name, final int length, final int output_length, final long nanos) {
+    final Object cs[] = contexts(context);
+    for (int i = 0; i < listeners.length; i++)
+      listeners[i].rendered(cs[i], name, length, output_length, nanos);
+  }
+
+  public void filtered(final String name, final String filter, final long nanos) {
+    for (final Listener l: listeners)
+      l.filtered(name, filter, nanos);
+  }
+
+  public void filtered(final Object context, final String name, final String filter, final long nanos) {
+    final Object cs[] = contexts(context);
+    for (int i = 0; i < listeners.length; i++)
+      listeners[i].filtered(cs[i], name, filter, nanos);
+  }
+
+  public void cacheHit(final String key) {
+    for (final Listener l: listeners)
+      l.cacheHit(key);
+  }
+
+  public void cacheMiss(final String key, final long nanos) {
+    for (final Listener l: listeners)
+      l.cacheMiss(key, nanos);
+  }
+
+  public void cacheMiss(final Object context, final String key, final long nanos) {
+    final Object cs[] = contexts(context);
+    for (int i = 0; i < listeners.length; i++)
+      listeners[i].cacheMiss(cs[i], key, nanos);
+  }
+
+  /**
+   * Get the per-listener contexts from the given context.
+   *
+   * @param context Context returned by begin(), or null if begin() was
+   * not called.
+   *
+   * @return Array of contexts, one per listener.
+   */
+  private Object[] contexts(final Object context) {
+    return (context instanceof Object[]) ? (Object[]) context : new Object[listeners.length];
+  }
+};
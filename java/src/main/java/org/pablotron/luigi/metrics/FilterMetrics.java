@@ -0,0 +1,66 @@
+package org.pablotron.luigi.metrics;
+
+/**
+ * Snapshot of the call metrics of a single filter.
+ */
+public final class FilterMetrics {
+  private final String name;
+  private final long count;
+  private final long nanos;
+
+  /**
+   * Create a new snapshot.
+   *
+   * @param name Filter name.
+   * @param count Number of calls.
+   * @param nanos Total call time, in nanoseconds.
+   */
+  FilterMetrics(final String name, final long count, final long nanos) {
+    this.name = name;
+    this.count = count;
+    this.nanos = nanos;
+  }
+
+  /**
+   * Get the filter name.
+   *
+   * @return Filter name.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of calls.
+   *
+   * @return Call count.
+   */
+  public long getCallCount() {
+    return count;
+  }
+
+  /**
+   * Get the total call time.
+   *
+   * @return Total call time, in nanoseconds.
+   */
+  public long getCallNanos() {
+    return nanos;
+  }
+
+  /**
+   * Get the mean call time.
+   *
+   * @return Mean call time, in nanoseconds.
+   */
+  public double getMeanNanos() {
+    return (count > 0) ? ((double) nanos / count) : 0;
+  }
+
+  public String toString() {
+    return String.format(
+      "FilterMetrics{name=%s, calls=%d, mean=%.0fns}",
+      name, count, getMeanNanos()
+    );
+  }
+};
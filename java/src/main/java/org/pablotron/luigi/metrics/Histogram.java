@@ -0,0 +1,123 @@
+package org.pablotron.luigi.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Thread-safe histogram of non-negative values with power-of-two
+ * buckets.
+ *
+ * Bucket 0 counts zero, and bucket n counts values between
+ * 2<sup>n-1</sup> and 2<sup>n</sup>-1, so percentiles are accurate to
+ * within a factor of two.  Recording a value never allocates.
+ */
+public final class Histogram {
+  /**
+   * Number of buckets.
+   */
+  private static final int NUM_BUCKETS = 64;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+    public long applyAsLong(final long a, final long b) {
+      return Math.max(a, b);
+    }
+  }, 0);
+
+  /**
+   * Record value.  Negative values are recorded as zero.
+   *
+   * @param val Value.
+   */
+  public void record(final long val) {
+    final long v = Math.max(0, val);
+    buckets.incrementAndGet(Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v)));
+    count.increment();
+    sum.add(v);
+    max.accumulate(v);
+  }
+
+  /**
+   * Get the number of recorded values.
+   *
+   * @return Number of values.
+   */
+  public long count() {
+    return count.sum();
+  }
+
+  /**
+   * Get the sum of recorded values.
+   *
+   * @return Sum of values.
+   */
+  public long sum() {
+    return sum.sum();
+  }
+
+  /**
+   * Get the largest recorded value.
+   *
+   * @return Maximum value, or 0 if no values have been recorded.
+   */
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * Get the mean of the recorded values.
+   *
+   * @return Mean value, or 0 if no values have been recorded.
+   */
+  public double mean() {
+    final long n = count();
+    return (n > 0) ? ((double) sum() / n) : 0;
+  }
+
+  /**
+   * Get an upper bound on the given percentile of the recorded values.
+   *
+   * @param q Percentile, between 0.0 and 1.0.
+   *
+   * @return Upper bound of the bucket containing the percentile, or 0
+   * if no values have been recorded.
+   */
+  public long percentile(final double q) {
+    // count buckets, since count() may be updated separately
+    long n = 0;
+    final long counts[] = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      n += counts[i];
+    }
+
+    if (n == 0)
+      return 0;
+
+    // find bucket containing rank
+    final long rank = Math.max(1, (long) Math.ceil(q * n));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank)
+        return Math.min(max(), (i == 0) ? 0 : (i >= 63) ? Long.MAX_VALUE : ((1L << i) - 1));
+    }
+
+    return max();
+  }
+
+  /**
+   * Clear all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++)
+      buckets.set(i, 0);
+    count.reset();
+    sum.reset();
+    max.reset();
+  }
+};
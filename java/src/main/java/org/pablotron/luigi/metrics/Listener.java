@@ -0,0 +1,206 @@
+package org.pablotron.luigi.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Instrumentation listener for templates and caches.
+ *
+ * Set a listener with Template.Builder.listener() or
+ * Cache.Builder.listener().  Templates without a listener do no
+ * instrumentation work at all.
+ *
+ * Listener methods are called on the thread doing the work, so they
+ * should be fast and must be thread-safe if templates are shared
+ * between threads.  All methods do nothing by default.
+ *
+ * Listeners which need to mark the start of the work (e.g. to record
+ * tracing spans) can override begin().  The value returned by begin()
+ * is passed back as the context of the matching call, which is made
+ * on the same thread once the work is done.  If the work fails, the
+ * matching call may not be made.
+ */
+public interface Listener {
+  /**
+   * Kinds of work reported to a listener.
+   */
+  public static enum Kind {
+    /**
+     * Template creation, reported with parsed().
+     */
+    PARSE,
+
+    /**
+     * Template run, reported with rendered().
+     */
+    RENDER,
+
+    /**
+     * Filter call, reported with filtered().
+     */
+    FILTER,
+
+    /**
+     * Template compile in a cache, reported with cacheMiss().
+     */
+    CACHE_MISS,
+  };
+
+  /**
+   * Called before work of the given kind starts.
+   *
+   * @param kind Kind of work.
+   *
+   * @return Context passed to the matching call, or null.  Returns
+   * null by default.
+   */
+  public default Object begin(final Kind kind) {
+    return null;
+  }
+
+  /**
+   * Called after a template is created (parsed, and linked or compiled
+   * if requested).
+   *
+   * @param name Template name, or null.
+   * @param length Template string length.
+   * @param nanos Time taken, in nanoseconds.
+   */
+  public default void parsed(
+    final String name,
+    final int length,
+    final long nanos
+  ) {}
+
+  /**
+   * Called after a template is created, with the context returned by
+   * begin(Kind.PARSE).  Calls parsed(name, length, nanos) by default.
+   *
+   * @param context Context returned by begin().
+   * @param name Template name, or null.
+   * @param length Template string length.
+   * @param nanos Time taken, in nanoseconds.
+   */
+  public default void parsed(
+    final Object context,
+    final String name,
+    final int length,
+    final long nanos
+  ) {
+    parsed(name, length, nanos);
+  }
+
+  /**
+   * Called after a template run.
+   *
+   * @param name Template name, or null.
+   * @param length Template string length.
+   * @param output_length Number of characters written.
+   * @param nanos Time taken, in nanoseconds.
+   */
+  public default void rendered(
+    final String name,
+    final int length,
+    final int output_length,
+    final long nanos
+  ) {}
+
+  /**
+   * Called after a template run, with the context returned by
+   * begin(Kind.RENDER).  Calls rendered(name, length, output_length,
+   * nanos) by default.
+   *
+   * @param context Context returned by begin().
+   * @param name Template name, or null.
+   * @param length Template string length.
+   * @param output_length Number of characters written.
+   * @param nanos Time taken, in nanoseconds.
+   */
+  public default void rendered(
+    final Object context,
+    final String name,
+    final int length,
+    final int output_length,
+    final long nanos
+  ) {
+    rendered(name, length, output_length, nanos);
+  }
+
+  /**
+   * Called after each filter call.
+   *
+   * @param name Template name, or null.
+   * @param filter Filter name.
+   * @param nanos Time taken, in nanoseconds.
+   */
+  public default void filtered(
+    final String name,
+    final String filter,
+    final long nanos
+  ) {}
+
+  /**
+   * Called after each filter call, with the context returned by
+   * begin(Kind.FILTER).  Calls filtered(name, filter, nanos) by
+   * default.
+   *
+   * @param context Context returned by begin().
+   * @param name Template name, or null.
+   * @param filter Filter name.
+   * @param nanos Time taken, in nanoseconds.
+   */
+  public default void filtered(
+    final Object context,
+    final String name,
+    final String filter,
+    final long nanos
+  ) {
+    filtered(name, filter, nanos);
+  }
+
+  /**
+   * Called when a cache request finds a compiled template.
+   *
+   * @param key Template key.
+   */
+  public default void cacheHit(final String key) {}
+
+  /**
+   * Called when a cache request compiles a template.
+   *
+   * @param key Template key.
+   * @param nanos Compile time, in nanoseconds.
+   */
+  public default void cacheMiss(
+    final String key,
+    final long nanos
+  ) {}
+
+  /**
+   * Called when a cache request compiles a template, with the context
+   * returned by begin(Kind.CACHE_MISS).  Calls cacheMiss(key, nanos)
+   * by default.
+   *
+   * @param context Context returned by begin().
+   * @param key Template key.
+   * @param nanos Compile time, in nanoseconds.
+   */
+  public default void cacheMiss(
+    final Object context,
+    final String key,
+    final long nanos
+  ) {
+    cacheMiss(key, nanos);
+  }
+
+  /**
+   * Create a listener which forwards each call to all of the given
+   * listeners, in order.
+   *
+   * @param listeners Listeners.
+   *
+   * @return Composite listener.
+   */
+  public static Listener of(final Listener... listeners) {
+    return new CompositeListener(Arrays.copyOf(listeners, listeners.length));
+  }
+};
@@ -0,0 +1,165 @@
+package org.pablotron.luigi.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Listener which aggregates template metrics in memory.
+ *
+ * Records render count, latency histogram, and output size per
+ * template name, call count and time per filter name, parse time, and
+ * cache hits and misses.  Unnamed templates are recorded under the
+ * empty name.  Call register() to expose the metrics through JMX.
+ */
+public final class Metrics implements Listener, MetricsMXBean {
+  /**
+   * Render counters for a single template.
+   */
+  private static final class TemplateCounters {
+    private final Histogram latency = new Histogram();
+    private final LongAdder output = new LongAdder();
+  };
+
+  /**
+   * Call counters for a single filter.
+   */
+  private static final class FilterCounters {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+  };
+
+  /**
+   * Create template counters.
+   */
+  private static final Function<String, TemplateCounters> NEW_TEMPLATE = new Function<String, TemplateCounters>() {
+    public TemplateCounters apply(final String key) {
+      return new TemplateCounters();
+    }
+  };
+
+  /**
+   * Create filter counters.
+   */
+  private static final Function<String, FilterCounters> NEW_FILTER = new Function<String, FilterCounters>() {
+    public FilterCounters apply(final String key) {
+      return new FilterCounters();
+    }
+  };
+
+  private final ConcurrentHashMap<String, TemplateCounters> templates = new ConcurrentHashMap<String, TemplateCounters>();
+  private final ConcurrentHashMap<String, FilterCounters> filters = new ConcurrentHashMap<String, FilterCounters>();
+  private final LongAdder parses = new LongAdder();
+  private final LongAdder parseNanos = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  public void parsed(final String name, final int length, final long nanos) {
+    parses.increment();
+    parseNanos.add(nanos);
+  }
+
+  public void rendered(final String name, final int length, final int output_length, final long nanos) {
+    final String key = (name != null) ? name : "";
+    TemplateCounters c = templates.get(key);
+    if (c == null)
+      c = templates.computeIfAbsent(key, NEW_TEMPLATE);
+
+    c.latency.record(nanos);
+    c.output.add(output_length);
+  }
+
+  public void filtered(final String name, final String filter, final long nanos) {
+    FilterCounters c = filters.get(filter);
+    if (c == null)
+      c = filters.computeIfAbsent(filter, NEW_FILTER);
+
+    c.count.increment();
+    c.nanos.add(nanos);
+  }
+
+  public void cacheHit(final String key) {
+    hits.increment();
+  }
+
+  public void cacheMiss(final String key, final long nanos) {
+    misses.increment();
+  }
+
+  public long getParseCount() {
+    return parses.sum();
+  }
+
+  public long getParseNanos() {
+    return parseNanos.sum();
+  }
+
+  public long getCacheHits() {
+    return hits.sum();
+  }
+
+  public long getCacheMisses() {
+    return misses.sum();
+  }
+
+  public double getCacheHitRate() {
+    final long h = getCacheHits();
+    final long n = h + getCacheMisses();
+    return (n > 0) ? ((double) h / n) : 1.0;
+  }
+
+  public Map<String, TemplateMetrics> getTemplates() {
+    final Map<String, TemplateMetrics> r = new TreeMap<String, TemplateMetrics>();
+    for (final Map.Entry<String, TemplateCounters> e: templates.entrySet())
+      r.put(e.getKey(), new TemplateMetrics(e.getKey(), e.getValue().latency, e.getValue().output.sum()));
+    return r;
+  }
+
+  public Map<String, FilterMetrics> getFilters() {
+    final Map<String, FilterMetrics> r = new TreeMap<String, FilterMetrics>();
+    for (final Map.Entry<String, FilterCounters> e: filters.entrySet())
+      r.put(e.getKey(), new FilterMetrics(e.getKey(), e.getValue().count.sum(), e.getValue().nanos.sum()));
+    return r;
+  }
+
+  public void reset() {
+    templates.clear();
+    filters.clear();
+    parses.reset();
+    parseNanos.reset();
+    hits.reset();
+    misses.reset();
+  }
+
+  /**
+   * Register these metrics with the platform MBean server as
+   * <code>org.pablotron.luigi:type=Metrics,name=NAME</code>.
+   *
+   * @param name Metrics name (e.g. the application or cache name).
+   *
+   * @return Registered object name.
+   *
+   * @throws JMException If the name is invalid or already registered.
+   */
+  public ObjectName register(final String name) throws JMException {
+    final ObjectName r = new ObjectName("org.pablotron.luigi:type=Metrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, r);
+    return r;
+  }
+
+  /**
+   * Unregister these metrics from the platform MBean server.
+   *
+   * @param name Object name returned by register().
+   *
+   * @throws JMException If the name is not registered.
+   */
+  public void unregister(final ObjectName name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+  }
+};
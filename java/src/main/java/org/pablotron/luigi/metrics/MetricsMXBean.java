@@ -0,0 +1,65 @@
+package org.pablotron.luigi.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface for template metrics.
+ *
+ * @see Metrics#register(String)
+ */
+public interface MetricsMXBean {
+  /**
+   * Get the number of templates created.
+   *
+   * @return Parse count.
+   */
+  public long getParseCount();
+
+  /**
+   * Get the total time spent creating templates.
+   *
+   * @return Total parse time, in nanoseconds.
+   */
+  public long getParseNanos();
+
+  /**
+   * Get the number of cache requests which found a compiled template.
+   *
+   * @return Cache hit count.
+   */
+  public long getCacheHits();
+
+  /**
+   * Get the number of cache requests which compiled a template.
+   *
+   * @return Cache miss count.
+   */
+  public long getCacheMisses();
+
+  /**
+   * Get the ratio of cache hits to cache requests.
+   *
+   * @return Hit rate between 0.0 and 1.0, or 1.0 if there have been no
+   * requests.
+   */
+  public double getCacheHitRate();
+
+  /**
+   * Get render metrics for each template, by template name.
+   *
+   * @return Map of template name to template metrics.
+   */
+  public Map<String, TemplateMetrics> getTemplates();
+
+  /**
+   * Get call metrics for each filter, by filter name.
+   *
+   * @return Map of filter name to filter metrics.
+   */
+  public Map<String, FilterMetrics> getFilters();
+
+  /**
+   * Clear all metrics.
+   */
+  public void reset();
+};
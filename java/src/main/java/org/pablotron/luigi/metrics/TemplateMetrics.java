@@ -0,0 +1,119 @@
+package org.pablotron.luigi.metrics;
+
+/**
+ * Snapshot of the render metrics of a single template.
+ */
+public final class TemplateMetrics {
+  private final String name;
+  private final long count;
+  private final long nanos;
+  private final long p50;
+  private final long p99;
+  private final long max;
+  private final long output;
+
+  /**
+   * Create a new snapshot.
+   *
+   * @param name Template name.
+   * @param latency Render latency histogram, in nanoseconds.
+   * @param output Total number of characters written.
+   */
+  TemplateMetrics(final String name, final Histogram latency, final long output) {
+    this.name = name;
+    this.count = latency.count();
+    this.nanos = latency.sum();
+    this.p50 = latency.percentile(0.5);
+    this.p99 = latency.percentile(0.99);
+    this.max = latency.max();
+    this.output = output;
+  }
+
+  /**
+   * Get the template name.
+   *
+   * @return Template name (empty for unnamed templates).
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Get the number of renders.
+   *
+   * @return Render count.
+   */
+  public long getRenderCount() {
+    return count;
+  }
+
+  /**
+   * Get the total render time.
+   *
+   * @return Total render time, in nanoseconds.
+   */
+  public long getRenderNanos() {
+    return nanos;
+  }
+
+  /**
+   * Get the mean render time.
+   *
+   * @return Mean render time, in nanoseconds.
+   */
+  public double getMeanNanos() {
+    return (count > 0) ? ((double) nanos / count) : 0;
+  }
+
+  /**
+   * Get an upper bound on the median render time.
+   *
+   * @return Median render time, in nanoseconds.
+   */
+  public long getP50Nanos() {
+    return p50;
+  }
+
+  /**
+   * Get an upper bound on the 99th percentile render time.
+   *
+   * @return 99th percentile render time, in nanoseconds.
+   */
+  public long getP99Nanos() {
+    return p99;
+  }
+
+  /**
+   * Get the longest render time.
+   *
+   * @return Maximum render time, in nanoseconds.
+   */
+  public long getMaxNanos() {
+    return max;
+  }
+
+  /**
+   * Get the total output size.
+   *
+   * @return Total number of characters written.
+   */
+  public long getOutputChars() {
+    return output;
+  }
+
+  /**
+   * Get the mean output size.
+   *
+   * @return Mean number of characters written per render.
+   */
+  public double getMeanOutputChars() {
+    return (count > 0) ? ((double) output / count) : 0;
+  }
+
+  public String toString() {
+    return String.format(
+      "TemplateMetrics{name=%s, renders=%d, mean=%.0fns, p50=%dns, p99=%dns, max=%dns, output=%d}",
+      name, count, getMeanNanos(), p50, p99, max, output
+    );
+  }
+};
@@ -0,0 +1,304 @@
+package org.pablotron.luigi.metrics;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.FilterError;
+
+/**
+ * Filter map view which times each filter call and reports it to a
+ * listener.
+ */
+public final class TimedFilters extends AbstractMap<String, Filter.Handler> {
+  private final Map<String, Filter.Handler> filters;
+  private final String name;
+  private final Listener listener;
+
+  /**
+   * Timed handlers, by filter name.
+   */
+  private final ConcurrentHashMap<String, Timed> handlers = new ConcurrentHashMap<String, Timed>();
+
+  /**
+   * Create a timed view of the given filter map.
+   *
+   * Handlers are wrapped when they are looked up, so later changes to
+   * the filter map are visible through the view.  Stream and sequence
+   * handlers are wrapped as stream and sequence handlers, and the
+   * Filter.Pure and Filter.Volatile markers are kept.
+   *
+   * @param filters Filter map.
+   * @param name Template name, or null.
+   * @param listener Listener to report filter calls to.
+   */
+  public TimedFilters(
+    final Map<String, Filter.Handler> filters,
+    final String name,
+    final Listener listener
+  ) {
+    this.filters = filters;
+    this.name = name;
+    this.listener = listener;
+  }
+
+  /**
+   * Get the timed handler for the given filter.
+   *
+   * @param key Filter name.
+   *
+   * @return Timed handler, or null if the filter does not exist.
+   */
+  public Filter.Handler get(final Object key) {
+    return wrap((String) key, filters.get(key));
+  }
+
+  /**
+   * Does the given filter exist?
+   *
+   * @param key Filter name.
+   *
+   * @return True if the filter exists.
+   */
+  public boolean containsKey(final Object key) {
+    return filters.containsKey(key);
+  }
+
+  /**
+   * Get the number of filters.
+   *
+   * @return Number of filters.
+   */
+  public int size() {
+    return filters.size();
+  }
+
+  /**
+   * Get a view of the timed filters.
+   *
+   * @return Set of filter entries.
+   */
+  public Set<Map.Entry<String, Filter.Handler>> entrySet() {
+    return new AbstractSet<Map.Entry<String, Filter.Handler>>() {
+      public int size() {
+        return filters.size();
+      }
+
+      public Iterator<Map.Entry<String, Filter.Handler>> iterator() {
+        final Iterator<Map.Entry<String, Filter.Handler>> it = filters.entrySet().iterator();
+
+        return new Iterator<Map.Entry<String, Filter.Handler>>() {
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          public Map.Entry<String, Filter.Handler> next() {
+            final Map.Entry<String, Filter.Handler> e = it.next();
+            return new AbstractMap.SimpleImmutableEntry<String, Filter.Handler>(
+              e.getKey(),
+              wrap(e.getKey(), e.getValue())
+            );
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Wrap the given handler.
+   *
+   * The timed handler for each filter is created once and reused until
+   * the filter is replaced in the underlying map.
+   */
+  private Filter.Handler wrap(final String filter, final Filter.Handler h) {
+    if (h == null)
+      return null;
+
+    // check for existing timed handler
+    final Timed r = handlers.get(filter);
+    if (r != null && r.handler == h)
+      return r;
+
+    final Timed t = create(filter, h);
+    handlers.put(filter, t);
+    return t;
+  }
+
+  /**
+   * Create a timed handler with the same handler interface and markers
+   * (Filter.Pure, Filter.Volatile) as the given handler.
+   */
+  private Timed create(final String filter, final Filter.Handler h) {
+    final boolean is_pure = Filter.isPure(h);
+    final boolean is_volatile = Filter.isVolatile(h);
+
+    if (h instanceof Filter.StreamHandler) {
+      final Filter.StreamHandler sh = (Filter.StreamHandler) h;
+      if (is_pure)
+        return new PureTimedStreamHandler(filter, sh);
+      if (is_volatile)
+        return new VolatileTimedStreamHandler(filter, sh);
+      return new TimedStreamHandler(filter, sh);
+    }
+
+    if (h instanceof Filter.SequenceHandler) {
+      final Filter.SequenceHandler sh = (Filter.SequenceHandler) h;
+      if (is_pure)
+        return new PureTimedSequenceHandler(filter, sh);
+      if (is_volatile)
+        return new VolatileTimedSequenceHandler(filter, sh);
+      return new TimedSequenceHandler(filter, sh);
+    }
+
+    if (is_pure)
+      return new PureTimedHandler(filter, h);
+    if (is_volatile)
+      return new VolatileTimedHandler(filter, h);
+    return new TimedHandler(filter, h);
+  }
+
+  /**
+   * Base class for timed handlers.
+   */
+  private abstract class Timed implements Filter.Handler {
+    final String filter;
+    final Filter.Handler handler;
+
+    private Timed(final String filter, final Filter.Handler handler) {
+      this.filter = filter;
+      this.handler = handler;
+    }
+
+    public String filter(
+      final String val,
+      final String args[],
+      final Map<String, String> row
+    ) throws FilterError {
+      final Object ctx = listener.begin(Listener.Kind.FILTER);
+      final long t0 = System.nanoTime();
+      try {
+        return handler.filter(val, args, row);
+      } finally {
+        listener.filtered(ctx, name, filter, System.nanoTime() - t0);
+      }
+    }
+  };
+
+  /**
+   * Timed filter handler.
+   */
+  private class TimedHandler extends Timed {
+    private TimedHandler(final String filter, final Filter.Handler handler) {
+      super(filter, handler);
+    }
+  };
+
+  private final class PureTimedHandler extends TimedHandler implements Filter.Pure {
+    private PureTimedHandler(final String filter, final Filter.Handler handler) {
+      super(filter, handler);
+    }
+  };
+
+  private final class VolatileTimedHandler extends TimedHandler implements Filter.Volatile {
+    private VolatileTimedHandler(final String filter, final Filter.Handler handler) {
+      super(filter, handler);
+    }
+  };
+
+  /**
+   * Timed stream filter handler.
+   */
+  private class TimedStreamHandler extends Timed implements Filter.StreamHandler {
+    private final Filter.StreamHandler stream;
+
+    private TimedStreamHandler(final String filter, final Filter.StreamHandler handler) {
+      super(filter, handler);
+      this.stream = handler;
+    }
+
+    public void filter(
+      final String val,
+      final String args[],
+      final Map<String, String> row,
+      final Appendable out
+    ) throws FilterError, IOException {
+      final Object ctx = listener.begin(Listener.Kind.FILTER);
+      final long t0 = System.nanoTime();
+      try {
+        stream.filter(val, args, row, out);
+      } finally {
+        listener.filtered(ctx, name, filter, System.nanoTime() - t0);
+      }
+    }
+
+    public void filter(
+      final CharSequence val,
+      final String args[],
+      final Map<String, String> row,
+      final Appendable out
+    ) throws FilterError, IOException {
+      final Object ctx = listener.begin(Listener.Kind.FILTER);
+      final long t0 = System.nanoTime();
+      try {
+        stream.filter(val, args, row, out);
+      } finally {
+        listener.filtered(ctx, name, filter, System.nanoTime() - t0);
+      }
+    }
+  };
+
+  private final class PureTimedStreamHandler extends TimedStreamHandler implements Filter.Pure {
+    private PureTimedStreamHandler(final String filter, final Filter.StreamHandler handler) {
+      super(filter, handler);
+    }
+  };
+
+  private final class VolatileTimedStreamHandler extends TimedStreamHandler implements Filter.Volatile {
+    private VolatileTimedStreamHandler(final String filter, final Filter.StreamHandler handler) {
+      super(filter, handler);
+    }
+  };
+
+  /**
+   * Timed sequence filter handler.
+   */
+  private class TimedSequenceHandler extends Timed implements Filter.SequenceHandler {
+    private final Filter.SequenceHandler sequence;
+
+    private TimedSequenceHandler(final String filter, final Filter.SequenceHandler handler) {
+      super(filter, handler);
+      this.sequence = handler;
+    }
+
+    public CharSequence filter(
+      final CharSequence val,
+      final String args[],
+      final Map<String, String> row
+    ) throws FilterError {
+      final Object ctx = listener.begin(Listener.Kind.FILTER);
+      final long t0 = System.nanoTime();
+      try {
+        return sequence.filter(val, args, row);
+      } finally {
+        listener.filtered(ctx, name, filter, System.nanoTime() - t0);
+      }
+    }
+  };
+
+  private final class PureTimedSequenceHandler extends TimedSequenceHandler implements Filter.Pure {
+    private PureTimedSequenceHandler(final String filter, final Filter.SequenceHandler handler) {
+      super(filter, handler);
+    }
+  };
+
+  private final class VolatileTimedSequenceHandler extends TimedSequenceHandler implements Filter.Volatile {
+    private VolatileTimedSequenceHandler(final String filter, final Filter.SequenceHandler handler) {
+      super(filter, handler);
+    }
+  };
+};
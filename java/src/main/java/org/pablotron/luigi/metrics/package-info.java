@@ -0,0 +1,4 @@
+/**
+ * Template instrumentation: listeners, metrics, and the metrics MBean.
+ */
+package org.pablotron.luigi.metrics;
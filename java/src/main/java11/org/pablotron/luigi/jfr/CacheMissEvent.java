@@ -0,0 +1,24 @@
+package org.pablotron.luigi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Template compiled by a cache request.
+ */
+@Name("org.pablotron.luigi.CacheMiss")
+@Label("Template Cache Miss")
+@Description("Template compiled by a cache request.")
+@Category("Luigi Template")
+@StackTrace(false)
+final class CacheMissEvent extends Event {
+  /**
+   * Template name (e.g. the cache key).
+   */
+  @Label("Template Key")
+  String key;
+};
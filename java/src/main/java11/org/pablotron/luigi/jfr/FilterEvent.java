@@ -0,0 +1,30 @@
+package org.pablotron.luigi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Filter call which exceeded the filter threshold.
+ */
+@Name("org.pablotron.luigi.Filter")
+@Label("Slow Template Filter")
+@Description("Filter call which exceeded the filter threshold.")
+@Category("Luigi Template")
+@StackTrace(false)
+final class FilterEvent extends Event {
+  /**
+   * Template name (e.g. the cache key).
+   */
+  @Label("Template Key")
+  String key;
+
+  /**
+   * Filter name.
+   */
+  @Label("Filter")
+  String filter;
+};
@@ -0,0 +1,206 @@
+package org.pablotron.luigi.jfr;
+
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Event;
+
+import org.pablotron.luigi.metrics.Listener;
+
+/**
+ * Listener which emits Java Flight Recorder events.
+ *
+ * Emits an event for each template parse, template run, cache miss,
+ * and filter call which takes at least as long as the threshold for
+ * that kind of event.  Each event begins when the work starts and ends
+ * when it finishes, so events line up with other recorded events (e.g.
+ * GC pauses) and the thresholds in the recording settings also
+ * apply.  Events are named
+ * <code>org.pablotron.luigi.Parse</code>,
+ * <code>org.pablotron.luigi.Render</code>,
+ * <code>org.pablotron.luigi.CacheMiss</code>, and
+ * <code>org.pablotron.luigi.Filter</code>, and can also be enabled or
+ * disabled in the recording settings.
+ *
+ * Use Listener.of() to combine this listener with a Metrics instance.
+ */
+public final class JfrListener implements Listener {
+  /**
+   * JFR listener builder.
+   */
+  public static final class Builder {
+    private long parse = 0;
+    private long render = 0;
+    private long miss = 0;
+    private long filter = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Set the minimum duration of parse events.  Defaults to 0.
+     *
+     * @param time Threshold.
+     * @param unit Threshold unit.
+     *
+     * @return This builder.
+     */
+    public Builder parseThreshold(final long time, final TimeUnit unit) {
+      this.parse = unit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * Set the minimum duration of render events.  Defaults to 0.
+     *
+     * @param time Threshold.
+     * @param unit Threshold unit.
+     *
+     * @return This builder.
+     */
+    public Builder renderThreshold(final long time, final TimeUnit unit) {
+      this.render = unit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * Set the minimum duration of cache miss events.  Defaults to 0.
+     *
+     * @param time Threshold.
+     * @param unit Threshold unit.
+     *
+     * @return This builder.
+     */
+    public Builder cacheMissThreshold(final long time, final TimeUnit unit) {
+      this.miss = unit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * Set the minimum duration of filter events.  Defaults to 1
+     * millisecond, so only slow filter calls are recorded.
+     *
+     * @param time Threshold.
+     * @param unit Threshold unit.
+     *
+     * @return This builder.
+     */
+    public Builder filterThreshold(final long time, final TimeUnit unit) {
+      this.filter = unit.toNanos(time);
+      return this;
+    }
+
+    /**
+     * Create a new JfrListener from this builder.
+     *
+     * @return New JfrListener instance.
+     */
+    public JfrListener build() {
+      return new JfrListener(this);
+    }
+  };
+
+  private final long parse;
+  private final long render;
+  private final long miss;
+  private final long filter;
+
+  /**
+   * Create a new JFR listener from the given builder.
+   *
+   * @param b JFR listener builder.
+   */
+  private JfrListener(final Builder b) {
+    this.parse = b.parse;
+    this.render = b.render;
+    this.miss = b.miss;
+    this.filter = b.filter;
+  }
+
+  /**
+   * Create a new JFR listener with the default thresholds.
+   */
+  public JfrListener() {
+    this(new Builder());
+  }
+
+  /**
+   * Create and begin an event of the given kind, if that kind of event
+   * is enabled.
+   *
+   * @return Event, or null if events of the given kind are disabled.
+   */
+  public Object begin(final Kind kind) {
+    final Event e;
+    switch (kind) {
+    case PARSE:
+      e = new ParseEvent();
+      break;
+    case RENDER:
+      e = new RenderEvent();
+      break;
+    case FILTER:
+      e = new FilterEvent();
+      break;
+    case CACHE_MISS:
+      e = new CacheMissEvent();
+      break;
+    default:
+      return null;
+    }
+
+    if (!e.isEnabled())
+      return null;
+
+    e.begin();
+    return e;
+  }
+
+  /**
+   * End the given event, and check whether it should be committed.
+   *
+   * @param e Event returned by begin(), or null.
+   * @param nanos Time taken, in nanoseconds.
+   * @param threshold Threshold of this listener, in nanoseconds.
+   *
+   * @return True if the event should be committed.
+   */
+  private static boolean end(final Event e, final long nanos, final long threshold) {
+    if (e == null || nanos < threshold)
+      return false;
+
+    e.end();
+    return e.shouldCommit();
+  }
+
+  public void parsed(final Object context, final String name, final int length, final long nanos) {
+    if (context instanceof ParseEvent && end((ParseEvent) context, nanos, parse)) {
+      final ParseEvent e = (ParseEvent) context;
+      e.key = name;
+      e.templateLength = length;
+      e.commit();
+    }
+  }
+
+  public void rendered(final Object context, final String name, final int length, final int output_length, final long nanos) {
+    if (context instanceof RenderEvent && end((RenderEvent) context, nanos, render)) {
+      final RenderEvent e = (RenderEvent) context;
+      e.key = name;
+      e.templateLength = length;
+      e.outputLength = output_length;
+      e.commit();
+    }
+  }
+
+  public void filtered(final Object context, final String name, final String filter, final long nanos) {
+    if (context instanceof FilterEvent && end((FilterEvent) context, nanos, this.filter)) {
+      final FilterEvent e = (FilterEvent) context;
+      e.key = name;
+      e.filter = filter;
+      e.commit();
+    }
+  }
+
+  public void cacheMiss(final Object context, final String key, final long nanos) {
+    if (context instanceof CacheMissEvent && end((CacheMissEvent) context, nanos, miss)) {
+      final CacheMissEvent e = (CacheMissEvent) context;
+      e.key = key;
+      e.commit();
+    }
+  }
+};
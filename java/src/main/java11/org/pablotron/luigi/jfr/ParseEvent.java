@@ -0,0 +1,30 @@
+package org.pablotron.luigi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Template created (parsed, and linked or compiled if requested).
+ */
+@Name("org.pablotron.luigi.Parse")
+@Label("Template Parse")
+@Description("Template created (parsed, and linked or compiled if requested).")
+@Category("Luigi Template")
+@StackTrace(false)
+final class ParseEvent extends Event {
+  /**
+   * Template name (e.g. the cache key).
+   */
+  @Label("Template Key")
+  String key;
+
+  /**
+   * Template string length.
+   */
+  @Label("Template Length")
+  int templateLength;
+};
@@ -0,0 +1,36 @@
+package org.pablotron.luigi.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Template run.
+ */
+@Name("org.pablotron.luigi.Render")
+@Label("Template Render")
+@Description("Template run.")
+@Category("Luigi Template")
+@StackTrace(false)
+final class RenderEvent extends Event {
+  /**
+   * Template name (e.g. the cache key).
+   */
+  @Label("Template Key")
+  String key;
+
+  /**
+   * Template string length.
+   */
+  @Label("Template Length")
+  int templateLength;
+
+  /**
+   * Number of characters written.
+   */
+  @Label("Output Length")
+  int outputLength;
+};
@@ -0,0 +1,8 @@
+/**
+ * Java Flight Recorder events for template parsing and rendering.
+ *
+ * The classes in this package require the jdk.jfr module, so they are
+ * only built on JDK 11 and later (see the jfr profile in pom.xml).  The
+ * rest of the library still builds and runs on Java 8.
+ */
+package org.pablotron.luigi.jfr;
@@ -0,0 +1,67 @@
+package org.pablotron.luigi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pablotron.luigi.Literals;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.actions.TextAction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks sharing of text literals through the package-private pool.
+ */
+public final class LiteralsPoolTest {
+  private static final String HEADER = "<header>shared</header>";
+
+  private static final Map<String, String> ARGS = new HashMap<String, String>() {{
+    put("a", "a");
+    put("b", "b");
+  }};
+
+  @Test
+  public void testShared() throws Exception {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE }) {
+      final Literals literals = new Literals();
+      final Template a = new Template.Builder(HEADER + "%{a}").flags(flags).literals(literals).build();
+      final Template b = new Template.Builder(HEADER + "%{b}").flags(flags).literals(literals).build();
+
+      // both templates share one header literal
+      assertEquals(1, literals.size());
+      final TextAction copy = new TextAction(HEADER);
+      final TextAction shared = literals.intern(copy);
+      assertNotSame(copy, shared);
+      assertSame(shared, literals.intern(new TextAction(HEADER)));
+
+      assertEquals(HEADER + "a", a.run(ARGS));
+      assertEquals(HEADER + "b", b.run(ARGS));
+    }
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    final Map<String, String> strings = new HashMap<String, String>();
+    for (int i = 0; i < 10; i++)
+      strings.put("t" + i, HEADER + "%{a}" + i + HEADER);
+
+    final Cache cache = new Cache.Builder(strings).build();
+    cache.warm();
+
+    // header, plus one tail literal per template
+    assertEquals(11, cache.literals().size());
+  }
+
+  @Test
+  public void testCompact() throws Exception {
+    final Literals literals = new Literals();
+    final Template a = new Template.Builder(HEADER + "%{a}").flags(Template.COMPACT).literals(literals).build();
+
+    // compact templates copy their text, so nothing is interned
+    assertEquals(0, literals.size());
+    assertEquals(HEADER + "a", a.run(ARGS));
+  }
+};
@@ -0,0 +1,46 @@
+package org.pablotron.luigi.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pablotron.luigi.cache.FrequencySketch;
+import org.pablotron.luigi.cache.TinyLfuPolicy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the package-private frequency sketch and the capacity split
+ * of the W-TinyLFU policy.
+ */
+public final class FrequencySketchTest {
+  @Test
+  public void testGrowKeepsCounts() {
+    final FrequencySketch sketch = new FrequencySketch();
+    for (int i = 0; i < 5; i++)
+      sketch.increment("hot");
+    sketch.increment("warm");
+
+    sketch.ensureCapacity(1 << 12);
+
+    // counts are estimates, but never below the true count
+    assertTrue(sketch.frequency("hot") >= 5);
+    assertTrue(sketch.frequency("warm") >= 1);
+    assertTrue(sketch.frequency("hot") > sketch.frequency("warm"));
+  }
+
+  @Test
+  public void testLargeCapacity() {
+    final TinyLfuPolicy policy = new TinyLfuPolicy(Long.MAX_VALUE);
+    final List<String> evicted = new ArrayList<String>();
+
+    for (int i = 0; i < 100; i++)
+      policy.add("key-" + i, Long.MAX_VALUE / 1000, evicted);
+    for (int i = 0; i < 100; i++)
+      policy.access("key-" + i);
+
+    assertEquals(0, evicted.size());
+    assertEquals(100 * (Long.MAX_VALUE / 1000), policy.weight());
+  }
+};
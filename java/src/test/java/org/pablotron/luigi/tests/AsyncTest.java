@@ -0,0 +1,95 @@
+package org.pablotron.luigi.tests;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.UnknownKeyError;
+import org.pablotron.luigi.errors.UnknownTemplateError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class AsyncTest {
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("foo", "foo%{bar | slow | uc}");
+    put("missing", "%{unknown-key}");
+  }};
+
+  private static final Map<String, Filter.Handler> FILTERS = new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+    put("slow", new Filter.Handler() {
+      public String filter(String val, String args[], Map<String, String> row) {
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+
+        return val;
+      }
+    });
+  }};
+
+  private static Map<String, String> args(final int i) {
+    final Map<String, String> r = new HashMap<String, String>();
+    r.put("bar", "bar" + i);
+    return r;
+  }
+
+  @Test
+  public void testRunAsync() throws Exception {
+    final Cache cache = new Cache.Builder(STRINGS)
+      .filters(FILTERS)
+      .concurrent(true)
+      .build();
+
+    // many blocking renders at once
+    final List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+    for (int i = 0; i < 200; i++)
+      futures.add(cache.runAsync("foo", args(i)));
+
+    for (int i = 0; i < 200; i++)
+      assertEquals("fooBAR" + i, futures.get(i).get());
+  }
+
+  @Test
+  public void testRunAsyncExecutor() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      final Cache cache = new Cache.Builder(STRINGS)
+        .filters(FILTERS)
+        .executor(executor)
+        .build();
+
+      assertEquals("fooBAR1", cache.runAsync("foo", args(1)).get());
+      assertEquals("fooBAR2", cache.runAsync("foo", args(2), executor).get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testRunAsyncErrors() throws Exception {
+    final Cache cache = new Cache(STRINGS, FILTERS);
+
+    final ExecutionException unknown_template = assertThrows(ExecutionException.class, () -> {
+      cache.runAsync("unknown-template", args(1)).get();
+    });
+    assertTrue(unknown_template.getCause() instanceof UnknownTemplateError);
+
+    final ExecutionException unknown_key = assertThrows(ExecutionException.class, () -> {
+      cache.runAsync("missing", args(1)).get();
+    });
+    assertTrue(unknown_key.getCause() instanceof UnknownKeyError);
+  }
+};
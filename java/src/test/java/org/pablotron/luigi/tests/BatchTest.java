@@ -0,0 +1,113 @@
+package org.pablotron.luigi.tests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public final class BatchTest {
+  private static final List<Map<String, String>> ROWS = Arrays.asList(
+    new HashMap<String, String>() {{
+      put("name", "alice");
+      put("id", "1");
+    }},
+
+    new HashMap<String, String>() {{
+      put("name", "bob");
+      put("id", "2");
+    }},
+
+    new HashMap<String, String>() {{
+      put("name", "<carol>");
+      put("id", "3");
+    }}
+  );
+
+  private static final String TEMPLATE = "%{id},%{name | uc | h}";
+
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("row", TEMPLATE);
+  }};
+
+  @Test
+  public void testRunAll() throws LuigiError, IOException {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE }) {
+      final Template t = new Template(TEMPLATE, Filter.FILTERS, flags);
+      final StringBuilder sb = new StringBuilder();
+
+      t.runAll(ROWS, new TestResultHandler(sb));
+      assertEquals("1,ALICE2,BOB3,&lt;CAROL&gt;", sb.toString());
+    }
+  }
+
+  @Test
+  public void testRunAllSeparator() throws LuigiError, IOException {
+    final Template t = new Template(TEMPLATE);
+    final StringBuilder sb = new StringBuilder();
+
+    t.runAll(ROWS, "\n", new TestResultHandler(sb));
+    assertEquals("1,ALICE\n2,BOB\n3,&lt;CAROL&gt;", sb.toString());
+  }
+
+  @Test
+  public void testRunAllEmpty() throws LuigiError, IOException {
+    final Template t = new Template(TEMPLATE);
+    final StringBuilder sb = new StringBuilder();
+
+    t.runAll(Collections.<Map<String, String>>emptyList(), "\n", new TestResultHandler(sb));
+    assertEquals("", sb.toString());
+  }
+
+  @Test
+  public void testRunAllHandler() throws LuigiError, IOException {
+    final Template t = new Template(TEMPLATE);
+    final List<String> results = new ArrayList<String>();
+
+    t.runAll(ROWS, new Template.RowHandler() {
+      public void handle(final Map<String, String> args, final CharSequence result) {
+        results.add(args.get("id") + ":" + result);
+      }
+    });
+
+    assertEquals(Arrays.asList("1:1,ALICE", "2:2,BOB", "3:3,&lt;CAROL&gt;"), results);
+  }
+
+  @Test
+  public void testRunAllUnknownKey() throws LuigiError {
+    final Template t = new Template("%{unknown-key}");
+
+    assertThrows(UnknownKeyError.class, () -> {
+      t.runAll(ROWS, new StringBuilder());
+    });
+  }
+
+  @Test
+  public void testCacheRunAll() throws LuigiError, IOException {
+    final Cache cache = new Cache(STRINGS);
+    final StringBuilder sb = new StringBuilder();
+    final List<String> results = new ArrayList<String>();
+
+    cache.runAll("row", ROWS, ";", new TestResultHandler(sb));
+    cache.runAll("row", ROWS, new Template.RowHandler() {
+      public void handle(final Map<String, String> args, final CharSequence result) {
+        results.add(result.toString());
+      }
+    });
+
+    assertEquals("1,ALICE;2,BOB;3,&lt;CAROL&gt;", sb.toString());
+    assertEquals(Arrays.asList("1,ALICE", "2,BOB", "3,&lt;CAROL&gt;"), results);
+  }
+};
@@ -0,0 +1,174 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.cache.CacheStats;
+import org.pablotron.luigi.cache.EvictionPolicy;
+import org.pablotron.luigi.cache.LruPolicy;
+import org.pablotron.luigi.cache.TinyLfuPolicy;
+import org.pablotron.luigi.cache.Weigher;
+import org.pablotron.luigi.errors.LuigiError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class BoundedCacheTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("bar", "foo");
+  }};
+
+  private static Map<String, String> templates(final int n) {
+    final Map<String, String> r = new HashMap<String, String>();
+    for (int i = 0; i < n; i++)
+      r.put("key-" + i, i + ":%{bar}");
+    return r;
+  }
+
+  @Test
+  public void testUnboundedStats() throws LuigiError {
+    final Cache cache = new Cache(templates(4));
+
+    cache.get("key-0");
+    cache.get("key-0");
+    cache.get("key-1");
+
+    final CacheStats stats = cache.stats();
+    assertEquals(1, stats.hits);
+    assertEquals(2, stats.misses);
+    assertEquals(0, stats.evictions);
+    assertEquals(2, stats.size);
+    assertEquals(-1, stats.weight);
+    assertTrue(stats.compileNanos > 0);
+  }
+
+  @Test
+  public void testLruEviction() throws Exception {
+    final Cache cache = new Cache.Builder(templates(4)).maximumSize(2).build();
+
+    cache.get("key-0");
+    cache.get("key-1");
+    cache.get("key-0");
+
+    // evicts key-1, the least-recently used template
+    cache.get("key-2");
+    assertEquals(1, cache.stats().evictions);
+
+    // key-0 is still cached, key-1 is not
+    cache.get("key-0");
+    assertEquals(3, cache.stats().misses);
+    cache.get("key-1");
+    assertEquals(4, cache.stats().misses);
+
+    final CacheStats stats = cache.stats();
+    assertEquals(2, stats.size);
+    assertEquals(2, stats.weight);
+    assertEquals("3:foo", cache.run("key-3", TEST_ARGS));
+  }
+
+  @Test
+  public void testWeightedEviction() throws LuigiError {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("small", "%{bar}");
+    strings.put("large", "0123456789012345678901234567890123456789%{bar}");
+
+    final long small = "small".length() + 2 * "%{bar}".length();
+    final Cache cache = new Cache.Builder(strings)
+      .maximumWeight(small + 10, Weigher.CHARS)
+      .build();
+
+    cache.get("small");
+    assertEquals(small, cache.stats().weight);
+
+    // too large to fit next to small template
+    cache.get("large");
+    assertTrue(cache.stats().weight <= small + 10);
+    assertTrue(cache.stats().evictions >= 1);
+  }
+
+  @Test
+  public void testTinyLfuKeepsFrequentTemplates() throws Exception {
+    final int num_hot = 10;
+    final Cache cache = new Cache.Builder(templates(1000))
+      .maximumSize(100)
+      .evictionPolicy(TinyLfuPolicy.FACTORY)
+      .build();
+
+    // make hot templates frequent
+    for (int i = 0; i < 20; i++)
+      for (int j = 0; j < num_hot; j++)
+        cache.get("key-" + j);
+
+    // scan through many templates which are used once
+    for (int i = num_hot; i < 1000; i++)
+      cache.get("key-" + i);
+
+    // hot templates survived the scan
+    final long misses = cache.stats().misses;
+    for (int j = 0; j < num_hot; j++)
+      cache.get("key-" + j);
+    assertEquals(misses, cache.stats().misses);
+    assertTrue(cache.stats().size <= 100);
+  }
+
+  @Test
+  public void testPolicyWeights() {
+    for (final EvictionPolicy.Factory f: new EvictionPolicy.Factory[] { LruPolicy.FACTORY, TinyLfuPolicy.FACTORY }) {
+      final EvictionPolicy p = f.create(10);
+      final List<String> evicted = new ArrayList<String>();
+
+      for (int i = 0; i < 100; i++) {
+        p.add("key-" + i, 1 + (i % 3), evicted);
+        if (i % 2 == 0)
+          p.access("key-" + (i / 2));
+        assertTrue(p.weight() <= 10);
+      }
+
+      p.remove("key-99");
+      assertTrue(evicted.size() > 0);
+      assertEquals(10, p.capacity());
+    }
+  }
+
+  @Test
+  public void testConcurrentBoundedCache() throws Exception {
+    final Cache cache = new Cache.Builder(templates(100))
+      .concurrent(true)
+      .maximumSize(10)
+      .evictionPolicy(TinyLfuPolicy.FACTORY)
+      .build();
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    for (int i = 0; i < 8; i++) {
+      final int seed = i;
+      threads.add(new Thread(() -> {
+        try {
+          for (int j = 0; j < 2000; j++) {
+            final int n = (j * 31 + seed) % 100;
+            assertEquals(n + ":foo", cache.run("key-" + n, TEST_ARGS));
+          }
+        } catch (Throwable e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      }));
+    }
+
+    for (final Thread t: threads)
+      t.start();
+    for (final Thread t: threads)
+      t.join();
+
+    assertTrue(errors.isEmpty(), errors.toString());
+
+    final CacheStats stats = cache.stats();
+    assertEquals(8 * 2000, stats.requests());
+    assertTrue(stats.size <= 10, stats.toString());
+  }
+};
@@ -0,0 +1,141 @@
+package org.pablotron.luigi.tests;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Row;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownFilterError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class CompactTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("a", "foo");
+    put("b", " <Bar & Baz> ");
+    put("c", "");
+    put("d", null);
+  }};
+
+  private static final Map<String, Filter.Handler> FILTERS = new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+    put("wrap", new Filter.Handler() {
+      public String filter(String val, String args[], Map<String, String> row) {
+        return "(" + val + ")" + String.join(",", args);
+      }
+    });
+  }};
+
+  @Test
+  public void testCompactRun() throws LuigiError, IOException {
+    final Template t = new Template("foo%{a | uc | wrap x y}%{b|h}%", FILTERS, Template.COMPACT);
+
+    assertTrue(t.isCompact());
+    assertEquals("foo(FOO)x,y &lt;Bar &amp; Baz&gt; ", t.run(TEST_ARGS));
+    assertEquals("foo%{a | uc | wrap x y}%{b|h}%", t.toString());
+
+    final StringBuilder rs = new StringBuilder();
+    t.run(TEST_ARGS, new TestResultHandler(rs));
+    assertEquals("foo(FOO)x,y &lt;Bar &amp; Baz&gt; ", rs.toString());
+  }
+
+  @Test
+  public void testCompactRow() throws LuigiError {
+    final Template t = new Template("%{b | trim}-%{a | wrap}-%{b | h}", FILTERS, Template.COMPACT);
+    final Row row = t.schema().row(TEST_ARGS);
+    assertEquals("<Bar & Baz>-(foo)- &lt;Bar &amp; Baz&gt; ", t.run(row));
+
+    row.set("a", null);
+    assertThrows(UnknownKeyError.class, () -> t.run(row));
+  }
+
+  @Test
+  public void testDiscardSource() throws LuigiError {
+    final String s = "a%b%{ a|uc |  wrap 1   2}%{ c }%%{";
+    final Template t = new Template(s, FILTERS, Template.COMPACT | Template.DISCARD_SOURCE);
+
+    assertEquals(s.length(), t.length());
+    assertEquals("ab%{a | uc | wrap 1 2}%{c}{", t.toString());
+
+    // rebuilt source is equivalent
+    assertEquals(t.run(TEST_ARGS), new Template(t.toString(), FILTERS).run(TEST_ARGS));
+
+    // source is kept without COMPACT
+    assertEquals(s, new Template(s, FILTERS, Template.DISCARD_SOURCE).toString());
+  }
+
+  @Test
+  public void testUnknownFilterAtCreate() {
+    assertThrows(UnknownFilterError.class, () -> {
+      new Template("foo%{a | unknown-filter}", FILTERS, Template.COMPACT);
+    });
+  }
+
+  @Test
+  public void testCompactCache() throws LuigiError, IOException {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("foo", "%{a | wrap}");
+
+    final Map<String, Filter.Handler> filters = new HashMap<String, Filter.Handler>(FILTERS);
+    for (final int flags: new int[] { Template.COMPACT, Template.COMPACT | Template.COMPILE }) {
+      final Cache cache = new Cache.Builder(strings)
+        .filters(filters)
+        .flags(flags | Template.DISCARD_SOURCE)
+        .build();
+
+      assertTrue(cache.get("foo").isCompact());
+      assertEquals("(foo)", cache.run("foo", TEST_ARGS));
+      assertEquals("(foo)", cache.get("foo").run(cache.get("foo").schema().row(TEST_ARGS)));
+    }
+
+    assertFalse(new Template("%{a}", FILTERS, Template.LINK).isCompact());
+  }
+
+  private static final String[] PIECES = {
+    "a", "b", "c", "d", " ", "%", "{", "}", "|", "%{", "%{a}", "%{b|h}",
+    "%{ a | uc | wrap 1 2 }", "%{c | u}", "%{b | trim | lc}", "%{d}",
+    "%{a | length}", "é", "\t",
+  };
+
+  @Test
+  public void testCompactMatchesInterpreter() {
+    final Random random = new Random(1);
+
+    for (int i = 0; i < 5000; i++) {
+      final StringBuilder s = new StringBuilder();
+      for (int j = random.nextInt(12); j > 0; j--)
+        s.append(PIECES[random.nextInt(PIECES.length)]);
+
+      final String linked = result(s.toString(), Template.LINK);
+      assertEquals(linked, result(s.toString(), Template.COMPACT), s.toString());
+      assertEquals(linked, result(s.toString(), Template.COMPACT | Template.DISCARD_SOURCE), s.toString());
+    }
+  }
+
+  /**
+   * Create and run template, and return the result or the class of the
+   * raised error.  Also checks the rebuilt source.
+   */
+  private static String result(final String s, final int flags) {
+    try {
+      final Template t = new Template(s, FILTERS, flags);
+      final String r = t.run(TEST_ARGS);
+
+      if (t.isCompact())
+        assertEquals(r, new Template(t.toString(), FILTERS).run(TEST_ARGS));
+
+      return r;
+    } catch (LuigiError e) {
+      return e.getClass().getName();
+    }
+  }
+};
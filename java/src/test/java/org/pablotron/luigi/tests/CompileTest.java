@@ -0,0 +1,178 @@
+package org.pablotron.luigi.tests;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.compiler.Renderer;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownFilterError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class CompileTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("a", "foo");
+    put("b", " <Bar & Baz> ");
+    put("c", "");
+    put("d", null);
+  }};
+
+  private static Map<String, Filter.Handler> filters() {
+    return new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+      put("wrap", new Filter.Handler() {
+        public String filter(String val, String args[], Map<String, String> row) {
+          return "(" + val + ")" + String.join(",", args);
+        }
+      });
+
+      put("null", new Filter.Handler() {
+        public String filter(String val, String args[], Map<String, String> row) {
+          return null;
+        }
+      });
+    }};
+  }
+
+  @Test
+  public void testCompiledRun() throws LuigiError {
+    final Template t = new Template("foo%{a | uc | wrap x y}%{b|h}", filters(), Template.COMPILE);
+
+    assertTrue(t.isCompiled());
+    assertEquals("foo(FOO)x,y &lt;Bar &amp; Baz&gt; ", t.run(TEST_ARGS));
+  }
+
+  @Test
+  public void testCompiledAppendable() throws LuigiError, IOException {
+    final Template t = new Template("foo%{a | wrap}bar", filters(), Template.COMPILE);
+    final StringBuilder rs = new StringBuilder();
+    final StringBuilder sb = new StringBuilder(">");
+
+    t.run(TEST_ARGS, new TestResultHandler(rs));
+    t.run(TEST_ARGS, sb);
+
+    assertEquals("foo(foo)bar", rs.toString());
+    assertEquals(">foo(foo)bar", sb.toString());
+  }
+
+  @Test
+  public void testUnknownFilterAtCreate() {
+    assertThrows(UnknownFilterError.class, () -> {
+      new Template("foo%{a | unknown-filter}", filters(), Template.COMPILE);
+    });
+  }
+
+  @Test
+  public void testUnknownKey() throws LuigiError {
+    final Template t = new Template("%{unknown-key | uc}", filters(), Template.COMPILE);
+
+    assertThrows(UnknownKeyError.class, () -> {
+      t.run(TEST_ARGS);
+    });
+  }
+
+  @Test
+  public void testNullValue() throws LuigiError {
+    final Template t = new Template("[%{d}][%{a | null}]", filters(), Template.COMPILE);
+    assertEquals("[null][null]", t.run(TEST_ARGS));
+  }
+
+  @Test
+  public void testLargeTemplate() throws LuigiError {
+    // enough actions and text to need several methods and text constants
+    final StringBuilder s = new StringBuilder();
+    for (int i = 0; i < 20000; i++)
+      s.append("\u20ac%{a | uc}%{b | wrap " + (i % 100) + "}");
+
+    final Template compiled = new Template(s.toString(), filters(), Template.COMPILE);
+    final Template interpreted = new Template(s.toString(), filters());
+
+    assertTrue(compiled.isCompiled());
+    assertEquals(interpreted.run(TEST_ARGS), compiled.run(TEST_ARGS));
+  }
+
+  @Test
+  public void testLargeAction() throws LuigiError {
+    // one action too large for a single method
+    final StringBuilder s = new StringBuilder("%{a");
+    for (int i = 0; i < 10000; i++)
+      s.append(" | trim");
+    s.append("}");
+
+    final Template t = new Template(s.toString(), filters(), Template.COMPILE);
+    assertFalse(t.isCompiled());
+    assertEquals("foo", t.run(TEST_ARGS));
+  }
+
+  @Test
+  public void testConstantsGuard() {
+    assertThrows(IllegalArgumentException.class, () -> Renderer.constants(MethodHandles.lookup()));
+  }
+
+  @Test
+  public void testCompiledCache() throws LuigiError, IOException {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("foo", "%{a | wrap}");
+
+    final Map<String, Filter.Handler> filters = filters();
+    final Cache cache = new Cache.Builder(strings)
+      .filters(filters)
+      .flags(Template.COMPILE)
+      .build();
+
+    filters.remove("wrap");
+
+    assertTrue(cache.get("foo").isCompiled());
+    assertEquals("(foo)", cache.run("foo", TEST_ARGS));
+  }
+
+  private static final String[] PIECES = {
+    "a", "b", "c", "d", " ", "%", "{", "}", "|", "%{", "%{a}", "%{b|h}",
+    "%{ a | uc | wrap 1 2 }", "%{c | u}", "%{b | trim | lc}", "%{d}",
+    "%{a | length}", "\u00e9", "\t",
+  };
+
+  @Test
+  public void testCompiledMatchesInterpreter() throws LuigiError {
+    final Map<String, Filter.Handler> filters = filters();
+    final Random random = new Random(1);
+
+    for (int i = 0; i < 5000; i++) {
+      final StringBuilder s = new StringBuilder();
+      for (int j = random.nextInt(12); j > 0; j--)
+        s.append(PIECES[random.nextInt(PIECES.length)]);
+
+      final String interpreted = result(s.toString(), filters, Template.LINK);
+      final String compiled = result(s.toString(), filters, Template.COMPILE);
+      assertEquals(interpreted, compiled, s.toString());
+    }
+  }
+
+  /**
+   * Create and run template, and return the result or the class of the
+   * raised error.
+   */
+  private static String result(
+    final String s,
+    final Map<String, Filter.Handler> filters,
+    final int flags
+  ) {
+    try {
+      final Template t = new Template(s, filters, flags);
+      assertEquals((flags & Template.COMPILE) != 0, t.isCompiled());
+      return t.run(TEST_ARGS);
+    } catch (LuigiError e) {
+      return e.getClass().getName();
+    }
+  }
+};
@@ -0,0 +1,112 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.UnknownTemplateError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class ConcurrentCacheTest {
+  private static final int NUM_THREADS = 16;
+  private static final int NUM_KEYS = 200;
+  private static final int NUM_ROUNDS = 50;
+
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("bar", "foo");
+  }};
+
+  /**
+   * Template map which counts template string lookups.  The cache looks
+   * up the template string once per compile.
+   */
+  private static final class CountingMap extends HashMap<String, String> {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<Object, AtomicInteger> counts = new ConcurrentHashMap<Object, AtomicInteger>();
+
+    @Override
+    public String get(final Object key) {
+      counts.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet();
+      return super.get(key);
+    }
+
+    public int count(final String key) {
+      final AtomicInteger r = counts.get(key);
+      return (r != null) ? r.get() : 0;
+    }
+  };
+
+  @Test
+  public void testCompileOnce() throws Exception {
+    final CountingMap strings = new CountingMap();
+    final List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < NUM_KEYS; i++) {
+      final String key = "key-" + i;
+      strings.put(key, key + ":%{bar | uc}");
+      keys.add(key);
+    }
+
+    final Cache cache = new Cache(strings, Filter.FILTERS, true);
+    assertTrue(cache.isConcurrent());
+
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService pool = Executors.newFixedThreadPool(NUM_THREADS);
+    final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+    try {
+      for (int i = 0; i < NUM_THREADS; i++) {
+        futures.add(pool.submit(() -> {
+          final List<String> order = new ArrayList<String>(keys);
+          start.await();
+
+          int num_ok = 0;
+          for (int j = 0; j < NUM_ROUNDS; j++) {
+            Collections.shuffle(order);
+            for (final String key: order) {
+              if ((key + ":FOO").equals(cache.run(key, TEST_ARGS)))
+                num_ok++;
+            }
+          }
+
+          return num_ok;
+        }));
+      }
+
+      // release all threads at once
+      start.countDown();
+
+      for (final Future<Integer> f: futures)
+        assertEquals(NUM_ROUNDS * NUM_KEYS, (int) f.get(60, TimeUnit.SECONDS));
+    } finally {
+      pool.shutdownNow();
+    }
+
+    for (final String key: keys)
+      assertEquals(1, strings.count(key), key);
+  }
+
+  @Test
+  public void testUnknownTemplate() {
+    final Cache cache = new Cache(new HashMap<String, String>(), Filter.FILTERS, true);
+
+    assertThrows(UnknownTemplateError.class, () -> {
+      cache.get("unknown-template");
+    });
+  }
+};
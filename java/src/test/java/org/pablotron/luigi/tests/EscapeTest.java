@@ -0,0 +1,103 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Random;
+import java.nio.charset.Charset;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.LuigiError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Check the table-driven h and u filters against the original
+ * implementations.
+ */
+public final class EscapeTest {
+  private static final Map<String, String> ROW = new HashMap<String, String>();
+
+  private static byte[] getBytes(final String val, final String args[]) {
+    final Charset charset = (args.length > 0) ? Charset.forName(args[0]) :  Charset.defaultCharset();
+    return val.getBytes(charset);
+  }
+
+  private static String legacy_h(final String val, final String args[]) {
+    final StringBuilder r = new StringBuilder();
+    for (final byte b: getBytes(val, args)) {
+      switch (b) {
+      case '&': r.append("&amp;"); break;
+      case '<': r.append("&lt;"); break;
+      case '>': r.append("&gt;"); break;
+      case '\'': r.append("&apos;"); break;
+      case '"': r.append("&quot;"); break;
+      default:
+        if (b < 32 || b > 126) {
+          r.append(String.format("&#%d;", b & 0xff));
+        } else {
+          r.append((char) b);
+        }
+      }
+    }
+
+    return r.toString();
+  }
+
+  private static String legacy_u(final String val, final String args[]) {
+    final StringBuilder r = new StringBuilder();
+    for (final byte b: getBytes(val, args)) {
+      if ((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') ||
+          b == '-' || b == '_' || b == '.' || b == '~') {
+        r.append((char) b);
+      } else if (b == ' ') {
+        r.append('+');
+      } else {
+        r.append(String.format("%%%02X", b & 0xff));
+      }
+    }
+
+    return r.toString();
+  }
+
+  private static final String[][] CHARSET_ARGS = {
+    {},
+    { "UTF-8" },
+    { "ISO-8859-1" },
+    { "UTF-16" },
+    { "Shift_JIS" },
+  };
+
+  private static final String CHARS = "abcXYZ019 -_.~&<>'\"%+\u0000\u000f\u007féß中😀\ud800";
+
+  private static void check(final String val) throws LuigiError {
+    for (final String[] args: CHARSET_ARGS) {
+      assertEquals(legacy_h(val, args), Filter.FILTERS.get("h").filter(val, args, ROW), val);
+      assertEquals(legacy_u(val, args), Filter.FILTERS.get("u").filter(val, args, ROW), val);
+    }
+  }
+
+  @Test
+  public void testEscapes() throws LuigiError {
+    final Random rand = new Random(4321);
+
+    check("");
+    for (int i = 0; i < 5000; i++) {
+      final StringBuilder sb = new StringBuilder();
+      final int len = rand.nextInt(12);
+      for (int j = 0; j < len; j++)
+        sb.append(CHARS.charAt(rand.nextInt(CHARS.length())));
+      check(sb.toString());
+    }
+  }
+
+  @Test
+  public void testUnchanged() throws LuigiError {
+    final String val = "plain-ASCII_value.~";
+    final String no_args[] = {};
+
+    assertSame(val, Filter.FILTERS.get("h").filter(val, no_args, ROW));
+    assertSame(val, Filter.FILTERS.get("u").filter(val, no_args, ROW));
+  }
+};
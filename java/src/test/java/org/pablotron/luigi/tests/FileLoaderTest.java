@@ -0,0 +1,170 @@
+package org.pablotron.luigi.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownTemplateError;
+import org.pablotron.luigi.loader.FileLoader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public final class FileLoaderTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("bar", "foo");
+  }};
+
+  private Path root;
+
+  private void write(final String name, final String body) throws IOException {
+    final Path path = root.resolve(name);
+    Files.createDirectories(path.getParent());
+    Files.write(path, body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @BeforeEach
+  public void setup() throws IOException {
+    root = Files.createTempDirectory("luigi-loader-");
+    write("foo.luigi", "foo%{bar | uc}");
+    write("mail/welcome.luigi", "welcome %{bar}");
+    write("notes.txt", "not a template");
+  }
+
+  @AfterEach
+  public void cleanup() throws IOException {
+    try (final Stream<Path> paths = Files.walk(root)) {
+      final Path[] all = paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+      for (final Path path: all)
+        Files.delete(path);
+    }
+  }
+
+  @Test
+  public void testKeys() throws IOException {
+    final FileLoader all = new FileLoader(root);
+    assertEquals(new HashSet<String>(Arrays.asList("foo.luigi", "mail/welcome.luigi", "notes.txt")), all.keySet());
+
+    final FileLoader luigi = new FileLoader.Builder(root).suffix(".luigi").build();
+    assertEquals(new HashSet<String>(Arrays.asList("foo", "mail/welcome")), luigi.keySet());
+    assertEquals("welcome %{bar}", luigi.get("mail/welcome"));
+  }
+
+  @Test
+  public void testLargeFile() throws IOException {
+    final String big = String.join("", Collections.nCopies(100000, "é%{bar}"));
+    write("big.luigi", big);
+
+    final FileLoader loader = new FileLoader.Builder(root).suffix(".luigi").build();
+    assertEquals(big, loader.get("big"));
+  }
+
+  @Test
+  public void testCache() throws LuigiError, IOException {
+    final FileLoader loader = new FileLoader.Builder(root).suffix(".luigi").build();
+    final Cache cache = new Cache(loader);
+
+    assertEquals("fooFOO", cache.run("foo", TEST_ARGS));
+    assertEquals("welcome foo", cache.run("mail/welcome", TEST_ARGS));
+    assertThrows(UnknownTemplateError.class, () -> {
+      cache.get("notes");
+    });
+
+    // compiled template is kept until invalidated
+    write("foo.luigi", "changed %{bar}");
+    assertEquals("fooFOO", cache.run("foo", TEST_ARGS));
+    cache.invalidate("foo");
+    assertEquals("changed foo", cache.run("foo", TEST_ARGS));
+  }
+
+  @Test
+  public void testWatch() throws Exception {
+    try (final FileLoader loader = new FileLoader.Builder(root).suffix(".luigi").build()) {
+      final Cache watched = new Cache(loader, Filter.FILTERS, true);
+      loader.watch(watched);
+
+      assertEquals("fooFOO", watched.run("foo", TEST_ARGS));
+      assertEquals("welcome foo", watched.run("mail/welcome", TEST_ARGS));
+
+      write("foo.luigi", "changed %{bar}");
+      write("new/bar.luigi", "new %{bar}");
+
+      // wait for watch events
+      final long deadline = System.currentTimeMillis() + 20000;
+      while (System.currentTimeMillis() < deadline) {
+        if (watched.containsKey("new/bar") && watched.run("foo", TEST_ARGS).equals("changed foo"))
+          break;
+        Thread.sleep(50);
+      }
+
+      assertEquals("changed foo", watched.run("foo", TEST_ARGS));
+      assertEquals("new foo", watched.run("new/bar", TEST_ARGS));
+      assertEquals("welcome foo", watched.run("mail/welcome", TEST_ARGS));
+
+      // caches which are not concurrent cannot be watched
+      assertThrows(IllegalArgumentException.class, () -> {
+        loader.watch(new Cache(loader));
+      });
+    }
+  }
+
+  private static boolean isRemoved(final Cache cache, final String key) throws LuigiError {
+    try {
+      cache.get(key);
+      return false;
+    } catch (UnknownTemplateError e) {
+      return true;
+    }
+  }
+
+  @Test
+  public void testWatchRemoveDirectory() throws Exception {
+    write("mail/deep/note.luigi", "note %{bar}");
+    final Path moved = Files.createTempDirectory("luigi-loader-moved-");
+
+    try (final FileLoader loader = new FileLoader.Builder(root).suffix(".luigi").build()) {
+      final Cache watched = new Cache(loader, Filter.FILTERS, true);
+      loader.watch(watched);
+
+      assertEquals("welcome foo", watched.run("mail/welcome", TEST_ARGS));
+      assertEquals("note foo", watched.run("mail/deep/note", TEST_ARGS));
+
+      // move directory out of the tree; only the directory itself
+      // raises an event
+      Files.move(root.resolve("mail"), moved.resolve("mail"));
+
+      // wait for watch events
+      final long deadline = System.currentTimeMillis() + 20000;
+      while (System.currentTimeMillis() < deadline) {
+        if (isRemoved(watched, "mail/welcome") && isRemoved(watched, "mail/deep/note"))
+          break;
+        Thread.sleep(50);
+      }
+
+      // cached templates were invalidated
+      assertThrows(UnknownTemplateError.class, () -> watched.get("mail/welcome"));
+      assertThrows(UnknownTemplateError.class, () -> watched.get("mail/deep/note"));
+      assertEquals("fooFOO", watched.run("foo", TEST_ARGS));
+    } finally {
+      try (final Stream<Path> paths = Files.walk(moved)) {
+        final Path[] all = paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+        for (final Path path: all)
+          Files.delete(path);
+      }
+    }
+  }
+};
@@ -0,0 +1,94 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.cache.CacheStats;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownTemplateError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public final class IntrospectionTest {
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("row", "<td>%{name | h}</td><td>%{count} item%{count | s}</td><td>%{name | uc | h}</td>");
+    put("link", "<a href='%{url | u}'>%{name | h}</a>");
+    put("custom", "%{id | custom-filter}");
+  }};
+
+  @Test
+  public void testTemplate() throws LuigiError {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE, Template.COMPACT }) {
+      final Template t = new Template(STRINGS.get("row"), Filter.FILTERS, flags);
+
+      assertEquals(Arrays.asList("name", "count"), t.keys());
+      assertEquals(Arrays.asList("h", "s", "uc"), Arrays.asList(t.filters().toArray()));
+      assertThrows(UnsupportedOperationException.class, () -> t.filters().add("x"));
+    }
+
+    final Template t = new Template("plain text");
+    assertEquals(0, t.keys().size());
+    assertEquals(0, t.filters().size());
+  }
+
+  @Test
+  public void testCache() throws LuigiError {
+    final Cache cache = new Cache(STRINGS);
+
+    assertEquals(
+      new LinkedHashSet<String>(Arrays.asList("name", "count", "url")),
+      cache.argumentKeys(Arrays.asList("row", "link"))
+    );
+
+    assertEquals(
+      new HashSet<String>(Arrays.asList("name", "count", "url", "id")),
+      cache.argumentKeys()
+    );
+
+    // deploy check: find filters which are not registered
+    final Set<String> unknown = new HashSet<String>(cache.filterNames());
+    unknown.removeAll(Filter.FILTERS.keySet());
+    assertEquals(new HashSet<String>(Arrays.asList("custom-filter")), unknown);
+
+    assertThrows(UnknownTemplateError.class, () -> cache.filterNames(Arrays.asList("missing")));
+  }
+
+  @Test
+  public void testParseOnly() throws LuigiError {
+    final Cache cache = new Cache.Builder(STRINGS)
+      .flags(Template.LINK)
+      .maximumSize(16)
+      .build();
+
+    // unknown filters are reported without compiling templates
+    assertEquals(
+      new HashSet<String>(Arrays.asList("h", "s", "uc", "u", "custom-filter")),
+      cache.filterNames()
+    );
+    assertEquals(
+      new LinkedHashSet<String>(Arrays.asList("url", "name")),
+      cache.argumentKeys(Arrays.asList("link"))
+    );
+
+    final CacheStats stats = cache.stats();
+    assertEquals(0, stats.hits);
+    assertEquals(0, stats.misses);
+    assertEquals(0, stats.size);
+    assertEquals(0, stats.weight);
+
+    // cached templates are not counted as hits
+    cache.get("link");
+    assertEquals(Arrays.asList("u", "h"), Arrays.asList(cache.filterNames(Arrays.asList("link")).toArray()));
+    assertEquals(1, cache.stats().misses);
+    assertEquals(0, cache.stats().hits);
+  }
+};
@@ -0,0 +1,91 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Map;
+import java.util.HashMap;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownFilterError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public final class LinkTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("bar", "foo");
+  }};
+
+  private static Map<String, Filter.Handler> filters() {
+    return new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+      put("wrap", new Filter.Handler() {
+        public String filter(String val, String args[], Map<String, String> row) {
+          return "(" + val + ")";
+        }
+      });
+    }};
+  }
+
+  @Test
+  public void testLinkedRun() throws LuigiError {
+    final Template t = new Template("foo%{bar | uc | wrap}", filters(), Template.LINK);
+
+    assertEquals(Template.LINK, t.flags());
+    assertEquals("foo(FOO)", t.run(TEST_ARGS));
+  }
+
+  @Test
+  public void testUnknownFilterAtCreate() {
+    assertThrows(UnknownFilterError.class, () -> {
+      new Template("foo%{bar | unknown-filter}", filters(), Template.LINK);
+    });
+  }
+
+  @Test
+  public void testUnknownKey() throws LuigiError {
+    final Template t = new Template("%{unknown-key | uc}", filters(), Template.LINK);
+
+    assertThrows(UnknownKeyError.class, () -> {
+      t.run(TEST_ARGS);
+    });
+  }
+
+  @Test
+  public void testLinkedIgnoresFilterChanges() throws LuigiError {
+    final Map<String, Filter.Handler> filters = filters();
+    final Template linked = new Template("%{bar | wrap}", filters, Template.LINK);
+    final Template unlinked = new Template("%{bar | wrap}", filters);
+
+    filters.remove("wrap");
+
+    assertEquals("(foo)", linked.run(TEST_ARGS));
+    assertThrows(UnknownFilterError.class, () -> {
+      unlinked.run(TEST_ARGS);
+    });
+  }
+
+  @Test
+  public void testLinkedCache() throws LuigiError {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("good", "%{bar | wrap}");
+    strings.put("bad", "%{bar | unknown-filter}");
+
+    final Map<String, Filter.Handler> filters = filters();
+    final Cache cache = new Cache.Builder(strings)
+      .filters(filters)
+      .flags(Template.LINK)
+      .build();
+
+    // cache links against snapshot of filters
+    filters.remove("wrap");
+    assertEquals("(foo)", cache.get("good").run(TEST_ARGS));
+
+    // unknown filters fail in get()
+    assertThrows(UnknownFilterError.class, () -> {
+      cache.get("bad");
+    });
+  }
+};
@@ -0,0 +1,76 @@
+package org.pablotron.luigi.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Snapshot;
+import org.pablotron.luigi.Template;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+public final class LiteralsTest {
+  private static final String HEADER = "<header>100% of %{ our 50%% } %</header>";
+
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    for (int i = 0; i < 20; i++)
+      put("t" + i, HEADER + "%{a | uc}" + i + "%%x%" + HEADER);
+  }};
+
+  private static final Map<String, String> ARGS = new HashMap<String, String>() {{
+    put("a", "a");
+  }};
+
+  private static String expected(final int i) {
+    final String header = "<header>100 of { our 50 } </header>";
+    return header + "A" + i + "x" + header;
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE }) {
+      assertEquals("ab", new Template("a%b", Filter.FILTERS, flags).run(ARGS));
+      assertEquals("ab", new Template("%a%%b%", Filter.FILTERS, flags).run(ARGS));
+      assertEquals("", new Template("%%%", Filter.FILTERS, flags).run(ARGS));
+    }
+  }
+
+  @Test
+  public void testIntern() throws Exception {
+    for (final boolean intern: new boolean[] { true, false }) {
+      for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE }) {
+        final Cache cache = new Cache.Builder(STRINGS)
+          .internText(intern)
+          .flags(flags)
+          .concurrent(true)
+          .build();
+
+        for (int i = 0; i < 20; i++)
+          assertEquals(expected(i), cache.run("t" + i, ARGS));
+
+        // evicted and recompiled templates still render
+        cache.invalidateAll();
+        System.gc();
+        for (int i = 0; i < 20; i++)
+          assertEquals(expected(i), cache.run("t" + i, ARGS));
+      }
+    }
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    final Cache cache = new Cache.Builder(STRINGS).build();
+    cache.warm();
+
+    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+    Snapshot.write(cache, os);
+
+    final Cache copy = Snapshot.read(new ByteArrayInputStream(os.toByteArray())).build();
+    for (int i = 0; i < 20; i++)
+      assertEquals(expected(i), copy.run("t" + i, ARGS));
+  }
+};
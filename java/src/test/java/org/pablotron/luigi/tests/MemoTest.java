@@ -0,0 +1,121 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.memo.MemoFilters;
+import org.pablotron.luigi.memo.MemoStats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class MemoTest {
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("row", "<td>%{name | h}</td><td>%{name | uc | u}</td><td>%{count} item%{count | s}</td>");
+  }};
+
+  private static Map<String, String> args(final String name, final int count) {
+    final Map<String, String> r = new HashMap<String, String>();
+    r.put("name", name);
+    r.put("count", Integer.toString(count));
+    return r;
+  }
+
+  @Test
+  public void testPureDefaults() {
+    for (final Map.Entry<String, Filter.Handler> e: Filter.FILTERS.entrySet())
+      assertEquals(!e.getKey().equals("s"), Filter.isPure(e.getValue()), e.getKey());
+  }
+
+  @Test
+  public void testMemo() throws Exception {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE }) {
+      final MemoFilters filters = new MemoFilters.Builder(Filter.FILTERS).build();
+      final Cache memo = new Cache.Builder(STRINGS).filters(filters).flags(flags).build();
+      final Cache plain = new Cache.Builder(STRINGS).flags(flags).build();
+
+      final String[] names = { "Café & Bar", "<b>", "plain", "Café & Bar" };
+      for (int i = 0; i < 100; i++) {
+        final Map<String, String> a = args(names[i % names.length], i % 3);
+        assertEquals(plain.run("row", a), memo.run("row", a));
+      }
+
+      // one miss per distinct value
+      final MemoStats h = filters.stats("h");
+      assertEquals(3, h.misses);
+      assertEquals(97, h.hits);
+      assertEquals(0, h.bypasses);
+      assertTrue(h.hitRate() > 0.9);
+
+      // impure filters are not memoized
+      assertNull(filters.stats("s"));
+      assertFalse(filters.stats().containsKey("s"));
+      assertSame(Filter.FILTERS.get("s"), filters.get("s"));
+    }
+  }
+
+  @Test
+  public void testSequencePassThrough() throws Exception {
+    final MemoFilters filters = new MemoFilters.Builder(Filter.FILTERS).build();
+
+    // sequence handlers are not wrapped
+    assertSame(Filter.FILTERS.get("trim"), filters.get("trim"));
+    assertSame(Filter.FILTERS.get("length"), filters.get("length"));
+    assertTrue(filters.get("trim") instanceof Filter.SequenceHandler);
+
+    final StringBuilder val = new StringBuilder("foo");
+    assertSame(val, Filter.apply(filters.get("trim"), val, new String[0], null));
+    assertNull(filters.stats("trim"));
+  }
+
+  @Test
+  public void testBypass() throws Exception {
+    final MemoFilters filters = new MemoFilters.Builder(Filter.FILTERS)
+      .maximumSize(4)
+      .maximumValueLength(8)
+      .build();
+
+    final char[] chars = new char[100];
+    Arrays.fill(chars, '<');
+    final String big = new String(chars);
+
+    final Template t = new Template("%{a | h}", filters);
+    final Map<String, String> a = new HashMap<String, String>();
+    a.put("a", big);
+
+    for (int i = 0; i < 3; i++)
+      assertEquals(new Template("%{a | h}").run(a), t.run(a));
+
+    final MemoStats stats = filters.stats("h");
+    assertEquals(3, stats.bypasses);
+    assertEquals(0, stats.hits);
+  }
+
+  @Test
+  public void testArgs() throws Exception {
+    final MemoFilters filters = new MemoFilters.Builder(Filter.FILTERS).build();
+    final Map<String, String> a = new HashMap<String, String>();
+    a.put("a", "é");
+
+    // same value with different filter arguments
+    assertEquals("%C3%A9", new Template("%{a | u UTF-8}", filters).run(a));
+    assertEquals("%E9", new Template("%{a | u ISO-8859-1}", filters).run(a));
+    assertEquals("%C3%A9", new Template("%{a | u UTF-8}", filters).run(a));
+
+    final MemoStats stats = filters.stats("u");
+    assertEquals(2, stats.misses);
+    assertEquals(1, stats.hits);
+
+    filters.invalidateAll();
+    assertEquals("%E9", new Template("%{a | u ISO-8859-1}", filters).run(a));
+    assertEquals(3, filters.stats("u").misses);
+  }
+};
@@ -0,0 +1,218 @@
+package org.pablotron.luigi.tests;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.metrics.Histogram;
+import org.pablotron.luigi.metrics.Listener;
+import org.pablotron.luigi.metrics.Metrics;
+import org.pablotron.luigi.metrics.TemplateMetrics;
+import org.pablotron.luigi.metrics.TimedFilters;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class MetricsTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("bar", "foo");
+  }};
+
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("foo", "foo%{bar | uc | h}");
+    put("bar", "bar%{bar | length}");
+  }};
+
+  /**
+   * Listener which records each call as a string.
+   */
+  private static final class RecordingListener implements Listener {
+    private final List<String> calls = new ArrayList<String>();
+
+    public void parsed(final String name, final int length, final long nanos) {
+      calls.add("parsed " + name + " " + length);
+    }
+
+    public void rendered(final String name, final int length, final int output_length, final long nanos) {
+      calls.add("rendered " + name + " " + length + " " + output_length);
+    }
+
+    public void filtered(final String name, final String filter, final long nanos) {
+      calls.add("filtered " + name + " " + filter);
+    }
+
+    public void cacheHit(final String key) {
+      calls.add("hit " + key);
+    }
+
+    public void cacheMiss(final String key, final long nanos) {
+      calls.add("miss " + key);
+    }
+  };
+
+  /**
+   * Volatile identity filter.
+   */
+  private static final class VolatileHandler implements Filter.Handler, Filter.Volatile {
+    public String filter(final String val, final String args[], final Map<String, String> row) {
+      return val;
+    }
+  };
+
+  @Test
+  public void testListener() throws LuigiError, IOException {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE }) {
+      final RecordingListener l = new RecordingListener();
+      final Template t = new Template.Builder("foo%{bar | uc | h}")
+        .flags(flags)
+        .name("test")
+        .listener(l)
+        .build();
+
+      assertEquals("FOO", t.run(TEST_ARGS).substring(3));
+      t.run(TEST_ARGS, new TestResultHandler(new StringBuilder()));
+
+      final List<String> expected = new ArrayList<String>();
+      expected.add("parsed test 18");
+      for (int i = 0; i < 2; i++) {
+        expected.add("filtered test uc");
+        expected.add("filtered test h");
+        expected.add("rendered test 18 6");
+      }
+
+      assertEquals(expected, l.calls);
+    }
+  }
+
+  @Test
+  public void testTimedFilters() throws LuigiError {
+    final Map<String, Filter.Handler> filters = new HashMap<String, Filter.Handler>(Filter.FILTERS);
+    filters.put("clock", new VolatileHandler());
+
+    final RecordingListener l = new RecordingListener();
+    final TimedFilters timed = new TimedFilters(filters, "test", l);
+
+    // handler interfaces and markers are kept
+    assertTrue(timed.get("trim") instanceof Filter.SequenceHandler);
+    assertTrue(Filter.isPure(timed.get("trim")));
+    assertTrue(timed.get("h") instanceof Filter.StreamHandler);
+    assertTrue(Filter.isPure(timed.get("h")));
+    assertTrue(Filter.isVolatile(timed.get("clock")));
+    assertFalse(Filter.isPure(timed.get("s")));
+    assertFalse(timed.get("s") instanceof Filter.SequenceHandler);
+
+    // wrappers are reused
+    assertSame(timed.get("h"), timed.get("h"));
+
+    // sequence values are passed without a copy
+    final StringBuilder val = new StringBuilder("foo");
+    assertSame(val, Filter.apply(timed.get("trim"), val, new String[0], null));
+    assertEquals(1, l.calls.size());
+    assertEquals("filtered test trim", l.calls.get(0));
+  }
+
+  @Test
+  public void testCacheListener() throws LuigiError, IOException {
+    final RecordingListener l = new RecordingListener();
+    final Cache cache = new Cache.Builder(STRINGS)
+      .listener(l)
+      .build();
+
+    cache.run("bar", TEST_ARGS);
+    cache.run("bar", TEST_ARGS);
+
+    final List<String> expected = new ArrayList<String>();
+    expected.add("parsed bar 18");
+    expected.add("miss bar");
+    expected.add("filtered bar length");
+    expected.add("rendered bar 18 4");
+    expected.add("hit bar");
+    expected.add("filtered bar length");
+    expected.add("rendered bar 18 4");
+
+    assertEquals(expected, l.calls);
+  }
+
+  @Test
+  public void testMetrics() throws LuigiError, IOException {
+    final Metrics metrics = new Metrics();
+    final Cache cache = new Cache.Builder(STRINGS)
+      .listener(Listener.of(metrics, new RecordingListener()))
+      .build();
+
+    for (int i = 0; i < 10; i++)
+      cache.run("foo", TEST_ARGS);
+    cache.run("bar", TEST_ARGS);
+
+    assertEquals(2, metrics.getParseCount());
+    assertEquals(9, metrics.getCacheHits());
+    assertEquals(2, metrics.getCacheMisses());
+    assertEquals(9.0 / 11, metrics.getCacheHitRate(), 0.0001);
+
+    final TemplateMetrics foo = metrics.getTemplates().get("foo");
+    assertEquals(10, foo.getRenderCount());
+    assertEquals(60, foo.getOutputChars());
+    assertTrue(foo.getP50Nanos() <= foo.getP99Nanos());
+    assertTrue(foo.getP99Nanos() <= foo.getMaxNanos());
+
+    assertEquals(10, metrics.getFilters().get("uc").getCallCount());
+    assertEquals(10, metrics.getFilters().get("h").getCallCount());
+    assertEquals(1, metrics.getFilters().get("length").getCallCount());
+
+    metrics.reset();
+    assertEquals(0, metrics.getParseCount());
+    assertTrue(metrics.getTemplates().isEmpty());
+  }
+
+  @Test
+  public void testHistogram() {
+    final Histogram h = new Histogram();
+    assertEquals(0, h.percentile(0.5));
+
+    for (int i = 1; i <= 100; i++)
+      h.record(i);
+
+    assertEquals(100, h.count());
+    assertEquals(5050, h.sum());
+    assertEquals(100, h.max());
+    assertEquals(63, h.percentile(0.5));
+    assertEquals(100, h.percentile(0.99));
+  }
+
+  @Test
+  public void testMBean() throws Exception {
+    final Metrics metrics = new Metrics();
+    final ObjectName name = metrics.register("MetricsTest");
+
+    try {
+      final Template t = new Template.Builder("%{bar | uc}")
+        .name("mbean")
+        .listener(metrics)
+        .build();
+      t.run(TEST_ARGS);
+
+      final Object count = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ParseCount");
+      assertEquals(1L, count);
+
+      final TabularData templates = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Templates");
+      final CompositeData row = templates.get(new Object[] { "mbean" });
+      final CompositeData value = (CompositeData) row.get("value");
+      assertEquals(1L, value.get("renderCount"));
+    } finally {
+      metrics.unregister(name);
+    }
+  }
+};
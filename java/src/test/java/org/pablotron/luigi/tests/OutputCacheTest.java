@@ -0,0 +1,241 @@
+package org.pablotron.luigi.tests;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pablotron.luigi.ArgumentResolver;
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.OutputCache;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.cache.OutputCacheStats;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class OutputCacheTest {
+  /**
+   * Identity filter which counts calls.
+   */
+  private static class CountingHandler implements Filter.Handler {
+    final AtomicInteger calls = new AtomicInteger();
+
+    public String filter(String val, String args[], Map<String, String> row) {
+      calls.incrementAndGet();
+      return val;
+    }
+  };
+
+  private static final class VolatileHandler extends CountingHandler implements Filter.Volatile {};
+
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("hello", "hello %{name | count}!");
+    put("time", "now: %{name | clock}");
+    put("nulls", "%{a}%{b}");
+  }};
+
+  private static Map<String, String> args(final String name) {
+    final Map<String, String> r = new HashMap<String, String>();
+    r.put("name", name);
+    r.put("unused", String.valueOf(System.nanoTime()));
+    return r;
+  }
+
+  private static final class Fixture {
+    final CountingHandler count = new CountingHandler();
+    final VolatileHandler clock = new VolatileHandler();
+    final Cache cache;
+
+    Fixture(final OutputCache output, final int flags) {
+      final Map<String, Filter.Handler> filters = new HashMap<String, Filter.Handler>(Filter.FILTERS);
+      filters.put("count", count);
+      filters.put("clock", clock);
+
+      this.cache = new Cache.Builder(STRINGS)
+        .filters(filters)
+        .flags(flags)
+        .concurrent(true)
+        .outputCache(output)
+        .build();
+    }
+  };
+
+  @Test
+  public void testHitsAndMisses() throws Exception {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPACT }) {
+      final OutputCache output = new OutputCache.Builder(1 << 16).build();
+      final Fixture f = new Fixture(output, flags);
+
+      // unreferenced args do not cause misses
+      assertEquals("hello Paul!", f.cache.run("hello", args("Paul")));
+      assertEquals("hello Paul!", f.cache.run("hello", args("Paul")));
+      final StringBuilder out = new StringBuilder();
+      f.cache.run("hello", args("Paul"), out);
+      assertEquals("hello Paul!", out.toString());
+      assertEquals(1, f.count.calls.get());
+
+      assertEquals("hello John!", f.cache.run("hello", args("John")));
+      assertEquals(2, f.count.calls.get());
+
+      final OutputCacheStats stats = output.stats();
+      assertEquals(2, stats.hits);
+      assertEquals(2, stats.misses);
+      assertEquals(0, stats.bypasses);
+      assertEquals(2, stats.size);
+      assertEquals(0.5, stats.hitRate(), 0.0001);
+      assertTrue(stats.weight > 0);
+    }
+  }
+
+  @Test
+  public void testFingerprint() throws Exception {
+    final OutputCache output = new OutputCache.Builder(1 << 16).build();
+    final Fixture f = new Fixture(output, 0);
+
+    // values which concatenate to the same string are distinct
+    final Map<String, String> a = new HashMap<String, String>();
+    a.put("a", "x");
+    a.put("b", "yz");
+    final Map<String, String> b = new HashMap<String, String>();
+    b.put("a", "xy");
+    b.put("b", "z");
+    final Map<String, String> c = new HashMap<String, String>();
+    c.put("a", "xyz");
+    c.put("b", null);
+
+    assertEquals("xyz", f.cache.run("nulls", a));
+    assertEquals("xyz", f.cache.run("nulls", b));
+    assertEquals("xyznull", f.cache.run("nulls", c));
+    assertEquals(0, output.stats().hits);
+    assertEquals(3, output.stats().misses);
+
+    // missing keys are not cached
+    final Map<String, String> missing = new HashMap<String, String>();
+    missing.put("a", "x");
+    assertThrows(UnknownKeyError.class, () -> f.cache.run("nulls", missing));
+    assertEquals(3, output.stats().size);
+  }
+
+  @Test
+  public void testResolver() throws Exception {
+    final OutputCache output = new OutputCache.Builder(1 << 16).build();
+    final Fixture f = new Fixture(output, Template.LINK);
+    final ArgumentResolver args = ArgumentResolver.of(args("Paul"));
+
+    assertEquals("hello Paul!", f.cache.run("hello", args));
+    assertEquals("hello Paul!", f.cache.run("hello", args));
+    assertEquals(1, f.count.calls.get());
+    assertEquals(1, output.stats().hits);
+  }
+
+  @Test
+  public void testVolatileBypass() throws Exception {
+    final OutputCache output = new OutputCache.Builder(1 << 16).build();
+    final Fixture f = new Fixture(output, Template.LINK);
+
+    assertFalse(f.cache.get("time").isDeterministic());
+    assertTrue(f.cache.get("hello").isDeterministic());
+
+    for (int i = 0; i < 3; i++)
+      assertEquals("now: Paul", f.cache.run("time", args("Paul")));
+    f.cache.run("time", args("Paul"), new StringBuilder());
+
+    assertEquals(4, f.clock.calls.get());
+    final OutputCacheStats stats = output.stats();
+    assertEquals(4, stats.bypasses);
+    assertEquals(0, stats.requests());
+    assertEquals(0, stats.size);
+  }
+
+  @Test
+  public void testWeightBound() throws Exception {
+    // room for about two outputs
+    final OutputCache output = new OutputCache.Builder(40).build();
+    final Fixture f = new Fixture(output, 0);
+
+    for (final String name: new String[] { "a", "b", "c", "d" })
+      f.cache.run("hello", args(name));
+
+    final OutputCacheStats stats = output.stats();
+    assertTrue(stats.weight <= 40);
+    assertEquals(2, stats.evictions);
+    assertEquals(2, stats.size);
+
+    // least recently used outputs were evicted
+    f.cache.run("hello", args("d"));
+    f.cache.run("hello", args("a"));
+    assertEquals(1, output.stats().hits);
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    final OutputCache output = new OutputCache.Builder(1 << 16)
+      .expireAfterWrite(1, TimeUnit.MILLISECONDS)
+      .build();
+    final Fixture f = new Fixture(output, 0);
+
+    f.cache.run("hello", args("Paul"));
+    Thread.sleep(20);
+    f.cache.run("hello", args("Paul"));
+
+    final OutputCacheStats stats = output.stats();
+    assertEquals(0, stats.hits);
+    assertEquals(2, stats.misses);
+    assertEquals(1, stats.expirations);
+    assertEquals(2, f.count.calls.get());
+  }
+
+  @Test
+  public void testInvalidate() throws Exception {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("hello", "hello %{name}!");
+
+    final OutputCache output = new OutputCache.Builder(1 << 16).build();
+    final Cache cache = new Cache.Builder(strings).outputCache(output).build();
+
+    assertEquals("hello Paul!", cache.run("hello", args("Paul")));
+
+    // recompiled templates do not reuse output
+    strings.put("hello", "goodbye %{name}!");
+    cache.invalidate("hello");
+    assertEquals("goodbye Paul!", cache.run("hello", args("Paul")));
+    assertEquals(0, output.stats().hits);
+    assertEquals(1, output.stats().size);
+
+    assertEquals("goodbye Paul!", cache.run("hello", args("Paul")));
+    assertEquals(1, output.stats().hits);
+
+    output.invalidateAll();
+    assertEquals(0, output.stats().size);
+    assertEquals(0, output.stats().weight);
+  }
+
+  @Test
+  public void testInvalidateReleasesTemplate() throws Exception {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("hello", "hello %{name}!");
+
+    final OutputCache output = new OutputCache.Builder(1 << 16).build();
+    final Cache cache = new Cache.Builder(strings).outputCache(output).build();
+
+    final WeakReference<Template> ref = new WeakReference<Template>(cache.get("hello"));
+    assertEquals("hello Paul!", cache.run("hello", args("Paul")));
+    cache.invalidate("hello");
+
+    // cached output does not keep the previous template alive
+    for (int i = 0; i < 50 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+
+    assertEquals(null, ref.get());
+    assertEquals(1, output.stats().size);
+  }
+};
@@ -0,0 +1,98 @@
+package org.pablotron.luigi.tests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public final class ParallelBatchTest {
+  private static final String TEMPLATE = "%{id}:%{name | uc | h}";
+
+  private static List<Map<String, String>> rows(final int num) {
+    final List<Map<String, String>> r = new ArrayList<Map<String, String>>(num);
+
+    for (int i = 0; i < num; i++) {
+      final Map<String, String> row = new HashMap<String, String>();
+      row.put("id", Integer.toString(i));
+      row.put("name", "<row " + i + ">");
+      r.add(row);
+    }
+
+    return r;
+  }
+
+  @Test
+  public void testMatchesSequential() throws LuigiError, IOException {
+    final List<Map<String, String>> rows = rows(10000);
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      for (final int flags: new int[] { 0, Template.COMPILE }) {
+        final Template t = new Template(TEMPLATE, Filter.FILTERS, flags);
+        final StringBuilder expected = new StringBuilder();
+        t.runAll(rows, "\n", expected);
+
+        final StringBuilder common = new StringBuilder();
+        t.runParallel(rows, "\n", new TestResultHandler(common));
+        assertEquals(expected.toString(), common.toString());
+
+        // odd chunk size, so chunks end mid-way through the window
+        final StringBuilder custom = new StringBuilder();
+        t.runParallel(rows, "\n", new TestResultHandler(custom), executor, 7);
+        assertEquals(expected.toString(), custom.toString());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testEmptyRows() throws LuigiError, IOException {
+    final Template t = new Template(TEMPLATE);
+    final StringBuilder sb = new StringBuilder();
+
+    t.runParallel(Collections.<Map<String, String>>emptyList(), "\n", sb);
+    assertEquals("", sb.toString());
+  }
+
+  @Test
+  public void testUnknownKey() throws LuigiError {
+    final List<Map<String, String>> rows = rows(1000);
+    rows.get(500).remove("name");
+
+    final Template t = new Template(TEMPLATE);
+
+    assertThrows(UnknownKeyError.class, () -> {
+      t.runParallel(rows, null, new StringBuilder());
+    });
+  }
+
+  @Test
+  public void testCache() throws LuigiError, IOException {
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("row", TEMPLATE);
+
+    final Cache cache = new Cache(strings, Filter.FILTERS, true);
+    final List<Map<String, String>> rows = rows(2000);
+    final StringBuilder expected = new StringBuilder();
+    final StringBuilder sb = new StringBuilder();
+
+    cache.runAll("row", rows, ",", expected);
+    cache.runParallel("row", rows, ",", sb);
+    assertEquals(expected.toString(), sb.toString());
+  }
+};
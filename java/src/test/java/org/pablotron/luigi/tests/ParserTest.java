@@ -0,0 +1,177 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.Matcher;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.LuigiError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Differential test of the template scanner against the original
+ * regular expression parser.
+ */
+public final class ParserTest {
+  /**
+   * Original regular expression parser, which renders the parsed
+   * structure of a template instead of running it.
+   */
+  private static final class RegexParser {
+    private static final Pattern RE_ACTION = Pattern.compile(
+      "%\\{\\s*([^\\s\\|\\}]+)((\\s*\\|(\\s*[^\\s\\|\\}]+)+)*)\\s*\\}| ([^%]* | %)",
+      Pattern.COMMENTS
+    );
+
+    private static final Pattern RE_FILTER = Pattern.compile(
+      "(\\S+)((\\s*\\S+)*)\\s*",
+      Pattern.COMMENTS
+    );
+
+    private static final Pattern RE_DELIM_FILTERS = Pattern.compile("\\s*\\|\\s*");
+    private static final Pattern RE_DELIM_ARGS = Pattern.compile("\\s+");
+
+    public static String describe(final String template) {
+      final StringBuilder r = new StringBuilder();
+      final Matcher m = RE_ACTION.matcher(template);
+
+      while (m.find()) {
+        final String key = m.group(1);
+
+        if (key != null && key.length() > 0) {
+          String val = "<" + key + ">";
+
+          for (String f: RE_DELIM_FILTERS.split(m.group(2))) {
+            f = f.trim();
+            if (f.length() == 0)
+              continue;
+
+            final Matcher fm = RE_FILTER.matcher(f);
+            if (!fm.find())
+              throw new IllegalStateException("invalid filter: " + f);
+
+            final String args = fm.group(2).trim();
+            val = describe_filter(
+              val,
+              fm.group(1),
+              (args.length() > 0) ? RE_DELIM_ARGS.split(args) : new String[0]
+            );
+          }
+
+          r.append(val);
+        } else {
+          r.append(m.group(5));
+        }
+      }
+
+      return r.toString();
+    }
+  };
+
+  private static String describe_filter(
+    final String val,
+    final String name,
+    final String args[]
+  ) {
+    return "{" + name + Arrays.asList(args) + ":" + val + "}";
+  }
+
+  /**
+   * Filter map which describes every filter call.
+   */
+  private static final Map<String, Filter.Handler> TEST_FILTERS = new HashMap<String, Filter.Handler>() {
+    @Override
+    public Filter.Handler get(final Object name) {
+      return new Filter.Handler() {
+        public String filter(String val, String args[], Map<String, String> row) {
+          return describe_filter(val, (String) name, args);
+        }
+      };
+    }
+
+    @Override
+    public boolean containsKey(final Object name) {
+      return true;
+    }
+  };
+
+  /**
+   * Argument map which describes every key.
+   */
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {
+    @Override
+    public String get(final Object key) {
+      return "<" + key + ">";
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+      return true;
+    }
+  };
+
+  private static final String[] EDGE_CASES = {
+    "",
+    "foo",
+    "100%",
+    "a%b",
+    "%%{a}",
+    "%{a}%%{a}",
+    "%{}",
+    "%{a b}",
+    "%{a|}",
+    "%{ a | }",
+    "%{a | uc  lc}",
+    "x%{a|uc|}y",
+    "%{ a |\tuc x\ny |lc}",
+    "%{a|\u0001uc}",
+    "%{a | \u0001 | uc}",
+    "%{a | uc \u0001 b}",
+    "%{a | uc a \u0001 b}",
+    "%{a\u0001 | u\u0001c\u0001}",
+    "%{%{a}}",
+    "%{a{b}",
+    "%{a||b}",
+    "%{a | b | c d e | f}%",
+    "%{\u000ba\u000b|\u000bb\u000b}",
+  };
+
+  private static void check(final String template) throws LuigiError {
+    assertEquals(
+      RegexParser.describe(template),
+      Template.run(template, TEST_ARGS, TEST_FILTERS),
+      template
+    );
+  }
+
+  @Test
+  public void testEdgeCases() throws LuigiError {
+    for (final String s: EDGE_CASES)
+      check(s);
+  }
+
+  private static final String[] FRAGMENTS = {
+    "%", "%{", "{", "}", "|", " ", "\t", "\n", "\r", "\u000b", "\f",
+    "\u0001", "a", "b", "foo", "uc", "%{a}", " | ", "}%",
+  };
+
+  @Test
+  public void testRandomTemplates() throws LuigiError {
+    final Random rand = new Random(1234);
+
+    for (int i = 0; i < 20000; i++) {
+      final StringBuilder sb = new StringBuilder();
+      final int len = rand.nextInt(16);
+      for (int j = 0; j < len; j++)
+        sb.append(FRAGMENTS[rand.nextInt(FRAGMENTS.length)]);
+
+      check(sb.toString());
+    }
+  }
+};
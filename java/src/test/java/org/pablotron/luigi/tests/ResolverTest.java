@@ -0,0 +1,113 @@
+package org.pablotron.luigi.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.pablotron.luigi.ArgumentResolver;
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Row;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public final class ResolverTest {
+  /**
+   * Resolver which records each key it resolves.
+   */
+  private static final class Recorder implements ArgumentResolver {
+    final List<String> keys = new ArrayList<String>();
+
+    public CharSequence resolve(final String key) {
+      keys.add(key);
+      return key.startsWith("missing") ? null : key.toUpperCase();
+    }
+  };
+
+  private static final Map<String, Filter.Handler> FILTERS = new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+    // filter which reads another argument from the row
+    put("with", new Filter.Handler() {
+      public String filter(String val, String args[], Map<String, String> row) {
+        return val + "/" + row.get(args[0]);
+      }
+    });
+  }};
+
+  @Test
+  public void testResolveOnDemand() throws LuigiError {
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE, Template.COMPACT }) {
+      final Template t = new Template("%{a}-%{b | lc}-%{a | with c}", FILTERS, flags);
+      final Recorder r = new Recorder();
+
+      assertEquals("A-b-A/C", t.run(r));
+
+      // each referenced key is resolved once per run
+      assertEquals(Arrays.asList("a", "b", "c"), r.keys);
+
+      r.keys.clear();
+      assertEquals("A-b-A/C", t.run(r));
+      assertEquals(Arrays.asList("a", "b", "c"), r.keys);
+    }
+  }
+
+  @Test
+  public void testIteratorRemove() throws LuigiError {
+    final Template t = new Template("%{a}%{b}");
+    final Recorder r = new Recorder();
+    final Row row = t.schema().row(r);
+
+    // remove entry after the row is cleared
+    final Iterator<Map.Entry<String, String>> it = row.entrySet().iterator();
+    assertEquals("a", it.next().getKey());
+    row.clear();
+    it.remove();
+
+    // removed key is not resolved again
+    r.keys.clear();
+    assertNull(row.get("a"));
+    assertFalse(row.containsKey("a"));
+    assertEquals("B", row.get("b"));
+    assertEquals(Arrays.asList("b"), r.keys);
+  }
+
+  @Test
+  public void testMissingKey() throws LuigiError {
+    final Recorder r = new Recorder();
+    final Template t = new Template("%{a}%{missing-key}%{b}");
+
+    assertThrows(UnknownKeyError.class, () -> t.run(r));
+
+    // keys after the error are not resolved
+    assertEquals(Arrays.asList("a", "missing-key"), r.keys);
+  }
+
+  @Test
+  public void testMapAdapter() throws Exception {
+    final Map<String, String> args = new HashMap<String, String>();
+    args.put("a", "foo");
+    args.put("unused", "bar");
+
+    final Map<String, String> strings = new HashMap<String, String>();
+    strings.put("foo", "<%{a | uc}>");
+
+    final Cache cache = new Cache(strings);
+    assertEquals("<FOO>", cache.run("foo", ArgumentResolver.of(args)));
+
+    final StringBuilder out = new StringBuilder();
+    cache.run("foo", ArgumentResolver.of(args), out);
+    assertEquals("<FOO>", out.toString());
+
+    args.remove("a");
+    assertThrows(UnknownKeyError.class, () -> cache.run("foo", ArgumentResolver.of(args)));
+  }
+};
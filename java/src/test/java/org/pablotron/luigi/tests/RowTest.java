@@ -0,0 +1,97 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.HashMap;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Schema;
+import org.pablotron.luigi.Row;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public final class RowTest {
+  private static final Map<String, Filter.Handler> TEST_FILTERS = new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+    put("other", new Filter.Handler() {
+      public String filter(String val, String args[], Map<String, String> row) {
+        return val + "/" + row.get(args[0]);
+      }
+    });
+  }};
+
+  @Test
+  public void testSchema() throws LuigiError {
+    final Template t = new Template("%{b}%{a | uc}%{b}%{c}");
+    final Schema schema = t.schema();
+
+    assertEquals(3, schema.size());
+    assertEquals(Arrays.asList("b", "a", "c"), schema.keys());
+    assertEquals(1, schema.slot("a"));
+    assertEquals(-1, schema.slot("d"));
+    assertEquals("c", schema.key(2));
+  }
+
+  @Test
+  public void testRun() throws LuigiError {
+    for (final int flags: new int[] { 0, Template.LINK }) {
+      final Template t = new Template("%{b}-%{a | uc}-%{b | other a}", TEST_FILTERS, flags);
+      final Row row = t.schema().row();
+
+      for (int i = 0; i < 3; i++) {
+        row.set(0, "b" + i).set("a", "a" + i);
+        assertEquals("b" + i + "-A" + i + "-b" + i + "/a" + i, t.run(row));
+      }
+    }
+  }
+
+  @Test
+  public void testRowFromMap() throws LuigiError {
+    final Template t = new Template("%{a}%{b}");
+    final Map<String, String> args = new HashMap<String, String>();
+    args.put("a", "x");
+    args.put("b", "y");
+    args.put("c", "z");
+
+    final Row row = t.schema().row(args);
+    assertEquals(2, row.size());
+    assertEquals("xy", t.run(row));
+    assertEquals(t.run(args), t.run(row));
+  }
+
+  @Test
+  public void testUnsetSlot() throws LuigiError {
+    final Template t = new Template("%{a}%{b}");
+    final Row row = t.schema().row().set("a", "x");
+
+    assertThrows(UnknownKeyError.class, () -> {
+      t.run(row);
+    });
+
+    row.clear();
+    assertEquals(0, row.size());
+  }
+
+  @Test
+  public void testForeignRow() throws LuigiError {
+    final Template a = new Template("%{x}%{y}");
+    final Template b = new Template("%{y}%{x}");
+    final Row row = a.schema().row().set("x", "1").set("y", "2");
+
+    // row from a different schema is used as a map
+    assertEquals("21", b.run(row));
+  }
+
+  @Test
+  public void testUnknownKey() throws LuigiError {
+    final Row row = new Template("%{a}").schema().row();
+
+    assertThrows(IllegalArgumentException.class, () -> {
+      row.set("b", "x");
+    });
+  }
+};
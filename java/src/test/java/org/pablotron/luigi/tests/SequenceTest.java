@@ -0,0 +1,123 @@
+package org.pablotron.luigi.tests;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Row;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class SequenceTest {
+  /**
+   * Filter which records the value it was called with.
+   */
+  private static final class Probe implements Filter.SequenceHandler {
+    CharSequence last = null;
+
+    public CharSequence filter(CharSequence val, String args[], Map<String, String> row) {
+      last = val;
+      return val;
+    }
+  };
+
+  @Test
+  public void testRowValues() throws LuigiError {
+    final Probe probe = new Probe();
+    final Map<String, Filter.Handler> filters = new HashMap<String, Filter.Handler>(Filter.FILTERS);
+    filters.put("probe", probe);
+
+    final StringBuilder body = new StringBuilder("  <b>body</b>  ");
+    final CharBuffer title = CharBuffer.wrap("Title");
+
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPACT }) {
+      final Template t = new Template("[%{title}][%{body | probe | trim}][%{body | trim | h}][%{body | length}]", filters, flags);
+      final Row row = t.schema().row().set("title", title).set("body", body);
+
+      assertEquals("[Title][<b>body</b>][&lt;b&gt;body&lt;/b&gt;][15]", t.run(row));
+
+      // value passed to sequence handler without a copy
+      assertSame(body, probe.last);
+      assertEquals("  <b>body</b>  ", row.get("body"));
+    }
+  }
+
+  /**
+   * Stream filter which records the value it was called with.
+   */
+  private static final class StreamProbe implements Filter.StreamHandler {
+    CharSequence last = null;
+
+    public void filter(String val, String args[], Map<String, String> row, Appendable out) throws IOException {
+      filter((CharSequence) val, args, row, out);
+    }
+
+    public void filter(CharSequence val, String args[], Map<String, String> row, Appendable out) throws IOException {
+      last = val;
+      out.append(val);
+    }
+  };
+
+  @Test
+  public void testStreamValues() throws LuigiError, IOException {
+    final StreamProbe probe = new StreamProbe();
+    final Map<String, Filter.Handler> filters = new HashMap<String, Filter.Handler>(Filter.FILTERS);
+    filters.put("probe", probe);
+
+    final StringBuilder body = new StringBuilder("<b>a b</b>");
+
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPACT }) {
+      final Template t = new Template("[%{body | probe}][%{body | h}][%{body | u}][%{body | uc}][%{body | lc}]", filters, flags);
+      final Row row = t.schema().row().set("body", body);
+
+      final StringBuilder out = new StringBuilder();
+      t.run(row, out);
+      assertEquals("[<b>a b</b>][&lt;b&gt;a b&lt;/b&gt;][%3Cb%3Ea+b%3C%2Fb%3E][<B>A B</B>][<b>a b</b>]", out.toString());
+
+      // value passed to stream handler without a copy
+      assertSame(body, probe.last);
+    }
+  }
+
+  @Test
+  public void testTrimView() throws LuigiError {
+    final Filter.SequenceHandler trim = (Filter.SequenceHandler) Filter.FILTERS.get("trim");
+    final String val = " \tfoo bar\n";
+
+    final CharSequence r = trim.filter((CharSequence) val, new String[0], null);
+    assertTrue(r instanceof CharBuffer);
+    assertEquals("foo bar", r.toString());
+
+    // untrimmed value returned as is
+    final String trimmed = "foo bar";
+    assertSame(trimmed, trim.filter((CharSequence) trimmed, new String[0], null));
+  }
+
+  private static final String[] PIECES = {
+    " ", "\t", "\n", "\r", "\u000b", "\f", "a", "b", " ", "\u0085", " ", " ", "\u0000",
+  };
+
+  @Test
+  public void testTrimMatchesRegex() throws LuigiError {
+    final Filter.Handler trim = Filter.FILTERS.get("trim");
+    final Random random = new Random(1);
+
+    for (int i = 0; i < 10000; i++) {
+      final StringBuilder s = new StringBuilder();
+      for (int j = random.nextInt(8); j > 0; j--)
+        s.append(PIECES[random.nextInt(PIECES.length)]);
+
+      final String expected = s.toString().replaceAll("\\A\\s+|\\s+\\Z", "");
+      assertEquals(expected, trim.filter(s.toString(), new String[0], null));
+      assertEquals(expected, Filter.apply(trim, s, new String[0], null).toString());
+    }
+  }
+};
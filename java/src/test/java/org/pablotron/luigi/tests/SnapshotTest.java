@@ -0,0 +1,149 @@
+package org.pablotron.luigi.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Snapshot;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownTemplateError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+public final class SnapshotTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("a", "foo");
+    put("b", " <bar> ");
+    put("c", "日本語");
+  }};
+
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("plain", "no actions here");
+    put("filters", "%{a | uc}-%{ b | trim | h }-%{c | u}%");
+    put("repeat", "%{a}%{a|lc}%{b}%{a | wrap x  y}");
+    put("unicode", "é€ %{c} 😀");
+    put("empty", "");
+  }};
+
+  private static Map<String, Filter.Handler> filters() {
+    return new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+      put("wrap", new Filter.Handler() {
+        public String filter(String val, String args[], Map<String, String> row) {
+          return args[0] + val + args[1];
+        }
+      });
+    }};
+  }
+
+  private static byte[] snapshot() throws LuigiError, IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Snapshot.write(new Cache(STRINGS), out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws LuigiError, IOException {
+    final byte bytes[] = snapshot();
+    final Cache expected = new Cache(STRINGS, filters());
+
+    for (final int flags: new int[] { 0, Template.LINK, Template.COMPILE }) {
+      final Cache cache = Snapshot.read(new ByteArrayInputStream(bytes))
+        .filters(filters())
+        .flags(flags)
+        .build();
+
+      for (final String key: STRINGS.keySet()) {
+        final Template t = cache.get(key);
+        assertEquals(STRINGS.get(key), t.toString());
+        assertEquals(expected.get(key).schema().keys(), t.schema().keys());
+        assertEquals(expected.run(key, TEST_ARGS), cache.run(key, TEST_ARGS));
+      }
+
+      assertThrows(UnknownTemplateError.class, () -> {
+        cache.get("unknown");
+      });
+    }
+  }
+
+  @Test
+  public void testChecksum() throws LuigiError, IOException {
+    final byte bytes[] = snapshot();
+    bytes[bytes.length / 2] ^= 1;
+
+    assertThrows(IOException.class, () -> {
+      Snapshot.read(new ByteArrayInputStream(bytes));
+    });
+  }
+
+  @Test
+  public void testHeader() throws LuigiError, IOException {
+    final byte magic[] = snapshot();
+    magic[0] = 'X';
+    assertThrows(IOException.class, () -> {
+      Snapshot.read(new ByteArrayInputStream(magic));
+    });
+
+    final byte version[] = snapshot();
+    version[7] = 99;
+    assertThrows(IOException.class, () -> {
+      Snapshot.read(new ByteArrayInputStream(version));
+    });
+  }
+
+  /**
+   * Build a snapshot with a valid header and checksum around the given
+   * body.
+   */
+  private static byte[] checked(final int... body) throws IOException {
+    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    final DataOutputStream os = new DataOutputStream(buf);
+    os.writeInt(0x4c554947);
+    os.writeInt(Snapshot.VERSION);
+    for (final int b: body)
+      os.writeByte(b);
+
+    final CRC32 crc = new CRC32();
+    crc.update(buf.toByteArray());
+    os.writeLong(crc.getValue());
+    return buf.toByteArray();
+  }
+
+  @Test
+  public void testInvalidCounts() throws IOException {
+    // huge string table
+    final byte huge[] = checked(0xff, 0xff, 0xff, 0xff, 0x07);
+    assertThrows(IOException.class, () -> {
+      Snapshot.read(new ByteArrayInputStream(huge));
+    });
+
+    // huge string
+    final byte string[] = checked(0x01, 0xff, 0xff, 0xff, 0x7f);
+    assertThrows(IOException.class, () -> {
+      Snapshot.read(new ByteArrayInputStream(string));
+    });
+
+    // negative count
+    final byte negative[] = checked(0xff, 0xff, 0xff, 0xff, 0x0f);
+    assertThrows(IOException.class, () -> {
+      Snapshot.read(new ByteArrayInputStream(negative));
+    });
+  }
+
+  @Test
+  public void testTruncated() throws LuigiError, IOException {
+    final byte bytes[] = snapshot();
+
+    assertThrows(IOException.class, () -> {
+      Snapshot.read(new ByteArrayInputStream(bytes, 0, bytes.length - 3));
+    });
+  }
+};
@@ -0,0 +1,217 @@
+package org.pablotron.luigi.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownKeyError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class StreamParseTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("a", "foo");
+    put("b", " <Bar & Baz> ");
+    put("c", "");
+    put("a%{b", "odd");
+  }};
+
+  /**
+   * Reader which returns at most one character per read.
+   */
+  private static final class SlowReader extends Reader {
+    private final String s;
+    private int pos = 0;
+
+    SlowReader(final String s) {
+      this.s = s;
+    }
+
+    public int read(final char[] buf, final int ofs, final int len) {
+      if (pos >= s.length())
+        return -1;
+      buf[ofs] = s.charAt(pos++);
+      return 1;
+    }
+
+    public void close() {}
+  };
+
+  /**
+   * Reader which repeats a string the given number of times without
+   * holding the whole template in memory.
+   */
+  private static final class RepeatReader extends Reader {
+    private final String s;
+    private int count;
+    private int pos = 0;
+
+    RepeatReader(final String s, final int count) {
+      this.s = s;
+      this.count = count;
+    }
+
+    public int read(final char[] buf, final int ofs, final int len) {
+      if (count == 0)
+        return -1;
+
+      final int n = Math.min(len, s.length() - pos);
+      s.getChars(pos, pos + n, buf, ofs);
+      pos += n;
+      if (pos == s.length()) {
+        pos = 0;
+        count--;
+      }
+
+      return n;
+    }
+
+    public void close() {}
+  };
+
+  /**
+   * Appendable which counts output characters.
+   */
+  private static final class Counter implements Appendable {
+    long count = 0;
+
+    public Appendable append(final char c) {
+      count++;
+      return this;
+    }
+
+    public Appendable append(final CharSequence s) {
+      count += s.length();
+      return this;
+    }
+
+    public Appendable append(final CharSequence s, final int start, final int end) {
+      count += end - start;
+      return this;
+    }
+  };
+
+  private static String stream(final Reader in) throws LuigiError, IOException {
+    final StringBuilder r = new StringBuilder();
+    Template.run(in, TEST_ARGS, r);
+    return r.toString();
+  }
+
+  @Test
+  public void testStream() throws LuigiError, IOException {
+    assertEquals("foo &lt;Bar &amp; Baz&gt; !", stream(new StringReader("%{a}%{b | h}!")));
+    assertEquals("100 of {a odd", stream(new StringReader("100% of %{a %{a%{b}")));
+    assertEquals("{ a ", stream(new StringReader("%{ a %")));
+  }
+
+  @Test
+  public void testChannel() throws LuigiError, IOException {
+    final byte[] bytes = "é%{a | uc}€".getBytes(StandardCharsets.UTF_8);
+    final StringBuilder r = new StringBuilder();
+
+    Template.run(
+      Channels.newChannel(new ByteArrayInputStream(bytes)),
+      StandardCharsets.UTF_8,
+      TEST_ARGS,
+      Filter.FILTERS,
+      r
+    );
+
+    assertEquals("éFOO€", r.toString());
+  }
+
+  @Test
+  public void testUnknownKey() {
+    assertThrows(UnknownKeyError.class, () -> stream(new StringReader("x%{unknown-key}")));
+  }
+
+  @Test
+  public void testHugeTemplate() throws LuigiError, IOException {
+    // about 40MB of template, never held in memory
+    final String chunk = "<p>%{a | uc} 100% %{b | h}</p>\n";
+    final Counter out = new Counter();
+    Template.run(new RepeatReader(chunk, 1000000), TEST_ARGS, Filter.FILTERS, out);
+
+    final long expected = new Template(chunk).run(TEST_ARGS).length();
+    assertEquals(1000000 * expected, out.count);
+  }
+
+  private static String repeat(final String s, final int count) {
+    final StringBuilder r = new StringBuilder(s.length() * count);
+    for (int i = 0; i < count; i++)
+      r.append(s);
+    return r.toString();
+  }
+
+  @Test
+  public void testLongAction() throws LuigiError, IOException {
+    // actions over the length limit are copied as text
+    final String args = repeat(" x", 20000);
+    assertEquals("{a | uc" + args + "}foo", stream(new StringReader("%{a | uc" + args + "}%{a}")));
+    assertEquals("FOOfoo", stream(new StringReader("%{a | uc" + repeat(" x", 100) + "}%{a}")));
+  }
+
+  @Test
+  public void testUnterminated() throws LuigiError, IOException {
+    // no closing brace: each percent sign must not scan the whole rest
+    final String s = repeat("%{a | b", 100000);
+    final String r = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> stream(new StringReader(s)));
+    assertTrue(r.startsWith("{a | b%{a | b"));
+    assertTrue(r.length() < s.length() && r.length() > s.length() * 6 / 7);
+
+    // same as template string when the input is shorter than the limit
+    final String short_s = repeat("%{a | b", 100);
+    assertEquals(result(short_s), stream(new StringReader(short_s)));
+  }
+
+  private static final String[] PIECES = {
+    "a", "b", "c", " ", "%", "{", "}", "|", "%{", "%{a}", "%{b|h}",
+    "%{ a | uc | length }", "%{c | u}", "%{b | trim | lc}", "\t", "é",
+    "%{ a", "| h", "%{a%{b}",
+  };
+
+  @Test
+  public void testStreamMatchesTemplate() throws IOException {
+    final Random random = new Random(1);
+
+    for (int i = 0; i < 5000; i++) {
+      final StringBuilder s = new StringBuilder();
+      for (int j = random.nextInt(12); j > 0; j--)
+        s.append(PIECES[random.nextInt(PIECES.length)]);
+
+      final String expected = result(s.toString());
+      assertEquals(expected, streamResult(new StringReader(s.toString())), s.toString());
+      assertEquals(expected, streamResult(new SlowReader(s.toString())), s.toString());
+    }
+  }
+
+  private static String result(final String s) {
+    try {
+      return Template.run(s, TEST_ARGS);
+    } catch (LuigiError | RuntimeException e) {
+      return e.getClass().getName();
+    }
+  }
+
+  private static String streamResult(final Reader in) throws IOException {
+    try {
+      return stream(in);
+    } catch (LuigiError | RuntimeException e) {
+      return e.getClass().getName();
+    }
+  }
+};
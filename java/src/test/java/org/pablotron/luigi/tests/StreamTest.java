@@ -0,0 +1,105 @@
+package org.pablotron.luigi.tests;
+
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Locale;
+import java.io.IOException;
+
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.errors.LuigiError;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+public final class StreamTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("bar", "foo");
+    put("mixed", "Hi <İstanbul> & ß");
+  }};
+
+  private static final Map<String, Filter.Handler> TEST_FILTERS = new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+    // stream handler which only implements the streaming variant
+    put("brackets", new Filter.StreamHandler() {
+      public void filter(
+        String val,
+        String args[],
+        Map<String, String> row,
+        Appendable out
+      ) throws IOException {
+        out.append('[').append(val).append(']');
+      }
+    });
+
+    // plain handler
+    put("barify", new Filter.Handler() {
+      public String filter(String val, String args[], Map<String, String> row) {
+        return String.format("bar-%s-bar", val);
+      }
+    });
+  }};
+
+  private static final String[] TEMPLATES = {
+    "%{bar}",
+    "%{bar | brackets}",
+    "%{bar | brackets | barify}",
+    "%{bar | barify | brackets}",
+    "%{bar | uc | h}",
+    "%{mixed | uc}",
+    "%{mixed | lc}",
+    "%{mixed | h | uc}",
+    "%{mixed | u}",
+  };
+
+  private static void check(final int flags) throws LuigiError, IOException {
+    for (final String s: TEMPLATES) {
+      final Template t = new Template(s, TEST_FILTERS, flags);
+      final StringBuilder sb = new StringBuilder();
+      t.run(TEST_ARGS, new TestResultHandler(sb));
+
+      // compare streamed output with output built from String results
+      String expect = "";
+      for (final String v: s.substring(2, s.length() - 1).split("\\|")) {
+        final String f = v.trim();
+        expect = expect.isEmpty() ? TEST_ARGS.get(f) : TEST_FILTERS.get(f).filter(expect, new String[0], TEST_ARGS);
+      }
+
+      assertEquals(expect, sb.toString(), s);
+      assertEquals(expect, t.run(TEST_ARGS), s);
+    }
+  }
+
+  @Test
+  public void testStream() throws LuigiError, IOException {
+    check(0);
+  }
+
+  @Test
+  public void testLinkedStream() throws LuigiError, IOException {
+    check(Template.LINK);
+  }
+
+  @Test
+  public void testStreamHandlerStringVariant() throws LuigiError {
+    assertEquals("[foo]", TEST_FILTERS.get("brackets").filter("foo", new String[0], TEST_ARGS));
+  }
+
+  @Test
+  public void testTurkishLocale() throws LuigiError, IOException {
+    final Locale locale = Locale.getDefault();
+
+    try {
+      Locale.setDefault(new Locale("tr", "TR"));
+      assertEquals("foo".toUpperCase(), Template.run("%{bar | uc}", TEST_ARGS));
+      assertEquals("FİX".toLowerCase(), Template.run("%{v | lc}", new HashMap<String, String>() {{
+        put("v", "FİX");
+      }}));
+
+      final StringBuilder sb = new StringBuilder();
+      Template.run("%{bar | uc}", TEST_ARGS, sb);
+      assertEquals("foo".toUpperCase(), sb.toString());
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+};
@@ -0,0 +1,152 @@
+package org.pablotron.luigi.tests;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Template;
+import org.pablotron.luigi.cache.CacheStats;
+import org.pablotron.luigi.cache.WarmReport;
+import org.pablotron.luigi.errors.LuigiError;
+import org.pablotron.luigi.errors.UnknownFilterError;
+import org.pablotron.luigi.errors.UnknownTemplateError;
+import org.pablotron.luigi.metrics.Listener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class WarmTest {
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("foo", "foo%{bar | uc}");
+    put("bar", "bar%{foo | h}");
+    put("broken", "%{foo | unknown-filter}");
+  }};
+
+  private static final Map<String, String> ARGS = new HashMap<String, String>() {{
+    put("foo", "foo");
+    put("bar", "bar");
+  }};
+
+  @Test
+  public void testWarmAll() throws Exception {
+    for (final boolean concurrent: new boolean[] { true, false }) {
+      final Cache cache = new Cache.Builder(STRINGS)
+        .flags(Template.LINK)
+        .concurrent(concurrent)
+        .build();
+
+      final WarmReport report = cache.warm();
+      assertEquals(2, report.compiled);
+      assertEquals(0, report.skipped);
+      assertFalse(report.isSuccess());
+      assertEquals(1, report.errors.size());
+      assertTrue(report.errors.get("broken") instanceof UnknownFilterError);
+
+      // warmed templates are hits
+      assertEquals("fooBAR", cache.run("foo", ARGS));
+      final CacheStats stats = cache.stats();
+      assertEquals(1, stats.hits);
+      assertEquals(2, stats.misses);
+    }
+  }
+
+  @Test
+  public void testWarmSubset() throws Exception {
+    final Cache cache = new Cache.Builder(STRINGS)
+      .flags(Template.LINK)
+      .concurrent(true)
+      .build();
+
+    final Template foo = cache.get("foo");
+
+    final WarmReport report = cache.warm(Arrays.asList("foo", "bar", "bar", "missing"));
+    assertEquals(1, report.compiled);
+    assertEquals(1, report.skipped);
+    assertEquals(1, report.errors.size());
+    assertTrue(report.errors.get("missing") instanceof UnknownTemplateError);
+
+    // already compiled template is kept
+    assertSame(foo, cache.get("foo"));
+    assertEquals(2, cache.stats().size);
+  }
+
+  @Test
+  public void testWarmRace() throws Exception {
+    final List<String> missed = new ArrayList<String>();
+    final Cache cache = new Cache.Builder(STRINGS)
+      .flags(Template.LINK)
+      .concurrent(true)
+      .maximumSize(16)
+      .listener(new Listener() {
+        public synchronized void cacheMiss(final String key, final long nanos) {
+          missed.add(key);
+        }
+      })
+      .build();
+
+    // executor which lets a request compile each template first
+    final Executor requestFirst = new Executor() {
+      public void execute(final Runnable r) {
+        try {
+          cache.get("foo");
+        } catch (LuigiError e) {
+          throw new RuntimeException(e);
+        }
+        r.run();
+      }
+    };
+
+    final WarmReport report = cache.warm(Arrays.asList("foo", "bar"), requestFirst);
+    assertEquals(1, report.compiled);
+    assertEquals(1, report.skipped);
+
+    // each template is compiled and counted once
+    assertEquals(Arrays.asList("foo", "bar"), missed);
+    assertEquals(2, cache.stats().misses);
+    assertEquals(2, cache.stats().size);
+  }
+
+  @Test
+  public void testHotKeys() throws Exception {
+    final Cache cache = new Cache.Builder(STRINGS)
+      .recordHotKeys(true)
+      .concurrent(true)
+      .build();
+
+    for (int i = 0; i < 3; i++)
+      cache.run("bar", ARGS);
+    cache.run("foo", ARGS);
+
+    assertEquals(Arrays.asList("bar", "foo"), cache.hotKeys(10));
+    assertEquals(Arrays.asList("bar"), cache.hotKeys(1));
+
+    // save, then warm a new cache from the saved list
+    final StringBuilder buf = new StringBuilder();
+    cache.saveHotKeys(buf, 10);
+    assertEquals("bar\nfoo\n", buf.toString());
+
+    final List<String> keys = Cache.loadHotKeys(new StringReader(buf.toString()));
+    assertEquals(Arrays.asList("bar", "foo"), keys);
+
+    final Cache next = new Cache.Builder(STRINGS).build();
+    final WarmReport report = next.warm(keys);
+    assertTrue(report.isSuccess());
+    assertEquals(2, report.compiled);
+    assertEquals(2, next.stats().size);
+  }
+
+  @Test
+  public void testHotKeysDisabled() {
+    final Cache cache = new Cache.Builder(STRINGS).build();
+    assertThrows(IllegalStateException.class, () -> cache.hotKeys(10));
+  }
+};
@@ -0,0 +1,102 @@
+package org.pablotron.luigi.tests;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.pablotron.luigi.Cache;
+import org.pablotron.luigi.Filter;
+import org.pablotron.luigi.jfr.JfrListener;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public final class JfrTest {
+  private static final Map<String, String> TEST_ARGS = new HashMap<String, String>() {{
+    put("bar", "foo");
+  }};
+
+  private static final Map<String, String> STRINGS = new HashMap<String, String>() {{
+    put("foo", "foo%{bar | slow | uc}");
+  }};
+
+  private static final Map<String, Filter.Handler> FILTERS = new HashMap<String, Filter.Handler>(Filter.FILTERS) {{
+    put("slow", new Filter.Handler() {
+      public String filter(String val, String args[], Map<String, String> row) {
+        try {
+          Thread.sleep(5);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+
+        return val;
+      }
+    });
+  }};
+
+  private static long count(final List<RecordedEvent> events, final String name) {
+    long r = 0;
+    for (final RecordedEvent e: events) {
+      if (e.getEventType().getName().equals(name))
+        r++;
+    }
+
+    return r;
+  }
+
+  @Test
+  public void testEvents() throws Exception {
+    final Cache cache = new Cache.Builder(STRINGS)
+      .filters(FILTERS)
+      .listener(new JfrListener.Builder().filterThreshold(1, TimeUnit.MILLISECONDS).build())
+      .build();
+
+    final Path path = Files.createTempFile("luigi-", ".jfr");
+    try {
+      try (final Recording recording = new Recording()) {
+        recording.enable("org.pablotron.luigi.Parse");
+        recording.enable("org.pablotron.luigi.Render");
+        recording.enable("org.pablotron.luigi.CacheMiss");
+        recording.enable("org.pablotron.luigi.Filter");
+        recording.start();
+
+        cache.run("foo", TEST_ARGS);
+        cache.run("foo", TEST_ARGS);
+
+        recording.stop();
+        recording.dump(path);
+      }
+
+      final List<RecordedEvent> events = RecordingFile.readAllEvents(path);
+      assertEquals(1, count(events, "org.pablotron.luigi.Parse"));
+      assertEquals(1, count(events, "org.pablotron.luigi.CacheMiss"));
+      assertEquals(2, count(events, "org.pablotron.luigi.Render"));
+
+      // only the slow filter exceeds the threshold
+      assertEquals(2, count(events, "org.pablotron.luigi.Filter"));
+
+      for (final RecordedEvent e: events) {
+        if (e.getEventType().getName().equals("org.pablotron.luigi.Render")) {
+          assertEquals("foo", e.getString("key"));
+          assertEquals(21, e.getInt("templateLength"));
+          assertEquals(6, e.getInt("outputLength"));
+
+          // event spans the run, including the slow filter
+          assertTrue(e.getDuration().toMillis() >= 5);
+        } else if (e.getEventType().getName().equals("org.pablotron.luigi.Filter")) {
+          assertEquals("slow", e.getString("filter"));
+          assertTrue(e.getDuration().toMillis() >= 5);
+        }
+      }
+    } finally {
+      Files.delete(path);
+    }
+  }
+};